@@ -0,0 +1,108 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.api;
+
+import java.util.StringJoiner;
+
+/**
+ * Compression of logical backups, passed to pg_dump as --compress.
+ * https://www.postgresql.org/docs/17/app-pgdump.html
+ * LZ4, ZSTD and the long option need pg_dump 16 or newer.
+ * Workers and server-side compression are supported for physical backups only (pg_basebackup 15 or newer).
+ */
+public class BackupCompression {
+
+    public enum Algorithm {
+        NONE,
+        GZIP,
+        LZ4,
+        ZSTD
+    }
+
+    private Algorithm algorithm = Algorithm.NONE;
+    private Integer level;
+    private boolean longDistance;
+    private int workers;
+    private boolean serverSide;
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public BackupCompression setAlgorithm(Algorithm algorithm) {
+        this.algorithm = algorithm;
+        return this;
+    }
+
+    /**
+     * Null means the algorithm's default level.
+     */
+    public Integer getLevel() {
+        return level;
+    }
+
+    public BackupCompression setLevel(Integer level) {
+        this.level = level;
+        return this;
+    }
+
+    /**
+     * Zstd long-distance matching - better ratio for large, repetitive data at the cost of memory.
+     */
+    public boolean isLongDistance() {
+        return longDistance;
+    }
+
+    public BackupCompression setLongDistance(boolean longDistance) {
+        this.longDistance = longDistance;
+        return this;
+    }
+
+    /**
+     * Zstd worker threads, 0 means compression in the calling thread.
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    public BackupCompression setWorkers(int workers) {
+        this.workers = workers;
+        return this;
+    }
+
+    /**
+     * Physical backups only: compress on the server, which saves network bandwidth at the cost of server CPU.
+     */
+    public boolean isServerSide() {
+        return serverSide;
+    }
+
+    public BackupCompression setServerSide(boolean serverSide) {
+        this.serverSide = serverSide;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", BackupCompression.class.getSimpleName() + "[", "]")
+                .add("algorithm=" + algorithm)
+                .add("level=" + level)
+                .add("longDistance=" + longDistance)
+                .add("workers=" + workers)
+                .add("serverSide=" + serverSide)
+                .toString();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.api;
+
+import java.io.IOException;
+import java.io.Serial;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Some entries of the data backup folder could not be pruned, see {@link DbManager#pruneDbDataBackups(DbConf, BackupRetentionPolicy)}.
+ * The deletion failures are attached as suppressed.
+ */
+public class BackupPruneException extends IOException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final transient List<Path> pruned;
+
+    private final transient List<Path> failed;
+
+    public BackupPruneException(List<Path> pruned, List<Path> failed) {
+        super(String.format("Pruning of %s of %s backups failed: %s", failed.size(), pruned.size() + failed.size(), failed));
+        this.pruned = List.copyOf(pruned);
+        this.failed = List.copyOf(failed);
+    }
+
+    /**
+     * The entries deleted despite the failures.
+     */
+    public List<Path> getPruned() {
+        return pruned;
+    }
+
+    /**
+     * The entries (partly) left in place.
+     */
+    public List<Path> getFailed() {
+        return failed;
+    }
+}
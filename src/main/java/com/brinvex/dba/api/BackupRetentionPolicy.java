@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.api;
+
+import java.time.Duration;
+import java.util.StringJoiner;
+
+/**
+ * Which entries of the data backup folder {@link DbManager#pruneDbDataBackups(DbConf, BackupRetentionPolicy)} keeps.
+ * The rules apply per database (the data folder backups form a group of their own), the newest entries first:
+ * an entry is kept while it is younger than maxAge and fewer than maxKept entries are kept;
+ * the newest minKeptVerified verified entries are kept regardless of their age and count.
+ */
+public class BackupRetentionPolicy {
+
+    private Duration maxAge;
+    private int maxKept;
+    private int minKeptVerified = 1;
+
+    /**
+     * Null for no age limit.
+     */
+    public Duration getMaxAge() {
+        return maxAge;
+    }
+
+    public BackupRetentionPolicy setMaxAge(Duration maxAge) {
+        this.maxAge = maxAge;
+        return this;
+    }
+
+    /**
+     * 0 for no count limit.
+     */
+    public int getMaxKept() {
+        return maxKept;
+    }
+
+    public BackupRetentionPolicy setMaxKept(int maxKept) {
+        this.maxKept = maxKept;
+        return this;
+    }
+
+    public int getMinKeptVerified() {
+        return minKeptVerified;
+    }
+
+    public BackupRetentionPolicy setMinKeptVerified(int minKeptVerified) {
+        this.minKeptVerified = minKeptVerified;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", BackupRetentionPolicy.class.getSimpleName() + "[", "]")
+                .add("maxAge=" + maxAge)
+                .add("maxKept=" + maxKept)
+                .add("minKeptVerified=" + minKeptVerified)
+                .toString();
+    }
+}
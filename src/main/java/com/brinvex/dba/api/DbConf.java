@@ -16,6 +16,7 @@
 package com.brinvex.dba.api;
 
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.StringJoiner;
 
 public class DbConf {
@@ -29,6 +30,16 @@ public class DbConf {
         DIRECTORY
     }
 
+    /**
+     * Client used for SQL executed by the library (catalog checks, DDL, settings).
+     * AUTO uses pooled JDBC connections if the PostgreSQL JDBC driver is available and falls back to psql otherwise.
+     */
+    public enum SqlClient {
+        AUTO,
+        JDBC,
+        PSQL
+    }
+
     private String host = "localhost";
     private int port = 5432;
     private String superUser = "postgres";
@@ -38,6 +49,13 @@ public class DbConf {
     private Path dbToolsPath;
     private BackupFormat backupFormat = BackupFormat.DIRECTORY;
     private int backupRestoreParallelism = 1;
+    private BackupCompression backupCompression;
+    private Duration backupRestoreTimeout;
+    private int maxIncrementalBackups = 6;
+    private boolean bulkLoadRestore;
+    private SqlClient sqlClient = SqlClient.AUTO;
+    private Duration readinessTimeout = Duration.ofSeconds(60);
+    private Duration maxReferencedDataAge = Duration.ofDays(7);
 
     public String getHost() {
         return host;
@@ -115,6 +133,10 @@ public class DbConf {
         return this;
     }
 
+    /**
+     * Job count of pg_dump and pg_restore. 0 means auto - derived from the cores, the free connections
+     * and the table sizes, logged with its reasoning. Dumps in other than the DIRECTORY format always run with 1 job.
+     */
     public int getBackupRestoreParallelism() {
         return backupRestoreParallelism;
     }
@@ -124,6 +146,95 @@ public class DbConf {
         return this;
     }
 
+    /**
+     * Null means pg_dump's default for the backup format (gzip for CUSTOM_ARCHIVE and DIRECTORY, none for PLAIN).
+     * PLAIN backups can not be compressed.
+     */
+    public BackupCompression getBackupCompression() {
+        return backupCompression;
+    }
+
+    public DbConf setBackupCompression(BackupCompression backupCompression) {
+        this.backupCompression = backupCompression;
+        return this;
+    }
+
+    /**
+     * Maximum duration of a single pg_dump/pg_restore run.
+     * When exceeded, the tool's whole process tree is killed. Null means no limit.
+     */
+    public Duration getBackupRestoreTimeout() {
+        return backupRestoreTimeout;
+    }
+
+    public DbConf setBackupRestoreTimeout(Duration backupRestoreTimeout) {
+        this.backupRestoreTimeout = backupRestoreTimeout;
+        return this;
+    }
+
+    /**
+     * Number of incremental backups after which the next backup of a chain is a full one again.
+     * Longer chains make backups cheaper but restores slower, because pg_combinebackup has to read them all.
+     */
+    public int getMaxIncrementalBackups() {
+        return maxIncrementalBackups;
+    }
+
+    public DbConf setMaxIncrementalBackups(int maxIncrementalBackups) {
+        this.maxIncrementalBackups = maxIncrementalBackups;
+        return this;
+    }
+
+    /**
+     * Restores by pg_restore section by section with the server tuned for bulk loading: maintenance_work_mem
+     * and synchronous_commit of the restored database, max_wal_size (cluster-wide) and autovacuum of the restored
+     * tables are changed while restoring and reverted afterwards, also if the restore fails.
+     */
+    public boolean isBulkLoadRestore() {
+        return bulkLoadRestore;
+    }
+
+    public DbConf setBulkLoadRestore(boolean bulkLoadRestore) {
+        this.bulkLoadRestore = bulkLoadRestore;
+        return this;
+    }
+
+    public SqlClient getSqlClient() {
+        return sqlClient;
+    }
+
+    public DbConf setSqlClient(SqlClient sqlClient) {
+        this.sqlClient = sqlClient;
+        return this;
+    }
+
+    /**
+     * How long to wait for the DB system to accept connections after it was started or restarted.
+     * Also used as the pg_ctl wait timeout.
+     */
+    public Duration getReadinessTimeout() {
+        return readinessTimeout;
+    }
+
+    public DbConf setReadinessTimeout(Duration readinessTimeout) {
+        this.readinessTimeout = readinessTimeout;
+        return this;
+    }
+
+    /**
+     * Change-aware backups dump a table anew once its referenced data was dumped longer ago than this,
+     * so every table is dumped at least once per this period and reference chains stay short.
+     * Null for no limit, {@link Duration#ZERO} forces a full backup.
+     */
+    public Duration getMaxReferencedDataAge() {
+        return maxReferencedDataAge;
+    }
+
+    public DbConf setMaxReferencedDataAge(Duration maxReferencedDataAge) {
+        this.maxReferencedDataAge = maxReferencedDataAge;
+        return this;
+    }
+
     @Override
     public String toString() {
         return new StringJoiner(", ", DbConf.class.getSimpleName() + "[", "]")
@@ -136,6 +247,13 @@ public class DbConf {
                 .add("dbSystemPath=" + getDbSystemPath())
                 .add("backupFormat=" + backupFormat)
                 .add("backupRestoreParallelism=" + backupRestoreParallelism)
+                .add("backupCompression=" + backupCompression)
+                .add("backupRestoreTimeout=" + backupRestoreTimeout)
+                .add("maxIncrementalBackups=" + maxIncrementalBackups)
+                .add("bulkLoadRestore=" + bulkLoadRestore)
+                .add("sqlClient=" + sqlClient)
+                .add("readinessTimeout=" + readinessTimeout)
+                .add("maxReferencedDataAge=" + maxReferencedDataAge)
                 .toString();
     }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.api;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Wall-clock timing of the named steps of a multi-step operation such as install or uninstall.
+ * Steps are listed in the order they were declared; independent steps may have overlapped.
+ */
+public class DbExecutionReport {
+
+    public enum StepStatus {
+        SUCCEEDED,
+        FAILED,
+        SKIPPED
+    }
+
+    public static class Step {
+
+        private final String name;
+        private final StepStatus status;
+        private final Duration startOffset;
+        private final Duration duration;
+
+        public Step(String name, StepStatus status, Duration startOffset, Duration duration) {
+            this.name = name;
+            this.status = status;
+            this.startOffset = startOffset;
+            this.duration = duration;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public StepStatus getStatus() {
+            return status;
+        }
+
+        /**
+         * Time from the start of the operation to the start of this step. Null for skipped steps.
+         */
+        public Duration getStartOffset() {
+            return startOffset;
+        }
+
+        /**
+         * Null for skipped steps.
+         */
+        public Duration getDuration() {
+            return duration;
+        }
+
+        @Override
+        public String toString() {
+            return new StringJoiner(", ", Step.class.getSimpleName() + "[", "]")
+                    .add("name='" + name + "'")
+                    .add("status=" + status)
+                    .add("startOffset=" + startOffset)
+                    .add("duration=" + duration)
+                    .toString();
+        }
+    }
+
+    private final String operation;
+    private final Duration totalDuration;
+    private final List<Step> steps;
+
+    public DbExecutionReport(String operation, Duration totalDuration, List<Step> steps) {
+        this.operation = operation;
+        this.totalDuration = totalDuration;
+        this.steps = List.copyOf(steps);
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public Duration getTotalDuration() {
+        return totalDuration;
+    }
+
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    public boolean isSuccessful() {
+        return steps.stream().allMatch(s -> s.getStatus() == StepStatus.SUCCEEDED);
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", DbExecutionReport.class.getSimpleName() + "[", "]")
+                .add("operation='" + operation + "'")
+                .add("totalDuration=" + totalDuration)
+                .add("steps=" + steps)
+                .toString();
+    }
+}
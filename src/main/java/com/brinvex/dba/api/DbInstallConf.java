@@ -23,16 +23,30 @@ import java.util.Map;
 import java.util.Set;
 import java.util.StringJoiner;
 
+import static com.brinvex.dba.internal.common.WindowsUtil.isWindowsOs;
+
 public class DbInstallConf {
 
+    /**
+     * How the DB system process is run.
+     * WIN_SERVICE registers a Windows service, PG_CTL starts and stops the server directly by pg_ctl.
+     * Defaults to WIN_SERVICE on Windows and PG_CTL elsewhere.
+     */
+    public enum ServiceMode {
+        WIN_SERVICE,
+        PG_CTL
+    }
+
     private final DbConf baseConf;
     private String envName;
     private String firewallRuleName;
     private String winServiceName;
     private Path installerPath;
-    private String dbLocale = "English_United States.UTF8";
+    private ServiceMode serviceMode;
+    private String dbLocale;
     private String dbListenAddresses = "*";
     private boolean installVCRedist = true;
+    private int provisioningParallelism = 1;
     private final Set<String> allowedClientAddresses = new LinkedHashSet<>();
     private final Set<String> systemSettings = new LinkedHashSet<>();
     private final Set<String> extensions = new LinkedHashSet<>();
@@ -86,8 +100,23 @@ public class DbInstallConf {
         return this;
     }
 
+    public ServiceMode getServiceMode() {
+        if (serviceMode != null) {
+            return serviceMode;
+        }
+        return isWindowsOs() ? ServiceMode.WIN_SERVICE : ServiceMode.PG_CTL;
+    }
+
+    public DbInstallConf setServiceMode(ServiceMode serviceMode) {
+        this.serviceMode = serviceMode;
+        return this;
+    }
+
     public String getDbLocale() {
-        return dbLocale;
+        if (dbLocale != null) {
+            return dbLocale;
+        }
+        return isWindowsOs() ? "English_United States.UTF8" : "C.UTF-8";
     }
 
     public DbInstallConf setDbLocale(String dbLocale) {
@@ -174,6 +203,20 @@ public class DbInstallConf {
         return this;
     }
 
+    /**
+     * Maximum number of app databases provisioned concurrently during install (database creation and extensions).
+     * Extensions of databases sharing the same owner are always created one database after another,
+     * because the owner is temporarily promoted to superuser for that.
+     */
+    public int getProvisioningParallelism() {
+        return provisioningParallelism;
+    }
+
+    public DbInstallConf setProvisioningParallelism(int provisioningParallelism) {
+        this.provisioningParallelism = provisioningParallelism;
+        return this;
+    }
+
     @Override
     public String toString() {
         return new StringJoiner(", ", DbInstallConf.class.getSimpleName() + "[", "]")
@@ -181,6 +224,7 @@ public class DbInstallConf {
                 .add("envName='" + envName + "'")
                 .add("firewallRuleName='" + firewallRuleName + "'")
                 .add("winServiceName='" + winServiceName + "'")
+                .add("serviceMode=" + serviceMode)
                 .add("installerPath=" + installerPath)
                 .add("pgLocale='" + dbLocale + "'")
                 .add("pgListenAddresses='" + dbListenAddresses + "'")
@@ -189,6 +233,7 @@ public class DbInstallConf {
                 .add("extensions=" + extensions)
                 .add("appUsers=" + appUsers)
                 .add("appDatabases=" + appDatabases)
+                .add("provisioningParallelism=" + provisioningParallelism)
                 .toString();
     }
 }
@@ -18,17 +18,31 @@ package com.brinvex.dba.api;
 import com.brinvex.dba.internal.postgres.PostgresDbManager;
 
 import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
 
-public interface DbManager {
+public interface DbManager extends AutoCloseable {
 
     DbManager POSTGRESQL = new PostgresDbManager();
 
     void install(DbInstallConf conf) throws IOException;
 
+    /**
+     * Like {@link #install(DbInstallConf)}, returning the timing of the install steps.
+     */
+    DbExecutionReport installWithReport(DbInstallConf conf) throws IOException;
+
     void uninstall(DbInstallConf conf) throws IOException;
 
+    /**
+     * Like {@link #uninstall(DbInstallConf)}, returning the timing of the uninstall steps.
+     */
+    DbExecutionReport uninstallWithReport(DbInstallConf conf) throws IOException;
+
     boolean databaseExists(DbConf conf, String db) throws IOException;
 
     void createAppDbUsers(DbConf conf, Map<String, String> appUsers) throws IOException;
@@ -37,19 +51,168 @@ public interface DbManager {
 
     void backupDatabase(DbConf conf, String dbToBackup, Path backupPath) throws IOException;
 
+    /**
+     * Change-aware DIRECTORY backup: dumps the data only of the tables whose change counters
+     * (pg_stat_user_tables inserts/updates/deletes, relfilenode, size and columns) moved since the previous backup
+     * and references the data of the other tables from the backup holding it. Every DIRECTORY backup records
+     * the counters, so any of them can serve as the previous one. Referenced backups must be kept (and moved)
+     * together with the backups referencing them; {@link #restoreDatabase(DbConf, Path, String, String)}
+     * reads the referenced data from them.
+     * <p>
+     * The counters are re-checked after pg_dump, no sooner than a minute after they were first read (table statistics
+     * are flushed asynchronously, within a minute). If a referenced table changed meanwhile, the backup is redone in full.
+     * A server restart after a crash or a statistics reset invalidates the counters, the backup is full then too.
+     * Tables are dumped anew once their referenced data is older than {@link DbConf#getMaxReferencedDataAge()}.
+     * Before pg_dump 17, tables whose names need whitespace (or, on Windows, quotes) are always dumped.
+     */
+    void backupDatabase(DbConf conf, String dbToBackup, Path backupPath, Path previousBackupPath) throws IOException;
+
+    /**
+     * Streams the backup from pg_dump's stdout into the given sink, hashing it on the way, without any temporary file.
+     * Writes a custom archive, or an SQL script if the configured format is PLAIN.
+     * The dump runs single-threaded, backupRestoreParallelism does not apply. The sink is not closed.
+     */
+    DbStreamStats backupDatabase(DbConf conf, String dbToBackup, WritableByteChannel sink) throws IOException;
+
+    /**
+     * Verifies a DIRECTORY backup against the SHA-256 checksums written at backup time (checksums.sha256),
+     * hashing its files concurrently, and checks that the TABLE DATA entries of its TOC match the data files.
+     * Throws an IOException listing the missing, unexpected and corrupted files.
+     */
+    void verifyDatabaseBackup(DbConf conf, Path backupPath) throws IOException;
+
+    /**
+     * Moves a DIRECTORY backup into a content-addressed store: each file is kept once, named by its SHA-256,
+     * so the unchanged per-table files of consecutive backups take no extra space. The backup is checked
+     * against its checksums.sha256 first and stored under its folder name, which is returned.
+     */
+    String storeDatabaseBackup(DbConf conf, Path backupPath, Path storePath) throws IOException;
+
+    /**
+     * Rebuilds a stored backup as a restorable DIRECTORY backup of hard links to the store (copies where linking fails).
+     * The files of the store are read-only, the result must not be modified.
+     */
+    Path materializeDatabaseBackup(DbConf conf, Path storePath, String backupName, Path targetPath) throws IOException;
+
+    List<String> getStoredDatabaseBackups(DbConf conf, Path storePath) throws IOException;
+
+    /**
+     * Removes the backups from the store and deletes the files no other backup shares. Returns the freed bytes.
+     */
+    long removeStoredDatabaseBackups(DbConf conf, Path storePath, List<String> backupNames) throws IOException;
+
+    /**
+     * Online logical backup of the whole cluster into the given folder: globals.sql by pg_dumpall --globals-only
+     * (roles, tablespaces) and a {@link #backupDatabase(DbConf, String, Path)} of every connectable database,
+     * several at once. The dumps share a budget of backupRestoreParallelism jobs (0 = auto by the cores
+     * and free connections), split among the databases by size. The dumps are named after the database OID,
+     * e.g. db_16384.backup. The cluster_manifest.tsv, written last, lists the database names
+     * (backslash-escaped) with their files, size, jobs, duration and SHA-256.
+     */
+    void backupDbClusterLogical(DbConf conf, Path backupPath) throws IOException;
+
+    /**
+     * Backs up the database into the data backup folder and drops it. The backup is verified first
+     * (see {@link #findLatestVerifiedDbBackup(DbConf, String)}); if the verification fails, the database is kept
+     * and an IOException is thrown.
+     */
     void backupAndDropDatabase(DbConf conf, String db) throws IOException;
 
     void backupAllDbData(DbConf baseConf) throws IOException;
 
+    /**
+     * Deletes the entries of the data backup folder (the data folders moved aside by {@link #backupAllDbData(DbConf)}
+     * and the dumps of {@link #backupAndDropDatabase(DbConf, String)}) whose timestamp is older than the retention.
+     * Each entry is deleted by parallel subtree deletion; a failed entry does not stop pruning the others.
+     * Returns the deleted entries. If some entries fail, a {@link BackupPruneException} tells the deleted and the failed ones.
+     */
+    List<Path> pruneDbDataBackups(DbConf conf, Duration retention) throws IOException;
+
+    /**
+     * Like {@link #pruneDbDataBackups(DbConf, Duration)}, but decides by the policy for the backups recorded
+     * in the backup catalog of the data backup folder. Backups taken before the catalog existed are pruned by the maxAge only.
+     */
+    List<Path> pruneDbDataBackups(DbConf conf, BackupRetentionPolicy policy) throws IOException;
+
+    /**
+     * The newest backup of the database by {@link #backupAndDropDatabase(DbConf, String)} which was verified readable
+     * (pg_restore lists its contents, a plain script is complete), looked up in the index of the backup catalog.
+     * Returns null if none.
+     */
+    Path findLatestVerifiedDbBackup(DbConf conf, String db) throws IOException;
+
     void restoreDatabase(DbConf conf, Path backupPath, String db, String owner) throws IOException;
 
+    /**
+     * Restores a new database from a backup stream, e.g. produced by {@link #backupDatabase(DbConf, String, WritableByteChannel)},
+     * piping it into pg_restore (or psql if the configured format is PLAIN) without materializing it on disk.
+     * The source is read only as fast as the restore consumes it. The restore runs single-threaded.
+     * The source is not closed.
+     */
+    DbStreamStats restoreDatabase(DbConf conf, ReadableByteChannel source, String db, String owner) throws IOException;
+
+    /**
+     * Online physical backup of the whole cluster by pg_basebackup: tar format, streamed WAL, fast checkpoint
+     * and a backup_manifest. Compressed according to {@link DbConf#getBackupCompression()}, on the client or the server.
+     */
+    void backupDbClusterPhysical(DbConf conf, Path backupPath) throws IOException;
+
+    /**
+     * Replaces the data folder by a physical backup: stops the DB system, moves the current data folder aside
+     * (see {@link #backupAllDbData(DbConf)}), extracts the archives in parallel, verifies the result
+     * against the backup_manifest by pg_verifybackup and starts the DB system.
+     * A non-empty tablespace location of the backup is moved aside as well, to "&lt;location&gt;_&lt;timestamp&gt;"
+     * next to it, and the tablespace links of the moved data folder are repointed there (except Windows junctions).
+     */
+    void restoreDbClusterPhysical(DbInstallConf conf, Path backupPath) throws IOException;
+
+    /**
+     * Adds a physical backup to the chain in the given folder: a full backup if the chain is empty
+     * or already has {@link DbConf#getMaxIncrementalBackups()} incrementals since the last full one,
+     * otherwise an incremental backup against the previous backup's manifest. Enables summarize_wal if needed.
+     * Backups are taken in the plain format, uncompressed, as pg_combinebackup requires. Needs PG 17+.
+     * Returns the folder of the new backup.
+     */
+    Path backupDbClusterIncremental(DbConf conf, Path chainPath) throws IOException;
+
+    /**
+     * Like {@link #restoreDbClusterPhysical(DbInstallConf, Path)}, but rebuilds the data folder
+     * from the latest full backup of the chain and all its incrementals by pg_combinebackup.
+     */
+    void restoreDbClusterIncremental(DbInstallConf conf, Path chainPath) throws IOException;
+
     void restartDbSystem(DbInstallConf conf) throws IOException;
 
     void restartDbSystemIfRunning(DbInstallConf conf) throws IOException;
 
+    /**
+     * Reloads the configuration and restarts the DB system only if a changed parameter can not be applied without restart.
+     * Returns the parameters which forced the restart, empty if the reload was sufficient.
+     * If the reload itself fails, the exception is thrown and nothing is restarted.
+     */
+    List<String> reloadOrRestartDbSystem(DbInstallConf conf) throws IOException;
+
+    /**
+     * Promotes a standby DB system to primary and waits until the promotion completes.
+     */
+    void promoteDbSystem(DbInstallConf conf) throws IOException;
+
+    /**
+     * Waits until the DB system accepts connections (not starting up nor in recovery) and returns how long it took.
+     */
+    Duration awaitDbSystemReady(DbConf conf) throws IOException;
+
     void riskyDropDatabase(DbConf conf, String db) throws IOException;
 
     void setupFdw(DbConf dbConf, FdwConf fdwConf) throws IOException;
 
     void refreshFdw(DbConf dbConf, FdwConf fdwConf) throws IOException;
+
+    /**
+     * Closes the pooled database connections ({@link DbConf.SqlClient#JDBC}).
+     * The manager stays usable and reconnects on demand, so closing the shared {@link #POSTGRESQL} is safe.
+     */
+    @Override
+    default void close() {
+    }
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.api;
+
+import java.time.Duration;
+import java.util.StringJoiner;
+
+/**
+ * Size, duration and SHA-256 checksum of a backup or restore byte stream.
+ */
+public class DbStreamStats {
+
+    private final long bytes;
+    private final Duration duration;
+    private final String sha256;
+
+    public DbStreamStats(long bytes, Duration duration, String sha256) {
+        this.bytes = bytes;
+        this.duration = duration;
+        this.sha256 = sha256;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public Duration getDuration() {
+        return duration;
+    }
+
+    /**
+     * Lowercase hex SHA-256 of the streamed bytes.
+     */
+    public String getSha256() {
+        return sha256;
+    }
+
+    public double getBytesPerSecond() {
+        long nanos = Math.max(1, duration.toNanos());
+        return bytes * 1_000_000_000.0 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return new StringJoiner(", ", DbStreamStats.class.getSimpleName() + "[", "]")
+                .add("bytes=" + bytes)
+                .add("duration=" + duration)
+                .add("sha256='" + sha256 + "'")
+                .toString();
+    }
+}
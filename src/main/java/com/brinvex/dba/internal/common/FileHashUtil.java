@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.brinvex.dba.internal.common.WindowsUtil.isWindowsOs;
+
+public class FileHashUtil {
+
+    /**
+     * Big enough to amortize the mapping, small enough to keep the address space of concurrent hashes modest.
+     */
+    private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private static final int READ_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Lowercase hex SHA-256 of the file. The file is memory-mapped window by window, which spares copying it
+     * through a buffer. Not on Windows, where a mapped file can not be deleted until the mapping is garbage collected.
+     */
+    public static String sha256(Path file) throws IOException {
+        MessageDigest digest = sha256Digest();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (isWindowsOs()) {
+                ByteBuffer buf = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+                while (ch.read(buf.clear()) != -1) {
+                    digest.update(buf.flip());
+                }
+            } else {
+                long size = ch.size();
+                for (long pos = 0; pos < size; pos += MAP_WINDOW_SIZE) {
+                    digest.update(ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_WINDOW_SIZE, size - pos)));
+                }
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Hashes the files concurrently, the biggest first - a big file started last would keep one thread busy
+     * long after the others finished. Returns the hashes in the order of the given files.
+     */
+    public static Map<Path, String> sha256(List<Path> files, int parallelism) throws IOException {
+        List<Path> bySizeDesc = new ArrayList<>(files.size());
+        Map<Path, Long> sizes = new HashMap<>();
+        for (Path file : files) {
+            sizes.put(file, Files.size(file));
+            bySizeDesc.add(file);
+        }
+        bySizeDesc.sort(Comparator.comparing(sizes::get).reversed());
+        Map<Path, String> hashes = new ConcurrentHashMap<>();
+        ParallelUtil.forEach("sha256", bySizeDesc, parallelism, file -> hashes.put(file, sha256(file)));
+        Map<Path, String> result = new LinkedHashMap<>();
+        for (Path file : files) {
+            result.put(file, hashes.get(file));
+        }
+        return result;
+    }
+
+    public static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
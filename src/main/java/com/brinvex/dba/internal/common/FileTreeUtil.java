@@ -0,0 +1,322 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.common;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+import static java.lang.String.format;
+
+public class FileTreeUtil {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileTreeUtil.class);
+
+    private static final long PROGRESS_LOG_INTERVAL_NANOS = Duration.ofSeconds(10).toNanos();
+
+    private static final int DELETION_FILE_BATCH_SIZE = 512;
+
+    /**
+     * Moves the tree by a rename if the target is on the same file store as the source.
+     * Otherwise copies it by {@link #copy(Path, Path, int)} and deletes the source only once the whole copy is verified;
+     * a failed copy is removed, leaving the source untouched.
+     */
+    public static void move(Path source, Path target, int parallelism) throws IOException {
+        if (Files.getFileStore(source).equals(Files.getFileStore(target.getParent()))) {
+            Files.move(source, target);
+            return;
+        }
+        if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+            throw new FileAlreadyExistsException(target.toString());
+        }
+        LOG.info("Moving across file stores by copying: {} -> {}", source, target);
+        try {
+            copy(source, target, parallelism);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Copy failed, removing the incomplete target: {}", target);
+            try {
+                delete(target, parallelism);
+            } catch (IOException | RuntimeException deleteFailure) {
+                e.addSuppressed(deleteFailure);
+            }
+            throw e;
+        }
+        delete(source, parallelism);
+    }
+
+    /**
+     * Copies the tree into the (not yet existing) target. Regular files are copied concurrently, the biggest first,
+     * by {@link FileChannel#transferTo}, forced to the disk and verified by comparing the CRC-32C of both sides.
+     * Symbolic links are recreated as links, modification times and POSIX permissions are kept.
+     * Returns the number of bytes copied.
+     */
+    public static long copy(Path source, Path target, int parallelism) throws IOException {
+        List<Path> dirs = new ArrayList<>();
+        List<Map.Entry<Path, Long>> files = new ArrayList<>();
+        Files.walkFileTree(source, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectory(target.resolve(source.relativize(dir)));
+                dirs.add(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path targetFile = target.resolve(source.relativize(file));
+                if (attrs.isSymbolicLink()) {
+                    Files.createSymbolicLink(targetFile, Files.readSymbolicLink(file));
+                } else if (attrs.isRegularFile()) {
+                    files.add(Map.entry(file, attrs.size()));
+                } else {
+                    throw new IOException(format("Unsupported file type: %s", file));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        long totalBytes = files.stream().mapToLong(Map.Entry::getValue).sum();
+        files.sort(Map.Entry.<Path, Long>comparingByValue().reversed());
+
+        LOG.info("Copying {}: files={}, dirs={}, size={} MB, parallelism={}",
+                source, files.size(), dirs.size(), ThroughputUtil.toMb(totalBytes), parallelism);
+        long startNanos = System.nanoTime();
+        AtomicLong copiedBytes = new AtomicLong();
+        AtomicLong lastLogNanos = new AtomicLong(startNanos);
+        long total = totalBytes;
+        ParallelUtil.forEach("copyFile", files, parallelism, e -> {
+            Path file = e.getKey();
+            Path targetFile = target.resolve(source.relativize(file));
+            long copied = copiedBytes.addAndGet(copyFile(file, targetFile));
+            long now = System.nanoTime();
+            long last = lastLogNanos.get();
+            if (now - last >= PROGRESS_LOG_INTERVAL_NANOS && lastLogNanos.compareAndSet(last, now)) {
+                LOG.info("Copying {}: {}/{} MB, throughput={} MB/s",
+                        source, ThroughputUtil.toMb(copied), ThroughputUtil.toMb(total),
+                        ThroughputUtil.mbPerSecond(copied, Duration.ofNanos(now - startNanos)));
+            }
+        });
+        // Children first - creating entries changes the modification time of their directory
+        for (int i = dirs.size() - 1; i >= 0; i--) {
+            Path dir = dirs.get(i);
+            copyAttributes(dir, target.resolve(source.relativize(dir)));
+        }
+        Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+        LOG.info("Copied {} -> {}: {} MB, duration={}, throughput={} MB/s",
+                source, target, ThroughputUtil.toMb(totalBytes), duration, ThroughputUtil.mbPerSecond(totalBytes, duration));
+        return totalBytes;
+    }
+
+    /**
+     * Total size of the regular files of a folder tree, or the size of a file.
+     */
+    public static long sizeOf(Path path) throws IOException {
+        if (Files.isRegularFile(path)) {
+            return Files.size(path);
+        }
+        try (var files = Files.walk(path)) {
+            long size = 0;
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Files.isRegularFile(file)) {
+                    size += Files.size(file);
+                }
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Deletes the tree, children first, on a dedicated fork-join pool: subdirectories are deleted concurrently,
+     * big directories (e.g. DIRECTORY format dumps) in batches of files. Symbolic links are deleted, not followed.
+     * A failure does not stop the deletion of the rest of the tree; once done, an IOException reports
+     * the number of failed paths with (up to 20 of) their failures attached as suppressed. Missing paths are ignored.
+     * Returns the number of deleted paths.
+     */
+    public static long delete(Path path, int parallelism) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return 0;
+        }
+        DeletionProgress progress = new DeletionProgress(path);
+        if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            progress.delete(path);
+        } else {
+            try (ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism))) {
+                pool.invoke(ForkJoinTask.adapt(() -> deleteDir(path, progress)));
+            }
+        }
+        return progress.finish();
+    }
+
+    private static class DeletionProgress {
+
+        private static final int MAX_REPORTED_FAILURES = 20;
+
+        private final Path root;
+
+        private final long startNanos = System.nanoTime();
+
+        private final AtomicLong deleted = new AtomicLong();
+
+        private final AtomicLong lastLogNanos = new AtomicLong(startNanos);
+
+        private final Queue<IOException> failures = new ConcurrentLinkedQueue<>();
+
+        private final AtomicInteger failureCount = new AtomicInteger();
+
+        private DeletionProgress(Path root) {
+            this.root = root;
+        }
+
+        private void delete(Path path) {
+            try {
+                Files.delete(path);
+            } catch (IOException e) {
+                failed(e);
+                return;
+            }
+            long n = deleted.incrementAndGet();
+            long now = System.nanoTime();
+            long last = lastLogNanos.get();
+            if (now - last >= PROGRESS_LOG_INTERVAL_NANOS && lastLogNanos.compareAndSet(last, now)) {
+                LOG.info("Deleting {}: deleted={}, failed={}, duration={}",
+                        root, n, failureCount.get(), Duration.ofNanos(now - startNanos));
+            }
+        }
+
+        private void failed(IOException e) {
+            if (failureCount.incrementAndGet() <= MAX_REPORTED_FAILURES) {
+                failures.add(e);
+            }
+        }
+
+        private long finish() throws IOException {
+            Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+            int failed = failureCount.get();
+            if (failed > 0) {
+                IOException e = new IOException(format("Deleting %s failed for %s paths, deleted=%s", root, failed, deleted.get()));
+                failures.forEach(e::addSuppressed);
+                throw e;
+            }
+            LOG.info("Deleted {}: paths={}, duration={}", root, deleted.get(), duration);
+            return deleted.get();
+        }
+    }
+
+    /**
+     * Forks the subdirectories and the batches of files, so that big flat directories are deleted in parallel too.
+     */
+    private static void deleteDir(Path dir, DeletionProgress progress) {
+        List<ForkJoinTask<?>> subtasks = new ArrayList<>();
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                    subtasks.add(ForkJoinTask.adapt(() -> deleteDir(entry, progress)).fork());
+                } else {
+                    files.add(entry);
+                    if (files.size() == DELETION_FILE_BATCH_SIZE) {
+                        List<Path> batch = files;
+                        subtasks.add(ForkJoinTask.adapt(() -> batch.forEach(progress::delete)).fork());
+                        files = new ArrayList<>();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            progress.failed(e);
+        } catch (DirectoryIteratorException e) {
+            progress.failed(e.getCause());
+        }
+        files.forEach(progress::delete);
+        subtasks.forEach(ForkJoinTask::join);
+        progress.delete(dir);
+    }
+
+    private static long copyFile(Path source, Path target) throws IOException {
+        long size;
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            size = in.size();
+            long position = 0;
+            while (position < size) {
+                long n = in.transferTo(position, size - position, out);
+                if (n <= 0) {
+                    throw new IOException(format("File shrank while being copied: %s", source));
+                }
+                position += n;
+            }
+            out.force(false);
+        }
+        long sourceCrc = crc32c(source);
+        long targetCrc = crc32c(target);
+        if (sourceCrc != targetCrc) {
+            throw new IOException(format("Copy verification failed, CRC-32C %08x != %08x: %s -> %s", sourceCrc, targetCrc, source, target));
+        }
+        copyAttributes(source, target);
+        return size;
+    }
+
+    private static long crc32c(Path file) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buf = ByteBuffer.allocateDirect(StreamPipeUtil.BUFFER_SIZE);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (ch.read(buf) != -1) {
+                buf.flip();
+                crc.update(buf);
+                buf.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void copyAttributes(Path source, Path target) throws IOException {
+        PosixFileAttributeView posixView = Files.getFileAttributeView(source, PosixFileAttributeView.class);
+        if (posixView != null) {
+            PosixFileAttributes attrs = posixView.readAttributes();
+            Files.setPosixFilePermissions(target, attrs.permissions());
+            Files.getFileAttributeView(target, BasicFileAttributeView.class).setTimes(attrs.lastModifiedTime(), attrs.lastAccessTime(), null);
+        } else {
+            BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+            Files.getFileAttributeView(target, BasicFileAttributeView.class)
+                    .setTimes(attrs.lastModifiedTime(), attrs.lastAccessTime(), attrs.creationTime());
+        }
+    }
+}
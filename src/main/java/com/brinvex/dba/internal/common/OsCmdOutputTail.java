@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.common;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Keeps only the last non-blank lines of a command output, up to a fixed number of characters.
+ */
+public class OsCmdOutputTail {
+
+    private static final String TRUNCATION_MARK = "[...]";
+
+    private final int maxChars;
+
+    private final Deque<String> lines = new ArrayDeque<>();
+
+    private int chars;
+
+    private boolean truncated;
+
+    public OsCmdOutputTail(int maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    public synchronized void add(String line) {
+        if (line.isBlank()) {
+            return;
+        }
+        if (line.length() > maxChars) {
+            line = line.substring(line.length() - maxChars);
+            truncated = true;
+        }
+        lines.addLast(line);
+        chars += line.length();
+        while (chars > maxChars) {
+            chars -= lines.removeFirst().length();
+            truncated = true;
+        }
+    }
+
+    public synchronized boolean isTruncated() {
+        return truncated;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder(chars + (truncated ? TRUNCATION_MARK.length() : 0));
+        if (truncated) {
+            sb.append(TRUNCATION_MARK);
+        }
+        lines.forEach(sb::append);
+        return sb.toString();
+    }
+}
@@ -25,9 +25,12 @@ public class OsCmdResult implements Serializable {
 
     private final String err;
 
-    public OsCmdResult(String out, String err) {
+    private final int exitCode;
+
+    public OsCmdResult(String out, String err, int exitCode) {
         this.out = out;
         this.err = err;
+        this.exitCode = exitCode;
     }
 
     public String getOut() {
@@ -38,17 +41,21 @@ public class OsCmdResult implements Serializable {
         return err;
     }
 
+    public int getExitCode() {
+        return exitCode;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         OsCmdResult that = (OsCmdResult) o;
-        return Objects.equals(out, that.out) && Objects.equals(err, that.err);
+        return exitCode == that.exitCode && Objects.equals(out, that.out) && Objects.equals(err, that.err);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(out, err);
+        return Objects.hash(out, err, exitCode);
     }
 
     @Override
@@ -56,6 +63,7 @@ public class OsCmdResult implements Serializable {
         return new StringJoiner(", ", OsCmdResult.class.getSimpleName() + "[", "]")
                 .add("out='" + out + "'")
                 .add("err='" + err + "'")
+                .add("exitCode=" + exitCode)
                 .toString();
     }
 }
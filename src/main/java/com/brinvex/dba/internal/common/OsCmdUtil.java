@@ -18,11 +18,21 @@ package com.brinvex.dba.internal.common;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.time.Duration;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import static java.util.stream.Collectors.joining;
 
@@ -30,39 +40,263 @@ public class OsCmdUtil {
 
     private static final Logger LOG = LoggerFactory.getLogger(OsCmdUtil.class);
 
+    private static final int MAX_LINE_CHARS = 64 * 1024;
+
+    private static final int TAIL_CHARS = 16 * 1024;
+
     public static OsCmdResult exec(String cmds) throws IOException {
         return exec(cmds, Collections.emptyList());
     }
 
     public static OsCmdResult exec(String cmds, Collection<String> envs) throws IOException {
+        return exec(cmds, envs, null);
+    }
+
+    /**
+     * Stdout and stderr are drained concurrently, so a child writing a lot to either stream never blocks.
+     * If the timeout (null means no limit) elapses, the whole process tree is killed and an IOException is thrown.
+     */
+    public static OsCmdResult exec(String cmds, Collection<String> envs, Duration timeout) throws IOException {
+        StringBuilder outSb = new StringBuilder();
+        StringBuilder errSb = new StringBuilder();
+        int exitCode = exec(cmds, envs, timeout, null,
+                in -> readLines(in, "cmdOut", s -> {
+                    if (!s.isBlank()) {
+                        outSb.append(s);
+                    }
+                }),
+                in -> readLines(in, "cmdErr", s -> {
+                    if (!s.isBlank()) {
+                        errSb.append(s);
+                    }
+                }));
+        return new OsCmdResult(outSb.toString(), errSb.toString(), exitCode);
+    }
+
+    /**
+     * Pushes every output line to the given consumers as soon as it is read, without accumulating the output.
+     * Lines longer than 64k chars are delivered in pieces.
+     * The returned result carries only the last 16k chars of each stream, prefixed with "[...]" when truncated.
+     */
+    public static OsCmdResult execStreaming(
+            String cmds,
+            Collection<String> envs,
+            Duration timeout,
+            Consumer<String> outLineConsumer,
+            Consumer<String> errLineConsumer
+    ) throws IOException {
+        return execStreaming(cmds, envs, timeout, null, outLineConsumer, errLineConsumer);
+    }
+
+    /**
+     * Same as {@link #execStreaming(String, Collection, Duration, Consumer, Consumer)},
+     * additionally writing the given input (if not null) to the process stdin.
+     */
+    public static OsCmdResult execStreaming(
+            String cmds,
+            Collection<String> envs,
+            Duration timeout,
+            String input,
+            Consumer<String> outLineConsumer,
+            Consumer<String> errLineConsumer
+    ) throws IOException {
+        StdinHandler stdinHandler = input == null ? null : out -> {
+            Writer writer = new OutputStreamWriter(out);
+            writer.write(input);
+            writer.flush();
+        };
+        return execWithStdinHandler(cmds, envs, timeout, stdinHandler, outLineConsumer, errLineConsumer);
+    }
+
+    /**
+     * Same as {@link #execStreaming(String, Collection, Duration, Consumer, Consumer)},
+     * additionally letting the handler (if not null) write raw bytes to the process stdin, which is closed afterwards.
+     * Writes block while the child is not reading, so the handler is naturally throttled to the child's pace.
+     */
+    public static OsCmdResult execWithStdinHandler(
+            String cmds,
+            Collection<String> envs,
+            Duration timeout,
+            StdinHandler stdinHandler,
+            Consumer<String> outLineConsumer,
+            Consumer<String> errLineConsumer
+    ) throws IOException {
+        OsCmdOutputTail outTail = new OsCmdOutputTail(TAIL_CHARS);
+        OsCmdOutputTail errTail = new OsCmdOutputTail(TAIL_CHARS);
+        int exitCode = exec(cmds, envs, timeout, stdinHandler,
+                in -> readLines(in, "cmdOut", s -> {
+                    outTail.add(s);
+                    outLineConsumer.accept(s);
+                }),
+                in -> readLines(in, "cmdErr", s -> {
+                    errTail.add(s);
+                    errLineConsumer.accept(s);
+                }));
+        return new OsCmdResult(outTail.toString(), errTail.toString(), exitCode);
+    }
+
+    /**
+     * Hands the raw stdout stream to the given handler, e.g. to pipe binary output elsewhere without a temporary file.
+     * If the handler fails, the process tree is killed, so a child blocked on a full stdout pipe never hangs the caller.
+     * The returned result carries an empty out and the last 16k chars of stderr.
+     */
+    public static OsCmdResult execWithStdoutHandler(
+            String cmds,
+            Collection<String> envs,
+            Duration timeout,
+            StreamHandler outHandler,
+            Consumer<String> errLineConsumer
+    ) throws IOException {
+        OsCmdOutputTail errTail = new OsCmdOutputTail(TAIL_CHARS);
+        int exitCode = exec(cmds, envs, timeout, null, outHandler,
+                in -> readLines(in, "cmdErr", s -> {
+                    errTail.add(s);
+                    errLineConsumer.accept(s);
+                }));
+        return new OsCmdResult("", errTail.toString(), exitCode);
+    }
+
+    private static int exec(
+            String cmds,
+            Collection<String> envs,
+            Duration timeout,
+            StdinHandler stdinHandler,
+            StreamHandler outHandler,
+            StreamHandler errHandler
+    ) throws IOException {
         String normCmds = cmds.replaceAll("\\s+", " ");
-        LOG.debug("exec {} [envs={}]", normCmds, hideSecretEnvs(envs));
+        LOG.debug("exec {} [envs={}, timeout={}]", normCmds, hideSecretEnvs(envs), timeout);
 
         String[] cmdParts = normCmds.split("\\s");
-        Runtime runtime = Runtime.getRuntime();
-        Process process = envs.isEmpty() ? runtime.exec(cmdParts) : runtime.exec(cmdParts, envs.toArray(String[]::new));
+        ProcessBuilder processBuilder = new ProcessBuilder(cmdParts);
+        if (!envs.isEmpty()) {
+            Map<String, String> environment = processBuilder.environment();
+            environment.clear();
+            for (String env : envs) {
+                int eqIdx = env.indexOf('=');
+                if (eqIdx > 0) {
+                    environment.put(env.substring(0, eqIdx), env.substring(eqIdx + 1));
+                }
+            }
+        }
+        Process process = processBuilder.start();
 
-        StringBuilder outSb = new StringBuilder();
-        try (BufferedReader outReader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            outReader.lines().forEach(s -> {
-                LOG.trace("cmdOut: {}", s);
-                if (!s.isBlank()) {
-                    outSb.append(s);
+        AtomicReference<Exception> stdinFailure = new AtomicReference<>();
+        Thread stdinFeeder;
+        if (stdinHandler == null) {
+            process.getOutputStream().close();
+            stdinFeeder = null;
+        } else {
+            stdinFeeder = Thread.ofVirtual().name("cmdIn-" + process.pid()).start(() -> {
+                try (OutputStream out = process.getOutputStream()) {
+                    stdinHandler.handle(out);
+                } catch (IOException | RuntimeException e) {
+                    stdinFailure.compareAndSet(null, e);
                 }
             });
         }
+        AtomicReference<Exception> drainFailure = new AtomicReference<>();
+        Thread outDrainer = startDrainer("cmdOut-" + process.pid(), process, process.getInputStream(), outHandler, drainFailure);
+        Thread errDrainer = startDrainer("cmdErr-" + process.pid(), process, process.getErrorStream(), errHandler, drainFailure);
+        try {
+            if (timeout == null) {
+                process.waitFor();
+            } else if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                destroyProcessTree(process);
+                joinAll(stdinFeeder, outDrainer, errDrainer);
+                throw new IOException(String.format("Command timed out after %s: %s", timeout, cmdParts[0]));
+            }
+            joinAll(stdinFeeder, outDrainer, errDrainer);
+        } catch (InterruptedException e) {
+            destroyProcessTree(process);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Command interrupted: %s", cmdParts[0]));
+        }
 
-        StringBuilder errSb = new StringBuilder();
-        try (BufferedReader errReader = new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
-            errReader.lines().forEach(s -> {
-                LOG.trace("cmdErr: {}", s);
-                if (!s.isBlank()) {
-                    errSb.append(s);
+        Exception failure = drainFailure.get();
+        if (failure instanceof IOException ioe) {
+            throw ioe;
+        } else if (failure instanceof RuntimeException re) {
+            throw re;
+        }
+        int exitCode = process.exitValue();
+        Exception inFailure = stdinFailure.get();
+        if (inFailure != null) {
+            // A child failing early closes its stdin - the exit code tells the real story then
+            if (exitCode == 0) {
+                throw new IOException(String.format("Writing to command stdin failed: %s", cmdParts[0]), inFailure);
+            }
+            LOG.debug("Writing to command stdin failed: {}, exitCode={}", cmdParts[0], exitCode, inFailure);
+        }
+        return exitCode;
+    }
+
+    private static void joinAll(Thread... threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            if (thread != null) {
+                thread.join();
+            }
+        }
+    }
+
+    private static Thread startDrainer(
+            String name,
+            Process process,
+            InputStream in,
+            StreamHandler handler,
+            AtomicReference<Exception> drainFailure
+    ) {
+        return Thread.ofVirtual().name(name).start(() -> {
+            try (in) {
+                handler.handle(in);
+            } catch (IOException | RuntimeException e) {
+                drainFailure.compareAndSet(null, e);
+                // Nobody reads the stream anymore - the child would block on a full pipe forever
+                destroyProcessTree(process);
+            }
+        });
+    }
+
+    private static void destroyProcessTree(Process process) {
+        LOG.warn("Killing process tree: pid={}", process.pid());
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    private static void readLines(InputStream in, String logPrefix, Consumer<String> lineConsumer) throws IOException {
+        Reader reader = new InputStreamReader(in);
+        char[] buf = new char[8192];
+        StringBuilder lineSb = new StringBuilder();
+        boolean afterCr = false;
+        int n;
+        while ((n = reader.read(buf)) != -1) {
+            for (int i = 0; i < n; i++) {
+                char c = buf[i];
+                if (c == '\n' && afterCr) {
+                    afterCr = false;
+                    continue;
                 }
-            });
+                afterCr = c == '\r';
+                if (c == '\n' || c == '\r') {
+                    emitLine(lineSb, logPrefix, lineConsumer);
+                } else {
+                    lineSb.append(c);
+                    if (lineSb.length() >= MAX_LINE_CHARS) {
+                        emitLine(lineSb, logPrefix, lineConsumer);
+                    }
+                }
+            }
+        }
+        if (!lineSb.isEmpty()) {
+            emitLine(lineSb, logPrefix, lineConsumer);
         }
+    }
 
-        return new OsCmdResult(outSb.toString(), errSb.toString());
+    private static void emitLine(StringBuilder lineSb, String logPrefix, Consumer<String> lineConsumer) {
+        String line = lineSb.toString();
+        lineSb.setLength(0);
+        LOG.trace("{}: {}", logPrefix, line);
+        lineConsumer.accept(line);
     }
 
     private static String hideSecretEnvs(Collection<String> envs) {
@@ -70,4 +304,14 @@ public class OsCmdUtil {
                 .map(s -> s.startsWith("PGPASSWORD=") ? "PGPASSWORD=*****" : s)
                 .collect(joining(","));
     }
+
+    @FunctionalInterface
+    public interface StdinHandler {
+        void handle(OutputStream out) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface StreamHandler {
+        void handle(InputStream in) throws IOException;
+    }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.common;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+public class ParallelUtil {
+
+    @FunctionalInterface
+    public interface IOConsumer<T> {
+        void accept(T t) throws IOException;
+    }
+
+    /**
+     * Runs the task for every item on virtual threads, at most {@code parallelism} at a time, and waits for all of them.
+     * Failures (including errors) do not cancel the other tasks. Once all tasks finish, the failure of the first failed item
+     * (in the order of items) is thrown with the failures of later items attached as suppressed.
+     * With parallelism 1, the items run in order on the calling thread and the first failure is thrown immediately.
+     */
+    public static <T> void forEach(String taskName, List<T> items, int parallelism, IOConsumer<T> task) throws IOException {
+        if (parallelism <= 1 || items.size() <= 1) {
+            forEachSerially(items, task);
+            return;
+        }
+        Semaphore permits = new Semaphore(parallelism);
+        Throwable[] failures = new Throwable[items.size()];
+        List<Thread> threads = new ArrayList<>(items.size());
+        try {
+            for (int i = 0; i < items.size(); i++) {
+                int idx = i;
+                T item = items.get(i);
+                permits.acquire();
+                threads.add(Thread.ofVirtual().name(taskName + "-" + i).start(() -> {
+                    try {
+                        task.accept(item);
+                    } catch (Throwable e) {
+                        failures[idx] = e;
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            threads.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("%s interrupted", taskName));
+        }
+        rethrow(failures);
+    }
+
+    private static <T> void forEachSerially(List<T> items, IOConsumer<T> task) throws IOException {
+        for (T item : items) {
+            task.accept(item);
+        }
+    }
+
+    private static void rethrow(Throwable[] failures) throws IOException {
+        Throwable first = null;
+        for (Throwable failure : failures) {
+            if (failure == null) {
+                continue;
+            }
+            if (first == null) {
+                first = failure;
+            } else {
+                first.addSuppressed(failure);
+            }
+        }
+        if (first instanceof IOException ioe) {
+            throw ioe;
+        } else if (first instanceof RuntimeException re) {
+            throw re;
+        } else if (first instanceof Error err) {
+            throw err;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.common;
+
+import com.brinvex.dba.api.DbExecutionReport;
+import com.brinvex.dba.api.DbExecutionReport.StepStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs named steps as a dependency graph: every step starts on its own virtual thread as soon as
+ * all steps it depends on have succeeded. A step may only depend on steps added before it, so the graph is acyclic.
+ * After the first failure no further steps are started, the running ones are awaited
+ * and the failure is rethrown. The timing of every step is logged and returned as a {@link DbExecutionReport}.
+ */
+public class StepScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StepScheduler.class);
+
+    @FunctionalInterface
+    public interface StepAction {
+        void run() throws IOException;
+    }
+
+    private final String operation;
+
+    private final Map<String, Step> steps = new LinkedHashMap<>();
+
+    public StepScheduler(String operation) {
+        this.operation = operation;
+    }
+
+    public StepScheduler add(String name, StepAction action, String... dependsOn) {
+        if (steps.containsKey(name)) {
+            throw new IllegalArgumentException(String.format("Duplicate step: %s", name));
+        }
+        for (String dependency : dependsOn) {
+            if (!steps.containsKey(dependency)) {
+                throw new IllegalArgumentException(String.format("Unknown dependency of step %s: %s", name, dependency));
+            }
+        }
+        steps.put(name, new Step(name, action, List.of(dependsOn)));
+        return this;
+    }
+
+    public DbExecutionReport run() throws IOException {
+        long startNanos = System.nanoTime();
+        List<Step> pending = new ArrayList<>(steps.values());
+        BlockingQueue<Step> finished = new LinkedBlockingQueue<>();
+        List<Thread> running = new ArrayList<>();
+        Throwable firstFailure = null;
+        try {
+            while (true) {
+                if (firstFailure == null) {
+                    for (var it = pending.iterator(); it.hasNext(); ) {
+                        Step step = it.next();
+                        if (step.dependsOn.stream().allMatch(d -> steps.get(d).status == StepStatus.SUCCEEDED)) {
+                            it.remove();
+                            running.add(start(step, startNanos, finished));
+                        }
+                    }
+                }
+                if (running.isEmpty()) {
+                    break;
+                }
+                Step step = finished.take();
+                running.remove(step.thread);
+                if (step.failure != null && firstFailure == null) {
+                    firstFailure = step.failure;
+                }
+            }
+        } catch (InterruptedException e) {
+            running.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("%s interrupted", operation));
+        }
+
+        List<DbExecutionReport.Step> reportSteps = new ArrayList<>();
+        for (Step step : steps.values()) {
+            reportSteps.add(step.status == null
+                    ? new DbExecutionReport.Step(step.name, StepStatus.SKIPPED, null, null)
+                    : new DbExecutionReport.Step(step.name, step.status, step.startOffset, step.duration));
+        }
+        DbExecutionReport report = new DbExecutionReport(operation, Duration.ofNanos(System.nanoTime() - startNanos), reportSteps);
+        logReport(report);
+
+        if (firstFailure instanceof IOException ioe) {
+            throw ioe;
+        } else if (firstFailure instanceof RuntimeException re) {
+            throw re;
+        } else if (firstFailure instanceof Error err) {
+            throw err;
+        }
+        return report;
+    }
+
+    private Thread start(Step step, long startNanos, BlockingQueue<Step> finished) {
+        step.thread = Thread.ofVirtual().name(operation + "-" + step.name).unstarted(() -> {
+            long stepStartNanos = System.nanoTime();
+            step.startOffset = Duration.ofNanos(stepStartNanos - startNanos);
+            LOG.debug("{} - step started: {}", operation, step.name);
+            try {
+                step.action.run();
+                step.status = StepStatus.SUCCEEDED;
+            } catch (Throwable e) {
+                // Errors too, an unset status would be reported as SKIPPED
+                step.failure = e;
+                step.status = StepStatus.FAILED;
+            } finally {
+                step.duration = Duration.ofNanos(System.nanoTime() - stepStartNanos);
+                LOG.debug("{} - step finished: {} {} in {} ms", operation, step.name, step.status, step.duration.toMillis());
+                finished.add(step);
+            }
+        });
+        step.thread.start();
+        return step.thread;
+    }
+
+    private static void logReport(DbExecutionReport report) {
+        StringBuilder sb = new StringBuilder();
+        for (DbExecutionReport.Step step : report.getSteps()) {
+            if (step.getDuration() == null) {
+                sb.append(String.format("%n  %-28s %s", step.getName(), step.getStatus()));
+            } else {
+                sb.append(String.format("%n  %-28s %-9s start=+%d ms, duration=%d ms", step.getName(), step.getStatus(),
+                        step.getStartOffset().toMillis(), step.getDuration().toMillis()));
+            }
+        }
+        LOG.info("{} steps (total {} ms):{}", report.getOperation(), report.getTotalDuration().toMillis(), sb);
+    }
+
+    private static class Step {
+        private final String name;
+        private final StepAction action;
+        private final List<String> dependsOn;
+        private volatile Thread thread;
+        private volatile StepStatus status;
+        private volatile Throwable failure;
+        private volatile Duration startOffset;
+        private volatile Duration duration;
+
+        private Step(String name, StepAction action, List<String> dependsOn) {
+            this.name = name;
+            this.action = action;
+            this.dependsOn = dependsOn;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+
+public class StreamPipeUtil {
+
+    public static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Copies the stream to the channel until EOF through a single reusable buffer,
+     * updating the digest (if not null) with every chunk on the way. Neither side is closed.
+     * Returns the number of bytes copied.
+     */
+    public static long pipe(InputStream in, WritableByteChannel out, MessageDigest digest) throws IOException {
+        byte[] bytes = new byte[BUFFER_SIZE];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        long total = 0;
+        int n;
+        while ((n = in.readNBytes(bytes, 0, bytes.length)) > 0) {
+            if (digest != null) {
+                digest.update(bytes, 0, n);
+            }
+            buf.clear().limit(n);
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Copies the channel to the stream until EOF, the counterpart of {@link #pipe(InputStream, WritableByteChannel, MessageDigest)}.
+     */
+    public static long pipe(ReadableByteChannel in, OutputStream out, MessageDigest digest) throws IOException {
+        byte[] bytes = new byte[BUFFER_SIZE];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        long total = 0;
+        int n;
+        while ((n = in.read(buf.clear())) != -1) {
+            if (n == 0) {
+                continue;
+            }
+            if (digest != null) {
+                digest.update(bytes, 0, n);
+            }
+            out.write(bytes, 0, n);
+            total += n;
+        }
+        out.flush();
+        return total;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.common;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import static java.lang.String.format;
+
+/**
+ * Extracts ustar archives as written by pg_basebackup (plain or gzip-compressed),
+ * including GNU long names and pax path records.
+ */
+public class TarUtil {
+
+    private static final int BLOCK = 512;
+
+    private static final boolean POSIX = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+    public static boolean isExtractable(Path archive) {
+        String name = archive.getFileName().toString();
+        return name.endsWith(".tar") || name.endsWith(".tar.gz");
+    }
+
+    /**
+     * Extracts the archive into the target folder, which is created if missing.
+     * Entries pointing outside the target folder, also through symlinks extracted before them, are rejected.
+     * Returns the number of extracted bytes.
+     */
+    public static long extract(Path archive, Path targetDir) throws IOException {
+        if (!isExtractable(archive)) {
+            throw new IllegalArgumentException(format("Unsupported archive: %s", archive));
+        }
+        Files.createDirectories(targetDir);
+        targetDir = targetDir.toRealPath();
+        try (InputStream fileIn = Files.newInputStream(archive);
+             InputStream in = new BufferedInputStream(archive.getFileName().toString().endsWith(".gz")
+                     ? new GZIPInputStream(fileIn, StreamPipeUtil.BUFFER_SIZE) : fileIn, StreamPipeUtil.BUFFER_SIZE)) {
+            return extract(in, targetDir, archive);
+        }
+    }
+
+    private static long extract(InputStream in, Path targetDir, Path archive) throws IOException {
+        byte[] header = new byte[BLOCK];
+        byte[] buf = new byte[StreamPipeUtil.BUFFER_SIZE];
+        String longName = null;
+        long total = 0;
+        while (true) {
+            if (in.readNBytes(header, 0, BLOCK) < BLOCK || isZeroBlock(header)) {
+                break;
+            }
+            char type = (char) header[156];
+            long size = parseNumber(header, 124, 12);
+            if (type == 'L' || type == 'x') {
+                String ext = new String(readFully(in, size), StandardCharsets.UTF_8);
+                skipPadding(in, size);
+                longName = type == 'L' ? ext.replace("\0", "") : paxPath(ext, longName);
+                continue;
+            }
+            if (type == 'g') {
+                skip(in, size);
+                skipPadding(in, size);
+                continue;
+            }
+            String name = longName != null ? longName : entryName(header);
+            longName = null;
+            Path target = targetDir.resolve(name).normalize();
+            if (!target.startsWith(targetDir) || !realParentInside(target, targetDir)) {
+                throw new IOException(format("Tar entry outside of the target folder: %s in %s", name, archive));
+            }
+            int mode = (int) parseNumber(header, 100, 8);
+            switch (type) {
+                case '5' -> {
+                    Files.createDirectories(target);
+                    setMode(target, mode);
+                }
+                case '2' -> {
+                    String linkName = cString(header, 157, 100);
+                    Files.createDirectories(target.getParent());
+                    Files.deleteIfExists(target);
+                    Files.createSymbolicLink(target, Path.of(linkName));
+                }
+                case '0', '\0', '7' -> {
+                    Files.createDirectories(target.getParent());
+                    if (Files.isSymbolicLink(target)) {
+                        Files.delete(target);
+                    }
+                    try (OutputStream out = Files.newOutputStream(target)) {
+                        long remaining = size;
+                        while (remaining > 0) {
+                            int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                            if (n < 0) {
+                                throw new EOFException(format("Truncated tar entry: %s in %s", name, archive));
+                            }
+                            out.write(buf, 0, n);
+                            remaining -= n;
+                        }
+                    }
+                    skipPadding(in, size);
+                    setMode(target, mode);
+                    total += size;
+                }
+                default -> throw new IOException(format("Unsupported tar entry type '%s': %s in %s", type, name, archive));
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Whether the nearest existing ancestor of the target resolves inside the target folder,
+     * so that no entry is written through a symlink extracted before it.
+     */
+    private static boolean realParentInside(Path target, Path realTargetDir) throws IOException {
+        if (target.equals(realTargetDir)) {
+            // The "./" entry of archives made by "tar -C dir ."
+            return true;
+        }
+        Path existing = target.getParent();
+        while (!Files.exists(existing, LinkOption.NOFOLLOW_LINKS)) {
+            existing = existing.getParent();
+        }
+        return Files.exists(existing) && existing.toRealPath().startsWith(realTargetDir);
+    }
+
+    private static String entryName(byte[] header) {
+        String name = cString(header, 0, 100);
+        String prefix = cString(header, 345, 155);
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    /**
+     * Pax records are "LEN key=value\n".
+     */
+    private static String paxPath(String records, String current) {
+        for (String record : records.split("\n")) {
+            int sp = record.indexOf(' ');
+            if (sp > 0 && record.startsWith("path=", sp + 1)) {
+                return record.substring(sp + 1 + "path=".length());
+            }
+        }
+        return current;
+    }
+
+    private static String cString(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Octal, or base-256 (high bit of the first byte set) for values not fitting the octal field.
+     */
+    private static long parseNumber(byte[] header, int offset, int length) {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7f;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (header[i] & 0xff);
+            }
+            return value;
+        }
+        String s = cString(header, offset, length).trim();
+        return s.isEmpty() ? 0 : Long.parseLong(s, 8);
+    }
+
+    private static boolean isZeroBlock(byte[] header) {
+        for (byte b : header) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] readFully(InputStream in, long size) throws IOException {
+        byte[] bytes = in.readNBytes((int) size);
+        if (bytes.length < size) {
+            throw new EOFException("Truncated tar header extension");
+        }
+        return bytes;
+    }
+
+    private static void skipPadding(InputStream in, long size) throws IOException {
+        long padding = (BLOCK - size % BLOCK) % BLOCK;
+        skip(in, padding);
+    }
+
+    private static void skip(InputStream in, long n) throws IOException {
+        in.skipNBytes(n);
+    }
+
+    private static void setMode(Path path, int mode) throws IOException {
+        if (!POSIX || mode == 0) {
+            return;
+        }
+        Set<PosixFilePermission> perms = EnumSet.noneOf(PosixFilePermission.class);
+        PosixFilePermission[] all = PosixFilePermission.values();
+        for (int i = 0; i < 9; i++) {
+            if ((mode & (1 << (8 - i))) != 0) {
+                perms.add(all[i]);
+            }
+        }
+        Files.setPosixFilePermissions(path, perms);
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.common;
+
+import java.time.Duration;
+
+import static java.lang.String.format;
+
+/**
+ * Sizes and throughputs as logged, in MB with one decimal.
+ */
+public class ThroughputUtil {
+
+    public static String toMb(long bytes) {
+        return format("%.1f", bytes / (1024.0 * 1024.0));
+    }
+
+    public static String mbPerSecond(long bytes, Duration duration) {
+        long millis = Math.max(1, duration.toMillis());
+        return format("%.1f", bytes / (1024.0 * 1024.0) / (millis / 1000.0));
+    }
+}
@@ -19,6 +19,10 @@ import java.io.IOException;
 
 public class WindowsUtil {
 
+    public static boolean isWindowsOs() {
+        return System.getProperty("os.name", "").startsWith("Windows");
+    }
+
     public static void startWinService(String winServiceName) throws IOException {
         OsCmdResult r = OsCmdUtil.exec(String.format("net start %s", winServiceName));
         if (!r.getOut().endsWith(String.format("The %s service was started successfully.", winServiceName))) {
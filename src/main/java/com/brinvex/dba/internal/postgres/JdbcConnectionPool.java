@@ -0,0 +1,204 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Keeps idle JDBC connections per (host, port, db, user).
+ * Idle connections are validated before reuse and closed when they are idle for too long,
+ * checked on every borrow, or by {@link #close()}.
+ */
+public class JdbcConnectionPool implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcConnectionPool.class);
+
+    private static final int MAX_IDLE_PER_KEY = 4;
+
+    private static final long VALIDATE_AFTER_IDLE_MILLIS = 1_000;
+
+    private static final long MAX_IDLE_MILLIS = 5 * 60_000;
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final Map<Key, Deque<IdleConnection>> idleConnections = new HashMap<>();
+
+    public Lease borrow(String host, int port, String db, String user, String pass) throws SQLException {
+        closeExpired();
+        Key key = new Key(host, port, db, user);
+        while (true) {
+            IdleConnection idle = pollIdle(key);
+            if (idle == null) {
+                break;
+            }
+            long idleMillis = System.currentTimeMillis() - idle.idleSince;
+            if (idleMillis > MAX_IDLE_MILLIS) {
+                closeQuietly(idle.connection);
+            } else if (idleMillis > VALIDATE_AFTER_IDLE_MILLIS && !isValid(idle.connection)) {
+                LOG.debug("Discarding invalid pooled connection: {}", key);
+                closeQuietly(idle.connection);
+            } else {
+                return new Lease(key, idle.connection);
+            }
+        }
+        LOG.debug("Opening JDBC connection: {}", key);
+        Properties props = new Properties();
+        props.setProperty("user", user);
+        if (pass != null) {
+            props.setProperty("password", pass);
+        }
+        props.setProperty("ApplicationName", "brinvex-dba");
+        Connection connection = DriverManager.getConnection(String.format("jdbc:postgresql://%s:%s/%s", host, port, db), props);
+        connection.setAutoCommit(true);
+        return new Lease(key, connection);
+    }
+
+    public void evict(String host, int port, String db) {
+        List<Connection> toClose = new ArrayList<>();
+        synchronized (idleConnections) {
+            Iterator<Map.Entry<Key, Deque<IdleConnection>>> it = idleConnections.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Key, Deque<IdleConnection>> e = it.next();
+                Key key = e.getKey();
+                if (key.host.equals(host) && key.port == port && (db == null || key.db.equals(db))) {
+                    e.getValue().forEach(c -> toClose.add(c.connection));
+                    it.remove();
+                }
+            }
+        }
+        toClose.forEach(JdbcConnectionPool::closeQuietly);
+    }
+
+    /**
+     * Closes all idle connections; connections leased at the time are pooled again when given back.
+     * The pool stays usable and opens new connections on demand.
+     */
+    @Override
+    public void close() {
+        List<Connection> toClose = new ArrayList<>();
+        synchronized (idleConnections) {
+            idleConnections.values().forEach(idles -> idles.forEach(c -> toClose.add(c.connection)));
+            idleConnections.clear();
+        }
+        if (!toClose.isEmpty()) {
+            LOG.debug("Closing {} idle JDBC connections", toClose.size());
+        }
+        toClose.forEach(JdbcConnectionPool::closeQuietly);
+    }
+
+    private void closeExpired() {
+        List<Connection> toClose = new ArrayList<>();
+        long expiredBefore = System.currentTimeMillis() - MAX_IDLE_MILLIS;
+        synchronized (idleConnections) {
+            Iterator<Deque<IdleConnection>> it = idleConnections.values().iterator();
+            while (it.hasNext()) {
+                Deque<IdleConnection> idles = it.next();
+                // The oldest are at the head
+                while (!idles.isEmpty() && idles.peekFirst().idleSince < expiredBefore) {
+                    toClose.add(idles.pollFirst().connection);
+                }
+                if (idles.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        toClose.forEach(JdbcConnectionPool::closeQuietly);
+    }
+
+    private IdleConnection pollIdle(Key key) {
+        synchronized (idleConnections) {
+            Deque<IdleConnection> idles = idleConnections.get(key);
+            return idles == null ? null : idles.pollLast();
+        }
+    }
+
+    private void giveBack(Key key, Connection connection) {
+        synchronized (idleConnections) {
+            Deque<IdleConnection> idles = idleConnections.computeIfAbsent(key, k -> new ArrayDeque<>());
+            if (idles.size() < MAX_IDLE_PER_KEY) {
+                idles.addLast(new IdleConnection(connection, System.currentTimeMillis()));
+                return;
+            }
+        }
+        closeQuietly(connection);
+    }
+
+    private static boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOG.debug("Closing JDBC connection failed", e);
+        }
+    }
+
+    public class Lease implements AutoCloseable {
+
+        private final Key key;
+
+        private final Connection connection;
+
+        private boolean broken;
+
+        private Lease(Key key, Connection connection) {
+            this.key = key;
+            this.connection = connection;
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        public void markBroken() {
+            this.broken = true;
+        }
+
+        @Override
+        public void close() {
+            if (broken) {
+                closeQuietly(connection);
+            } else {
+                giveBack(key, connection);
+            }
+        }
+    }
+
+    private record Key(String host, int port, String db, String user) {
+    }
+
+    private record IdleConnection(Connection connection, long idleSince) {
+    }
+}
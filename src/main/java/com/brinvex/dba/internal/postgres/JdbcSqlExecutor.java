@@ -0,0 +1,183 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import com.brinvex.dba.api.DbConf;
+
+import java.io.IOException;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Executes SQL over pooled JDBC connections. Requires the PostgreSQL JDBC driver at runtime.
+ * Results are shaped like psql output, so callers can apply the same checks to both executors.
+ * The driver does not expose the command tag, so statements succeed without an SQLException and have an empty out.
+ */
+public class JdbcSqlExecutor implements SqlExecutor, AutoCloseable {
+
+    private final JdbcConnectionPool pool = new JdbcConnectionPool();
+
+    private volatile Boolean driverAvailable;
+
+    public boolean isDriverAvailable() {
+        Boolean available = driverAvailable;
+        if (available == null) {
+            try {
+                DriverManager.getDriver("jdbc:postgresql://localhost/postgres");
+                available = true;
+            } catch (SQLException e) {
+                available = false;
+            }
+            driverAvailable = available;
+        }
+        return available;
+    }
+
+    @Override
+    public SqlResult execute(DbConf conf, String db, String user, String pass, String sql) throws IOException {
+        try (JdbcConnectionPool.Lease lease = borrow(conf, db, user, pass)) {
+            try (Statement st = lease.getConnection().createStatement()) {
+                st.execute(sql);
+                return new SqlResult("", notices(st.getWarnings()));
+            } catch (SQLException e) {
+                if (isConnectionFailure(e)) {
+                    lease.markBroken();
+                }
+                return new SqlResult("", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public List<SqlResult> executeBatch(DbConf conf, String db, String user, String pass, List<String> sqls) throws IOException {
+        if (sqls.isEmpty()) {
+            return List.of();
+        }
+        List<SqlResult> results = new ArrayList<>(sqls.size());
+        try (JdbcConnectionPool.Lease lease = borrow(conf, db, user, pass)) {
+            boolean failed = false;
+            for (String sql : sqls) {
+                if (failed) {
+                    results.add(new SqlResult("", NOT_EXECUTED_ERR));
+                    continue;
+                }
+                try (Statement st = lease.getConnection().createStatement()) {
+                    st.execute(sql);
+                    results.add(new SqlResult("", notices(st.getWarnings())));
+                } catch (SQLException e) {
+                    if (isConnectionFailure(e)) {
+                        lease.markBroken();
+                    }
+                    failed = true;
+                    results.add(new SqlResult("", e.getMessage()));
+                }
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public SqlResult query(DbConf conf, String db, String user, String pass, String sql) throws IOException {
+        try (JdbcConnectionPool.Lease lease = borrow(conf, db, user, pass)) {
+            try (Statement st = lease.getConnection().createStatement(); ResultSet rs = st.executeQuery(sql)) {
+                ResultSetMetaData metaData = rs.getMetaData();
+                int columnCount = metaData.getColumnCount();
+                StringJoiner rows = new StringJoiner("\n");
+                while (rs.next()) {
+                    StringJoiner row = new StringJoiner("|");
+                    for (int i = 1; i <= columnCount; i++) {
+                        String value = rs.getString(i);
+                        row.add(value == null ? "" : value);
+                    }
+                    rows.add(row.toString());
+                }
+                return new SqlResult(rows.toString(), notices(st.getWarnings()));
+            } catch (SQLException e) {
+                if (isConnectionFailure(e)) {
+                    lease.markBroken();
+                }
+                return new SqlResult("", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void release(DbConf conf, String db) {
+        pool.evict(conf.getHost(), conf.getPort(), db);
+    }
+
+    @Override
+    public void releaseAll(DbConf conf) {
+        pool.evict(conf.getHost(), conf.getPort(), null);
+    }
+
+    /**
+     * Closes the pooled connections of all servers.
+     */
+    @Override
+    public void close() {
+        pool.close();
+    }
+
+    private JdbcConnectionPool.Lease borrow(DbConf conf, String db, String user, String pass) throws IOException {
+        try {
+            return pool.borrow(conf.getHost(), conf.getPort(), db, user, pass);
+        } catch (SQLException e) {
+            throw new IOException(String.format("JDBC connection failed: %s:%s/%s, user=%s",
+                    conf.getHost(), conf.getPort(), db, user), e);
+        }
+    }
+
+    private static boolean isConnectionFailure(SQLException e) {
+        String sqlState = e.getSQLState();
+        return sqlState == null || sqlState.startsWith("08") || sqlState.startsWith("57P");
+    }
+
+    /**
+     * One line per warning, labeled with its severity like psql does, e.g. "NOTICE:  relation ... already exists".
+     */
+    private static String notices(SQLWarning warning) {
+        StringJoiner notices = new StringJoiner("\n");
+        for (SQLWarning w = warning; w != null; w = w.getNextWarning()) {
+            notices.add(severity(w) + ":  " + w.getMessage());
+        }
+        return notices.toString();
+    }
+
+    /**
+     * The severity reported by the server (NOTICE, WARNING, INFO...), read reflectively from the driver's PSQLWarning,
+     * as the driver is an optional runtime dependency. WARNING if the driver does not tell.
+     */
+    private static String severity(SQLWarning w) {
+        try {
+            Object serverMessage = w.getClass().getMethod("getServerErrorMessage").invoke(w);
+            Object severity = serverMessage == null ? null : serverMessage.getClass().getMethod("getSeverity").invoke(serverMessage);
+            if (severity != null) {
+                return severity.toString();
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not a PSQLWarning
+        }
+        return "WARNING";
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import com.brinvex.dba.api.BackupRetentionPolicy;
+import com.brinvex.dba.internal.common.FileHashUtil;
+import com.brinvex.dba.internal.common.FileTreeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.stream.Collectors;
+
+import static java.lang.String.format;
+
+/**
+ * Catalog of the data backup folder: a manifest per backup (catalog/&lt;backup&gt;.manifest, "key=value" lines)
+ * and the catalog/catalog.tsv index with one line per backup, ordered by creation time.
+ * Lookups and retention decisions read the index only, never the backups themselves.
+ * A missing index is rebuilt from the manifests. Backups without a manifest (taken before the catalog existed)
+ * are not part of the catalog.
+ */
+public class PgBackupCatalog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PgBackupCatalog.class);
+
+    public static final String FOLDER_NAME = "catalog";
+
+    private static final String INDEX_FILE_NAME = "catalog.tsv";
+
+    private static final String INDEX_HEADER = "#createdAt\tkind\tdb\tname\tsize\tverified";
+
+    private static final String MANIFEST_SUFFIX = ".manifest";
+
+    private static final String NONE = "-";
+
+    /**
+     * Timestamps of the catalog and of the backup names.
+     */
+    static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+
+    /**
+     * Serializes the read-modify-write cycles of the index within the JVM.
+     */
+    private static final Object INDEX_LOCK = new Object();
+
+    public enum Kind {
+        /**
+         * A pg_dump backup of one database.
+         */
+        DUMP,
+        /**
+         * A data folder moved aside, the whole cluster.
+         */
+        DATA_FOLDER
+    }
+
+    public static final class Manifest {
+        private final String name;
+        private final Kind kind;
+        private final String db;
+        private final String format;
+        private final LocalDateTime createdAt;
+        private final long size;
+        private final Duration duration;
+        private final String sha256;
+        private final String pgVersion;
+        private final boolean verified;
+
+        private Manifest(String name, Kind kind, String db, String format, LocalDateTime createdAt, long size,
+                         Duration duration, String sha256, String pgVersion, boolean verified) {
+            this.name = name;
+            this.kind = kind;
+            this.db = db;
+            this.format = format;
+            this.createdAt = createdAt;
+            this.size = size;
+            this.duration = duration;
+            this.sha256 = sha256;
+            this.pgVersion = pgVersion;
+            this.verified = verified;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Null for a data folder.
+         */
+        public String getDb() {
+            return db;
+        }
+
+        public String getFormat() {
+            return format;
+        }
+
+        public LocalDateTime getCreatedAt() {
+            return createdAt;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public Duration getDuration() {
+            return duration;
+        }
+
+        /**
+         * Lowercase hex SHA-256 of the backup file, of the checksums.sha256 file of a DIRECTORY backup,
+         * otherwise of the relative paths and the SHA-256 of the files of a backup folder.
+         * Null for a data folder.
+         */
+        public String getSha256() {
+            return sha256;
+        }
+
+        public String getPgVersion() {
+            return pgVersion;
+        }
+
+        public boolean isVerified() {
+            return verified;
+        }
+
+        @Override
+        public String toString() {
+            return new StringJoiner(", ", Manifest.class.getSimpleName() + "[", "]")
+                    .add("name='" + name + "'")
+                    .add("kind=" + kind)
+                    .add("db='" + db + "'")
+                    .add("format='" + format + "'")
+                    .add("createdAt=" + createdAt)
+                    .add("size=" + size)
+                    .add("duration=" + duration)
+                    .add("sha256='" + sha256 + "'")
+                    .add("pgVersion='" + pgVersion + "'")
+                    .add("verified=" + verified)
+                    .toString();
+        }
+    }
+
+    private record IndexEntry(LocalDateTime createdAt, Kind kind, String db, String name, long size, boolean verified) {
+    }
+
+    private final Path backupParentPath;
+
+    private final Path catalogPath;
+
+    private PgBackupCatalog(Path backupParentPath) {
+        this.backupParentPath = backupParentPath.toAbsolutePath();
+        this.catalogPath = this.backupParentPath.resolve(FOLDER_NAME);
+    }
+
+    public static PgBackupCatalog of(Path backupParentPath) {
+        return new PgBackupCatalog(backupParentPath);
+    }
+
+    /**
+     * Hashes the completed backup, writes its manifest and adds it to the index.
+     */
+    public Manifest register(
+            Path backupPath,
+            Kind kind,
+            String db,
+            String format,
+            LocalDateTime createdAt,
+            Duration duration,
+            String pgVersion,
+            boolean verified
+    ) throws IOException {
+        backupPath = backupPath.toAbsolutePath();
+        if (!backupParentPath.equals(backupPath.getParent())) {
+            throw new IllegalArgumentException(format("Backup is not in the catalog folder %s: %s", backupParentPath, backupPath));
+        }
+        long startNanos = System.nanoTime();
+        // A data folder is as big as the cluster and is not read back by a restore, it is not hashed
+        String sha256 = kind == Kind.DUMP ? sha256(backupPath) : null;
+        Manifest manifest = new Manifest(backupPath.getFileName().toString(), kind, db, format, createdAt,
+                FileTreeUtil.sizeOf(backupPath), duration, sha256, pgVersion, verified);
+        synchronized (INDEX_LOCK) {
+            Files.createDirectories(catalogPath);
+            writeAtomically(catalogPath.resolve(manifest.getName() + MANIFEST_SUFFIX), manifestLines(manifest));
+            List<IndexEntry> entries = readIndex();
+            entries.removeIf(e -> e.name().equals(manifest.getName()));
+            entries.add(new IndexEntry(createdAt, kind, db, manifest.getName(), manifest.getSize(), verified));
+            writeIndex(entries);
+        }
+        LOG.info("Backup catalogued in {}ms: {}", Duration.ofNanos(System.nanoTime() - startNanos).toMillis(), manifest);
+        return manifest;
+    }
+
+    /**
+     * Null if the backup has no manifest.
+     */
+    public Manifest readManifest(String backupName) throws IOException {
+        Path manifestPath = catalogPath.resolve(backupName + MANIFEST_SUFFIX);
+        if (!Files.exists(manifestPath)) {
+            return null;
+        }
+        Map<String, String> props = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(manifestPath)) {
+            int idx = line.indexOf('=');
+            if (idx > 0) {
+                props.put(line.substring(0, idx), line.substring(idx + 1));
+            }
+        }
+        try {
+            return new Manifest(
+                    Objects.requireNonNull(props.get("name")),
+                    Kind.valueOf(props.get("kind")),
+                    orNull(props.get("db")),
+                    props.get("format"),
+                    LocalDateTime.parse(props.get("createdAt"), TIMESTAMP_FORMAT),
+                    Long.parseLong(props.get("size")),
+                    Duration.parse(props.get("duration")),
+                    orNull(props.get("sha256")),
+                    props.get("pgVersion"),
+                    Boolean.parseBoolean(props.get("verified")));
+        } catch (RuntimeException e) {
+            throw new IOException(format("Invalid backup manifest: %s, %s", manifestPath, props), e);
+        }
+    }
+
+    /**
+     * The newest verified backup of the database (a data folder if db is null) which still exists, null if none.
+     */
+    public Path latestVerified(Kind kind, String db) throws IOException {
+        List<IndexEntry> entries;
+        synchronized (INDEX_LOCK) {
+            entries = readIndex();
+        }
+        for (IndexEntry e : entries.reversed()) {
+            if (e.verified() && e.kind() == kind && Objects.equals(e.db(), db)) {
+                Path backupPath = backupParentPath.resolve(e.name());
+                if (Files.exists(backupPath)) {
+                    return backupPath;
+                }
+                LOG.warn("Catalogued backup does not exist: {}", backupPath);
+            }
+        }
+        return null;
+    }
+
+    public Set<Path> cataloguedBackups() throws IOException {
+        synchronized (INDEX_LOCK) {
+            return readIndex().stream()
+                    .map(e -> backupParentPath.resolve(e.name()))
+                    .collect(Collectors.toSet());
+        }
+    }
+
+    /**
+     * The catalogued backups the policy does not keep, see {@link BackupRetentionPolicy}.
+     */
+    public List<Path> expired(BackupRetentionPolicy policy, LocalDateTime now) throws IOException {
+        List<IndexEntry> entries;
+        synchronized (INDEX_LOCK) {
+            entries = readIndex();
+        }
+        LocalDateTime threshold = policy.getMaxAge() == null ? null : now.minus(policy.getMaxAge());
+        Map<String, List<IndexEntry>> groups = entries.stream()
+                .collect(Collectors.groupingBy(e -> e.kind() + "/" + e.db(), LinkedHashMap::new, Collectors.toList()));
+        List<Path> expired = new ArrayList<>();
+        for (List<IndexEntry> group : groups.values()) {
+            int kept = 0;
+            int verifiedKept = 0;
+            for (IndexEntry e : group.reversed()) {
+                boolean young = threshold == null || !e.createdAt().isBefore(threshold);
+                boolean guaranteed = e.verified() && verifiedKept < policy.getMinKeptVerified();
+                boolean keep = guaranteed || young && (policy.getMaxKept() == 0 || kept < policy.getMaxKept());
+                if (keep) {
+                    kept++;
+                    if (e.verified()) {
+                        verifiedKept++;
+                    }
+                } else {
+                    expired.add(backupParentPath.resolve(e.name()));
+                }
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Removes the backups from the index and deletes their manifests. The backups themselves are not touched.
+     */
+    public void remove(Collection<Path> backupPaths) throws IOException {
+        if (backupPaths.isEmpty()) {
+            return;
+        }
+        Set<String> names = backupPaths.stream()
+                .map(p -> p.getFileName().toString())
+                .collect(Collectors.toSet());
+        synchronized (INDEX_LOCK) {
+            List<IndexEntry> entries = readIndex();
+            entries.removeIf(e -> names.contains(e.name()));
+            writeIndex(entries);
+            for (String name : names) {
+                Files.deleteIfExists(catalogPath.resolve(name + MANIFEST_SUFFIX));
+            }
+        }
+    }
+
+    private List<IndexEntry> readIndex() throws IOException {
+        Path indexPath = catalogPath.resolve(INDEX_FILE_NAME);
+        if (!Files.exists(indexPath)) {
+            return rebuildIndex();
+        }
+        List<IndexEntry> entries = new ArrayList<>();
+        for (String line : Files.readAllLines(indexPath)) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] cols = line.split("\t");
+            if (cols.length != 6) {
+                throw new IOException(format("Invalid backup catalog index line: '%s' in %s", line, indexPath));
+            }
+            entries.add(new IndexEntry(LocalDateTime.parse(cols[0], TIMESTAMP_FORMAT), Kind.valueOf(cols[1]), orNull(cols[2]),
+                    cols[3], Long.parseLong(cols[4]), Boolean.parseBoolean(cols[5])));
+        }
+        return entries;
+    }
+
+    private List<IndexEntry> rebuildIndex() throws IOException {
+        List<IndexEntry> entries = new ArrayList<>();
+        if (!Files.isDirectory(catalogPath)) {
+            return entries;
+        }
+        try (var files = Files.list(catalogPath)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String fileName = file.getFileName().toString();
+                if (fileName.endsWith(MANIFEST_SUFFIX)) {
+                    Manifest m = readManifest(fileName.substring(0, fileName.length() - MANIFEST_SUFFIX.length()));
+                    entries.add(new IndexEntry(m.getCreatedAt(), m.getKind(), m.getDb(), m.getName(), m.getSize(), m.isVerified()));
+                }
+            }
+        }
+        if (!entries.isEmpty()) {
+            LOG.info("Rebuilding backup catalog index from {} manifests: {}", entries.size(), catalogPath);
+            writeIndex(entries);
+        }
+        return entries;
+    }
+
+    private void writeIndex(List<IndexEntry> entries) throws IOException {
+        entries.sort(Comparator.comparing(IndexEntry::createdAt).thenComparing(IndexEntry::name));
+        List<String> lines = new ArrayList<>(entries.size() + 1);
+        lines.add(INDEX_HEADER);
+        for (IndexEntry e : entries) {
+            lines.add(String.join("\t", e.createdAt().format(TIMESTAMP_FORMAT), e.kind().name(), orNone(e.db()),
+                    e.name(), String.valueOf(e.size()), String.valueOf(e.verified())));
+        }
+        Files.createDirectories(catalogPath);
+        writeAtomically(catalogPath.resolve(INDEX_FILE_NAME), lines);
+    }
+
+    private static List<String> manifestLines(Manifest m) {
+        return List.of(
+                "name=" + m.getName(),
+                "kind=" + m.getKind(),
+                "db=" + orNone(m.getDb()),
+                "format=" + m.getFormat(),
+                "createdAt=" + m.getCreatedAt().format(TIMESTAMP_FORMAT),
+                "size=" + m.getSize(),
+                "duration=" + m.getDuration(),
+                "sha256=" + orNone(m.getSha256()),
+                "pgVersion=" + m.getPgVersion(),
+                "verified=" + m.isVerified());
+    }
+
+    /**
+     * A crash never leaves the file half-written.
+     */
+    private static void writeAtomically(Path path, List<String> lines) throws IOException {
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tmpPath, lines);
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static String sha256(Path backupPath) throws IOException {
+        if (Files.isRegularFile(backupPath)) {
+            return FileHashUtil.sha256(backupPath);
+        }
+        // The checksums of a DIRECTORY backup cover all its files already
+        Path checksumsPath = backupPath.resolve(PgDumpVerifier.FILE_NAME);
+        if (Files.exists(checksumsPath)) {
+            return FileHashUtil.sha256(checksumsPath);
+        }
+        MessageDigest digest = FileHashUtil.sha256Digest();
+        List<Path> files;
+        try (var walk = Files.walk(backupPath)) {
+            files = walk.filter(Files::isRegularFile).sorted().toList();
+        }
+        for (Path file : files) {
+            String relativePath = backupPath.relativize(file).toString().replace('\\', '/');
+            digest.update(relativePath.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(HexFormat.of().parseHex(FileHashUtil.sha256(file)));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static String orNone(String value) {
+        return value == null ? NONE : value;
+    }
+
+    private static String orNull(String value) {
+        return value == null || NONE.equals(value) ? null : value;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.String.format;
+
+/**
+ * Physical backups sharing one folder: full backups, each followed by incremental backups taken against
+ * the previous backup's manifest. The order is kept in the chain.index file, one "FULL|INCREMENTAL folder" per line.
+ */
+public class PgBackupChain {
+
+    private static final String INDEX_FILE_NAME = "chain.index";
+
+    private enum Kind {
+        FULL,
+        INCREMENTAL
+    }
+
+    private record Entry(Kind kind, String folder) {
+    }
+
+    private final Path chainPath;
+
+    private final List<Entry> entries;
+
+    private PgBackupChain(Path chainPath, List<Entry> entries) {
+        this.chainPath = chainPath;
+        this.entries = entries;
+    }
+
+    public static PgBackupChain load(Path chainPath) throws IOException {
+        chainPath = chainPath.toAbsolutePath();
+        List<Entry> entries = new ArrayList<>();
+        Path indexPath = chainPath.resolve(INDEX_FILE_NAME);
+        if (Files.exists(indexPath)) {
+            for (String line : Files.readAllLines(indexPath)) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] parts = line.strip().split(" ", 2);
+                if (parts.length != 2) {
+                    throw new IOException(format("Invalid backup chain index line: '%s' in %s", line, indexPath));
+                }
+                entries.add(new Entry(Kind.valueOf(parts[0]), parts[1]));
+            }
+        }
+        return new PgBackupChain(chainPath, entries);
+    }
+
+    public Path getChainPath() {
+        return chainPath;
+    }
+
+    /**
+     * Null if the chain is empty.
+     */
+    public Path latestBackup() {
+        return entries.isEmpty() ? null : chainPath.resolve(entries.getLast().folder());
+    }
+
+    public int incrementalsSinceFull() {
+        int n = 0;
+        for (int i = entries.size() - 1; i >= 0 && entries.get(i).kind() == Kind.INCREMENTAL; i--) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * The latest full backup followed by all its incrementals, in the order pg_combinebackup expects them.
+     */
+    public List<Path> currentChain() throws IOException {
+        int fullIdx = -1;
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (entries.get(i).kind() == Kind.FULL) {
+                fullIdx = i;
+                break;
+            }
+        }
+        List<Path> chain = new ArrayList<>();
+        if (fullIdx >= 0) {
+            for (Entry entry : entries.subList(fullIdx, entries.size())) {
+                Path backupPath = chainPath.resolve(entry.folder());
+                if (!Files.exists(backupPath.resolve("backup_manifest"))) {
+                    throw new IOException(format("Backup of the chain is missing or incomplete: %s", backupPath));
+                }
+                chain.add(backupPath);
+            }
+        }
+        return chain;
+    }
+
+    /**
+     * A new, not yet existing folder for the next backup.
+     */
+    public Path newBackupFolder(boolean full) {
+        String name = LocalDateTime.now().format(PgBackupCatalog.TIMESTAMP_FORMAT) + (full ? "_full" : "_incr");
+        Path folder = chainPath.resolve(name);
+        for (int i = 2; Files.exists(folder); i++) {
+            folder = chainPath.resolve(name + "_" + i);
+        }
+        return folder;
+    }
+
+    /**
+     * Records a completed backup. The index is replaced atomically, so a crash never leaves it half-written.
+     */
+    public void append(Path backupFolder, boolean full) throws IOException {
+        entries.add(new Entry(full ? Kind.FULL : Kind.INCREMENTAL, chainPath.relativize(backupFolder.toAbsolutePath()).toString()));
+        StringBuilder sb = new StringBuilder();
+        for (Entry entry : entries) {
+            sb.append(entry.kind()).append(' ').append(entry.folder()).append('\n');
+        }
+        Files.createDirectories(chainPath);
+        Path tmpPath = chainPath.resolve(INDEX_FILE_NAME + ".tmp");
+        Files.writeString(tmpPath, sb);
+        Files.move(tmpPath, chainPath.resolve(INDEX_FILE_NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import com.brinvex.dba.internal.common.FileHashUtil;
+import com.brinvex.dba.internal.common.FileTreeUtil;
+import com.brinvex.dba.internal.common.ParallelUtil;
+import com.brinvex.dba.internal.common.ThroughputUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.brinvex.dba.internal.common.WindowsUtil.isWindowsOs;
+import static java.lang.String.format;
+
+/**
+ * Content-addressed store of DIRECTORY backups: every file is kept once as blobs/&lt;2 hex&gt;/&lt;sha256&gt;,
+ * each backup is a manifest backups/&lt;name&gt;.sha256 listing its files (in the format of checksums.sha256).
+ * The per-table files of consecutive backups are mostly identical, so a backup stores only the changed ones.
+ * A backup is materialized as a restorable folder of hard links to the blobs (copies if linking fails).
+ * Blobs are made read-only (not on Windows, where read-only files can not be deleted), since a change
+ * through any hard link would change every backup sharing the blob.
+ */
+public class PgBackupStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PgBackupStore.class);
+
+    private static final String BLOBS_FOLDER_NAME = "blobs";
+
+    private static final String BACKUPS_FOLDER_NAME = "backups";
+
+    private static final String MANIFEST_SUFFIX = ".sha256";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * Serializes storing, removing and garbage collection within the JVM - a blob just deduplicated
+     * must not be collected before the manifest referencing it is written.
+     */
+    private static final Object STORE_LOCK = new Object();
+
+    private final Path storePath;
+
+    private final int parallelism;
+
+    public PgBackupStore(Path storePath, int parallelism) {
+        this.storePath = storePath.toAbsolutePath();
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Moves the backup into the store under its folder name. The files are hashed anew and checked against
+     * the checksums of the backup, if present. The backup folder is deleted only once its manifest is written.
+     */
+    public String store(Path backupPath) throws IOException {
+        backupPath = backupPath.toAbsolutePath();
+        String name = backupPath.getFileName().toString();
+        Path manifestPath = manifestPath(name);
+        long startNanos = System.nanoTime();
+
+        List<Path> files;
+        try (var walk = Files.walk(backupPath)) {
+            Path root = backupPath;
+            files = walk
+                    .filter(Files::isRegularFile)
+                    .filter(f -> !f.getParent().equals(root) || !f.getFileName().toString().equals(PgDumpVerifier.FILE_NAME))
+                    .sorted()
+                    .toList();
+        }
+        Map<Path, String> hashes = FileHashUtil.sha256(files, parallelism);
+        Map<String, String> expected = readManifest(backupPath.resolve(PgDumpVerifier.FILE_NAME));
+        Map<String, String> manifest = new LinkedHashMap<>();
+        for (Map.Entry<Path, String> e : hashes.entrySet()) {
+            String relativeName = backupPath.relativize(e.getKey()).toString().replace('\\', '/');
+            String expectedHash = expected.get(relativeName);
+            if (!expected.isEmpty() && !e.getValue().equals(expectedHash)) {
+                throw new IOException(format("Backup does not match its checksums, not stored: %s, %s", backupPath, relativeName));
+            }
+            manifest.put(relativeName, e.getValue());
+        }
+        if (!expected.isEmpty() && expected.size() != manifest.size()) {
+            throw new IOException(format("Backup files do not match its checksums, not stored: %s, files=%s, checksums=%s",
+                    backupPath, manifest.size(), expected.size()));
+        }
+
+        AtomicInteger newBlobs = new AtomicInteger();
+        AtomicLong newBytes = new AtomicLong();
+        long totalBytes = 0;
+        for (Path file : files) {
+            totalBytes += Files.size(file);
+        }
+        synchronized (STORE_LOCK) {
+            if (Files.exists(manifestPath)) {
+                throw new FileAlreadyExistsException(manifestPath.toString(), null, "Backup already stored");
+            }
+            ParallelUtil.forEach("storeBackup", files, parallelism, file -> {
+                long size = Files.size(file);
+                if (addBlob(file, hashes.get(file))) {
+                    newBlobs.incrementAndGet();
+                    newBytes.addAndGet(size);
+                }
+            });
+            Files.createDirectories(manifestPath.getParent());
+            writeManifest(manifestPath, manifest);
+        }
+        FileTreeUtil.delete(backupPath, parallelism);
+        LOG.info("Backup stored: {} -> {}, files={}, newBlobs={}, size={} MB, newSize={} MB, duration={}",
+                backupPath, storePath, files.size(), newBlobs.get(), ThroughputUtil.toMb(totalBytes), ThroughputUtil.toMb(newBytes.get()),
+                Duration.ofNanos(System.nanoTime() - startNanos));
+        return name;
+    }
+
+    /**
+     * Rebuilds the backup as a folder, including its checksums.sha256, which must not exist yet.
+     * A change-aware backup needs the backups it references materialized next to it, under their names.
+     */
+    public Path materialize(String name, Path targetPath) throws IOException {
+        Map<String, String> manifest = readManifest(manifestPath(name));
+        if (manifest.isEmpty()) {
+            throw new NoSuchFileException(manifestPath(name).toString(), null, "Backup not in the store");
+        }
+        targetPath = targetPath.toAbsolutePath();
+        Files.createDirectory(targetPath);
+        long startNanos = System.nanoTime();
+        Path target = targetPath;
+        AtomicInteger copied = new AtomicInteger();
+        ParallelUtil.forEach("materializeBackup", new ArrayList<>(manifest.entrySet()), parallelism, e -> {
+            Path blob = blobPath(e.getValue());
+            Path file = target.resolve(e.getKey());
+            Files.createDirectories(file.getParent());
+            try {
+                Files.createLink(file, blob);
+            } catch (UnsupportedOperationException | IOException linkFailure) {
+                if (linkFailure instanceof NoSuchFileException) {
+                    throw new IOException(format("Blob missing in the store: %s, %s", blob, e.getKey()), linkFailure);
+                }
+                // Another file store, a file system without hard links or the link count limit of the blob
+                Files.copy(blob, file);
+                copied.incrementAndGet();
+            }
+        });
+        writeManifest(targetPath.resolve(PgDumpVerifier.FILE_NAME), manifest);
+        LOG.info("Backup materialized: {} -> {}, files={}, copied={}, duration={}",
+                name, targetPath, manifest.size(), copied.get(), Duration.ofNanos(System.nanoTime() - startNanos));
+        return targetPath;
+    }
+
+    public List<String> backupNames() throws IOException {
+        Path backupsPath = storePath.resolve(BACKUPS_FOLDER_NAME);
+        if (!Files.isDirectory(backupsPath)) {
+            return List.of();
+        }
+        try (var files = Files.list(backupsPath)) {
+            return files
+                    .map(f -> f.getFileName().toString())
+                    .filter(f -> f.endsWith(MANIFEST_SUFFIX))
+                    .map(f -> f.substring(0, f.length() - MANIFEST_SUFFIX.length()))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * Removes the backups and deletes the blobs no remaining backup references. Returns the freed bytes.
+     */
+    public long remove(List<String> names) throws IOException {
+        synchronized (STORE_LOCK) {
+            for (String name : names) {
+                Files.deleteIfExists(manifestPath(name));
+            }
+            Set<String> referenced = new HashSet<>();
+            for (String name : backupNames()) {
+                referenced.addAll(readManifest(manifestPath(name)).values());
+            }
+            List<Path> garbage = new ArrayList<>();
+            Path blobsPath = storePath.resolve(BLOBS_FOLDER_NAME);
+            if (Files.isDirectory(blobsPath)) {
+                try (var walk = Files.walk(blobsPath)) {
+                    walk.filter(Files::isRegularFile)
+                            .filter(f -> !referenced.contains(f.getFileName().toString()))
+                            .forEach(garbage::add);
+                }
+            }
+            AtomicLong freed = new AtomicLong();
+            ParallelUtil.forEach("collectBlobs", garbage, parallelism, blob -> {
+                long size = Files.size(blob);
+                Files.delete(blob);
+                freed.addAndGet(size);
+            });
+            LOG.info("Backups removed from the store {}: {}, deletedBlobs={}, freed={} MB",
+                    storePath, names, garbage.size(), ThroughputUtil.toMb(freed.get()));
+            return freed.get();
+        }
+    }
+
+    /**
+     * Returns false if the store has the blob already, the file is deduplicated then.
+     * The blob appears atomically, a crash leaves at most a temporary file collected by {@link #remove(List)}.
+     */
+    private boolean addBlob(Path file, String sha256) throws IOException {
+        Path blob = blobPath(sha256);
+        if (Files.exists(blob)) {
+            return false;
+        }
+        Files.createDirectories(blob.getParent());
+        Path tmp = blob.resolveSibling(sha256 + "." + UUID.randomUUID() + TMP_SUFFIX);
+        try {
+            Files.createLink(tmp, file);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(file, tmp);
+        }
+        if (!isWindowsOs()) {
+            Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("r--r--r--"));
+        }
+        try {
+            // Identical files of one backup race for the same blob
+            Files.move(tmp, blob, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            Files.delete(tmp);
+            return false;
+        }
+        return true;
+    }
+
+    private Path blobPath(String sha256) {
+        return storePath.resolve(BLOBS_FOLDER_NAME).resolve(sha256.substring(0, 2)).resolve(sha256);
+    }
+
+    private Path manifestPath(String name) {
+        return storePath.resolve(BACKUPS_FOLDER_NAME).resolve(name + MANIFEST_SUFFIX);
+    }
+
+    /**
+     * Relative name to SHA-256, empty if the file does not exist.
+     */
+    private static Map<String, String> readManifest(Path manifestPath) throws IOException {
+        Map<String, String> manifest = new LinkedHashMap<>();
+        if (!Files.exists(manifestPath)) {
+            return manifest;
+        }
+        for (String line : Files.readAllLines(manifestPath)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            int idx = line.indexOf("  ");
+            if (idx <= 0) {
+                throw new IOException(format("Invalid checksum line: '%s' in %s", line, manifestPath));
+            }
+            manifest.put(line.substring(idx + 2), line.substring(0, idx));
+        }
+        return manifest;
+    }
+
+    private static void writeManifest(Path manifestPath, Map<String, String> manifest) throws IOException {
+        List<String> lines = new ArrayList<>(manifest.size());
+        manifest.forEach((name, sha256) -> lines.add(sha256 + "  " + name));
+        Path tmpPath = manifestPath.resolveSibling(manifestPath.getFileName() + TMP_SUFFIX);
+        Files.write(tmpPath, lines);
+        Files.move(tmpPath, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
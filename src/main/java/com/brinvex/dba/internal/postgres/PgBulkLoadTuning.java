@@ -0,0 +1,186 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import com.brinvex.dba.api.DbConf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.String.format;
+
+/**
+ * Temporary server and database settings for restoring a database as fast as possible:
+ * bigger maintenance_work_mem for the index builds and no synchronous commits for the restored database,
+ * a bigger max_wal_size (cluster-wide, by ALTER SYSTEM) against checkpoint storms and no autovacuum
+ * on the restored tables while they are loaded. {@link #revert()} puts everything back as it was.
+ */
+public class PgBulkLoadTuning {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PgBulkLoadTuning.class);
+
+    private static final String MAINTENANCE_WORK_MEM = "512MB";
+
+    private static final String MAX_WAL_SIZE = "8GB";
+
+    private static final String AUTO_CONF_MAX_WAL_SIZE_SQL = """
+            SELECT setting FROM pg_file_settings
+            WHERE name = 'max_wal_size' AND sourcefile LIKE '%postgresql.auto.conf' ORDER BY seqno DESC LIMIT 1""";
+
+    private static final String AUTOVACUUMED_TABLES_SQL = """
+            SELECT c.oid::regclass FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace
+            WHERE c.relkind IN ('r', 'm') AND n.nspname NOT IN ('pg_catalog', 'information_schema')
+             AND NOT EXISTS (SELECT 1 FROM unnest(c.reloptions) o WHERE o LIKE 'autovacuum_enabled=%')""";
+
+    private final SqlExecutor sqlExecutor;
+
+    private final DbConf conf;
+
+    private final String db;
+
+    private boolean databaseTuned;
+
+    private boolean maxWalSizeRaised;
+
+    /**
+     * The max_wal_size set by ALTER SYSTEM before, null if none.
+     */
+    private String originalMaxWalSize;
+
+    private final List<String> autovacuumDisabledTables = new ArrayList<>();
+
+    public PgBulkLoadTuning(SqlExecutor sqlExecutor, DbConf conf, String db) {
+        this.sqlExecutor = sqlExecutor;
+        this.conf = conf;
+        this.db = db;
+    }
+
+    /**
+     * Database settings apply to the sessions opened afterwards, so this must precede the restore.
+     */
+    public void apply() throws IOException {
+        LOG.info("Bulk load tuning of DB {}: maintenance_work_mem={}, synchronous_commit=off, max_wal_size>={}",
+                db, MAINTENANCE_WORK_MEM, MAX_WAL_SIZE);
+        databaseTuned = true;
+        execute("postgres", format("ALTER DATABASE %s SET maintenance_work_mem = '%s'", db, MAINTENANCE_WORK_MEM));
+        execute("postgres", format("ALTER DATABASE %s SET synchronous_commit = off", db));
+
+        long maxWalSize = Long.parseLong(query("postgres", "SELECT pg_size_bytes(current_setting('max_wal_size'))"));
+        long bulkLoadMaxWalSize = Long.parseLong(query("postgres", format("SELECT pg_size_bytes('%s')", MAX_WAL_SIZE)));
+        if (maxWalSize < bulkLoadMaxWalSize) {
+            String autoConfMaxWalSize = query("postgres", AUTO_CONF_MAX_WAL_SIZE_SQL);
+            originalMaxWalSize = autoConfMaxWalSize.isEmpty() ? null : autoConfMaxWalSize;
+            maxWalSizeRaised = true;
+            execute("postgres", format("ALTER SYSTEM SET max_wal_size = '%s'", MAX_WAL_SIZE));
+            new PgConfigReloader(sqlExecutor, conf).reloadAndGetPendingRestart();
+        }
+    }
+
+    /**
+     * Disables autovacuum on the tables created by the pre-data section, except those with an explicit setting.
+     */
+    public void disableAutovacuum() throws IOException {
+        for (String table : query(db, AUTOVACUUMED_TABLES_SQL).split("\n")) {
+            if (!table.isEmpty()) {
+                autovacuumDisabledTables.add(table);
+            }
+        }
+        LOG.info("Bulk load tuning of DB {}: disabling autovacuum on {} tables", db, autovacuumDisabledTables.size());
+        executeBatch(autovacuumDisabledTables.stream()
+                .map(t -> format("ALTER TABLE %s SET (autovacuum_enabled = false)", t))
+                .toList());
+    }
+
+    /**
+     * Reverts every applied setting, even if reverting another one fails. The first failure is thrown then,
+     * with the others attached as suppressed.
+     */
+    public void revert() throws IOException {
+        LOG.info("Reverting bulk load tuning of DB {}", db);
+        List<Exception> failures = new ArrayList<>();
+        if (!autovacuumDisabledTables.isEmpty()) {
+            try {
+                executeBatch(autovacuumDisabledTables.stream()
+                        .map(t -> format("ALTER TABLE %s RESET (autovacuum_enabled)", t))
+                        .toList());
+                autovacuumDisabledTables.clear();
+            } catch (IOException | RuntimeException e) {
+                failures.add(e);
+            }
+        }
+        if (databaseTuned) {
+            try {
+                execute("postgres", format("ALTER DATABASE %s RESET maintenance_work_mem", db));
+                execute("postgres", format("ALTER DATABASE %s RESET synchronous_commit", db));
+                databaseTuned = false;
+            } catch (IOException | RuntimeException e) {
+                failures.add(e);
+            }
+        }
+        if (maxWalSizeRaised) {
+            try {
+                execute("postgres", originalMaxWalSize == null
+                        ? "ALTER SYSTEM RESET max_wal_size"
+                        : format("ALTER SYSTEM SET max_wal_size = '%s'", originalMaxWalSize));
+                new PgConfigReloader(sqlExecutor, conf).reloadAndGetPendingRestart();
+                maxWalSizeRaised = false;
+            } catch (IOException | RuntimeException e) {
+                failures.add(e);
+            }
+        }
+        if (!failures.isEmpty()) {
+            LOG.error("Reverting bulk load tuning of DB {} failed, check max_wal_size, the settings of the database " +
+                      "and autovacuum_enabled of its tables: {}", db, failures);
+            Exception first = failures.getFirst();
+            failures.stream().skip(1).forEach(first::addSuppressed);
+            if (first instanceof IOException ioe) {
+                throw ioe;
+            }
+            throw (RuntimeException) first;
+        }
+    }
+
+    private void execute(String targetDb, String sql) throws IOException {
+        SqlResult r = sqlExecutor.execute(conf, targetDb, conf.getSuperUser(), conf.getSuperPass(), sql);
+        if (!r.getErr().isBlank()) {
+            throw new IOException(format("Bulk load tuning failed: %s, %s", sql, r));
+        }
+    }
+
+    private void executeBatch(List<String> sqls) throws IOException {
+        if (sqls.isEmpty()) {
+            return;
+        }
+        List<SqlResult> results = sqlExecutor.executeBatch(conf, db, conf.getSuperUser(), conf.getSuperPass(), sqls);
+        for (int i = 0; i < results.size(); i++) {
+            SqlResult r = results.get(i);
+            if (!r.getErr().isBlank()) {
+                throw new IOException(format("Bulk load tuning failed: %s, %s", sqls.get(i), r));
+            }
+        }
+    }
+
+    private String query(String targetDb, String sql) throws IOException {
+        SqlResult r = sqlExecutor.query(conf, targetDb, conf.getSuperUser(), conf.getSuperPass(), sql);
+        if (!r.getErr().isBlank()) {
+            throw new IOException(format("Bulk load tuning query failed: %s, %s", sql, r));
+        }
+        return r.getOut().strip();
+    }
+}
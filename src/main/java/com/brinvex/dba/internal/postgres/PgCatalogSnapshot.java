@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import com.brinvex.dba.api.DbConf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.lang.String.format;
+
+/**
+ * In-memory view of the roles, databases and (per database) extensions of a server.
+ * Roles and databases are loaded in one round trip, extensions lazily once per database.
+ * Callers keep the snapshot up to date by reporting every object they create or drop.
+ */
+public class PgCatalogSnapshot {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PgCatalogSnapshot.class);
+
+    private final SqlExecutor sqlExecutor;
+
+    private final DbConf conf;
+
+    private final Set<String> roles = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> databases = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, Set<String>> extensions = new ConcurrentHashMap<>();
+
+    private PgCatalogSnapshot(SqlExecutor sqlExecutor, DbConf conf) {
+        this.sqlExecutor = sqlExecutor;
+        this.conf = conf;
+    }
+
+    public static PgCatalogSnapshot load(SqlExecutor sqlExecutor, DbConf conf) throws IOException {
+        PgCatalogSnapshot snapshot = new PgCatalogSnapshot(sqlExecutor, conf);
+        SqlResult r = sqlExecutor.query(conf, "postgres", conf.getSuperUser(), conf.getSuperPass(),
+                "SELECT 'r', rolname FROM pg_roles UNION ALL SELECT 'd', datname FROM pg_database");
+        if (!r.getErr().isBlank()) {
+            throw new IOException(format("PG catalog snapshot loading failed: %s", r));
+        }
+        for (String row : r.getOut().split("\n")) {
+            if (row.isEmpty()) {
+                continue;
+            }
+            String name = row.substring(2);
+            if (row.startsWith("r|")) {
+                snapshot.roles.add(name);
+            } else if (row.startsWith("d|")) {
+                snapshot.databases.add(name);
+            }
+        }
+        LOG.debug("PG catalog snapshot loaded: roles={}, databases={}", snapshot.roles.size(), snapshot.databases.size());
+        return snapshot;
+    }
+
+    public boolean roleExists(String role) {
+        return roles.contains(role);
+    }
+
+    public boolean databaseExists(String db) {
+        return databases.contains(db);
+    }
+
+    public boolean extensionExists(String db, String extension) throws IOException {
+        return extensions(db).contains(extension);
+    }
+
+    public void roleCreated(String role) {
+        roles.add(role);
+    }
+
+    public void databaseCreated(String db) {
+        databases.add(db);
+        extensions.remove(db);
+    }
+
+    public void databaseDropped(String db) {
+        databases.remove(db);
+        extensions.remove(db);
+    }
+
+    public void extensionCreated(String db, String extension) throws IOException {
+        extensions(db).add(extension);
+    }
+
+    private Set<String> extensions(String db) throws IOException {
+        Set<String> dbExtensions = extensions.get(db);
+        if (dbExtensions == null) {
+            SqlResult r = sqlExecutor.query(conf, db, conf.getSuperUser(), conf.getSuperPass(), "SELECT extname FROM pg_extension");
+            if (!r.getErr().isBlank()) {
+                throw new IOException(format("PG extensions loading failed: %s, %s", db, r));
+            }
+            Set<String> loaded = ConcurrentHashMap.newKeySet();
+            for (String row : r.getOut().split("\n")) {
+                if (!row.isEmpty()) {
+                    loaded.add(row);
+                }
+            }
+            Set<String> prev = extensions.putIfAbsent(db, loaded);
+            dbExtensions = prev != null ? prev : loaded;
+        }
+        return dbExtensions;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import com.brinvex.dba.api.DbConf;
+import com.brinvex.dba.internal.common.FileTreeUtil;
+import com.brinvex.dba.internal.common.OsCmdResult;
+import com.brinvex.dba.internal.common.OsCmdUtil;
+import com.brinvex.dba.internal.common.ParallelUtil;
+import com.brinvex.dba.internal.common.ThroughputUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import static java.lang.String.format;
+
+/**
+ * Online logical backup of all databases of a cluster into one folder: the roles and tablespaces
+ * by pg_dumpall --globals-only, every connectable database by its own pg_dump, several at once.
+ * The dump files are named after the database OID ("db_16384.backup"), as database names may contain any character.
+ * The manifest maps them to the names, backslash-escaped like in {@link PgTableStats}; the globals have an empty name.
+ * The dumps share a budget of workers (pg_dump jobs). Each database gets a share of it proportional to its size,
+ * at least one job, and the biggest databases start first, so a huge database dumps with many jobs
+ * while the small ones pass alongside. A dump starts once its jobs fit into the unused budget.
+ * The cluster_manifest.tsv is written last - a backup without it is incomplete.
+ */
+public class PgClusterBackup {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PgClusterBackup.class);
+
+    public static final String MANIFEST_FILE_NAME = "cluster_manifest.tsv";
+
+    public static final String GLOBALS_FILE_NAME = "globals.sql";
+
+    private static final String MANIFEST_HEADER = "#db\tfile\tformat\tsize\tjobs\tduration\tsha256";
+
+    /**
+     * Names are hex-encoded - they may contain the column and row separators.
+     */
+    private static final String DATABASES_SQL = """
+            SELECT oid, encode(convert_to(datname, 'UTF8'), 'hex'), pg_database_size(oid) FROM pg_database
+            WHERE datallowconn AND NOT datistemplate ORDER BY 3 DESC, 2""";
+
+    @FunctionalInterface
+    public interface DbDumper {
+        void dump(String db, Path backupPath, int jobs) throws IOException;
+    }
+
+    private record Db(long oid, String name, long size) {
+    }
+
+    private record Dumped(String file, String format, int jobs, Duration duration) {
+    }
+
+    private final SqlExecutor sqlExecutor;
+
+    private final DbConf conf;
+
+    public PgClusterBackup(SqlExecutor sqlExecutor, DbConf conf) {
+        this.sqlExecutor = sqlExecutor;
+        this.conf = conf;
+    }
+
+    public void backup(Path backupPath, DbDumper dumper) throws IOException {
+        backupPath = backupPath.toAbsolutePath();
+        if (Files.exists(backupPath.resolve(MANIFEST_FILE_NAME))) {
+            throw new IllegalArgumentException(format("Cluster backup already exists: %s", backupPath));
+        }
+        Files.createDirectories(backupPath);
+        long startNanos = System.nanoTime();
+
+        List<Db> dbs = databases();
+        int budget = PgParallelismAdvisor.clusterBackupBudget(sqlExecutor, conf);
+        Map<String, Integer> jobsByDb = jobs(dbs, budget);
+        LOG.info("Cluster backup to {}: budget={}, databases={}", backupPath, budget,
+                dbs.stream().map(db -> db.name() + ":" + ThroughputUtil.toMb(db.size()) + "MB:" + jobsByDb.get(db.name()) + "j").toList());
+
+        Dumped globals = dumpGlobals(backupPath);
+
+        // Fair - a big dump waiting for its jobs is not overtaken by the smaller ones started after it
+        Semaphore workers = new Semaphore(budget, true);
+        Map<String, Dumped> dumped = new ConcurrentHashMap<>();
+        Path folder = backupPath;
+        ParallelUtil.forEach("backupDbCluster", dbs, dbs.size(), db -> {
+            int jobs = jobsByDb.get(db.name());
+            try {
+                workers.acquire(jobs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(format("Cluster backup interrupted before dumping %s", db.name()));
+            }
+            try {
+                String file = "db_" + db.oid() + fileSuffix(conf.getBackupFormat());
+                long dbStartNanos = System.nanoTime();
+                dumper.dump(db.name(), folder.resolve(file), jobs);
+                dumped.put(db.name(), new Dumped(file, conf.getBackupFormat().name(), jobs, Duration.ofNanos(System.nanoTime() - dbStartNanos)));
+            } finally {
+                workers.release(jobs);
+            }
+        });
+
+        List<String> lines = new ArrayList<>(dbs.size() + 2);
+        lines.add(MANIFEST_HEADER);
+        lines.add(manifestLine(backupPath, "", globals));
+        Duration dumpsDuration = globals.duration();
+        for (Db db : dbs) {
+            Dumped d = dumped.get(db.name());
+            lines.add(manifestLine(backupPath, db.name(), d));
+            dumpsDuration = dumpsDuration.plus(d.duration());
+        }
+        Path tmpPath = backupPath.resolve(MANIFEST_FILE_NAME + ".tmp");
+        Files.write(tmpPath, lines);
+        Files.move(tmpPath, backupPath.resolve(MANIFEST_FILE_NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+        LOG.info("Cluster backup done: {}, databases={}, duration={}, sum of dump durations={}, dbSize={} MB",
+                backupPath, dbs.size(), duration, dumpsDuration, ThroughputUtil.toMb(dbs.stream().mapToLong(Db::size).sum()));
+    }
+
+    private List<Db> databases() throws IOException {
+        SqlResult r = sqlExecutor.query(conf, "postgres", conf.getSuperUser(), conf.getSuperPass(), DATABASES_SQL);
+        if (!r.getErr().isBlank() || r.getOut().isBlank()) {
+            throw new IOException(format("Databases query failed: %s", r));
+        }
+        List<Db> dbs = new ArrayList<>();
+        for (String row : r.getOut().strip().split("\n")) {
+            String[] cols = row.split("\\|");
+            dbs.add(new Db(Long.parseLong(cols[0]), PgTableStats.unhex(cols[1]), Long.parseLong(cols[2])));
+        }
+        return dbs;
+    }
+
+    /**
+     * The size-proportional share of the budget, limited by what the database can use
+     * ({@link PgParallelismAdvisor#backupJobs(SqlExecutor, DbConf, String)}, 1 unless DIRECTORY).
+     */
+    private Map<String, Integer> jobs(List<Db> dbs, int budget) throws IOException {
+        long totalSize = Math.max(1, dbs.stream().mapToLong(Db::size).sum());
+        Map<String, Integer> jobsByDb = new HashMap<>();
+        for (Db db : dbs) {
+            int jobs = 1;
+            if (conf.getBackupFormat() == DbConf.BackupFormat.DIRECTORY) {
+                int share = (int) Math.max(1, Math.round((double) budget * db.size() / totalSize));
+                jobs = Math.min(share, PgParallelismAdvisor.backupJobs(sqlExecutor, conf, db.name()));
+            }
+            jobsByDb.put(db.name(), Math.max(1, Math.min(jobs, budget)));
+        }
+        return jobsByDb;
+    }
+
+    private Dumped dumpGlobals(Path backupPath) throws IOException {
+        Path pgDumpAllPath = conf.getDbToolsPath().resolve("pg_dumpall");
+        String cmd = format("%s -h %s -p %s -U %s --globals-only --no-password -f %s",
+                pgDumpAllPath, conf.getHost(), conf.getPort(), conf.getSuperUser(), backupPath.resolve(GLOBALS_FILE_NAME));
+        long startNanos = System.nanoTime();
+        OsCmdResult r = OsCmdUtil.execStreaming(cmd, Set.of("PGPASSWORD=" + conf.getSuperPass()), conf.getBackupRestoreTimeout(),
+                s -> LOG.info("pg_dumpall: {}", s),
+                s -> LOG.warn("pg_dumpall: {}", s));
+        if (r.getExitCode() != 0 || !r.getErr().isBlank()) {
+            throw new IOException(format("Globals backup failed: %s", r));
+        }
+        return new Dumped(GLOBALS_FILE_NAME, DbConf.BackupFormat.PLAIN.name(), 1, Duration.ofNanos(System.nanoTime() - startNanos));
+    }
+
+    private static String manifestLine(Path backupPath, String db, Dumped d) throws IOException {
+        Path path = backupPath.resolve(d.file());
+        return String.join("\t", PgTableStats.escape(db), d.file(), d.format(), String.valueOf(FileTreeUtil.sizeOf(path)),
+                String.valueOf(d.jobs()), d.duration().toString(), PgBackupCatalog.sha256(path));
+    }
+
+    private static String fileSuffix(DbConf.BackupFormat backupFormat) {
+        return switch (backupFormat) {
+            case PLAIN -> ".sql";
+            case CUSTOM_ARCHIVE -> ".backup";
+            case DIRECTORY -> "";
+        };
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import com.brinvex.dba.api.BackupCompression;
+import com.brinvex.dba.api.BackupCompression.Algorithm;
+import com.brinvex.dba.api.DbConf;
+
+import java.util.Locale;
+import java.util.StringJoiner;
+
+import static java.lang.String.format;
+
+/**
+ * Translates a {@link BackupCompression} into pg_dump's or pg_basebackup's --compress option, failing early
+ * if the installed tools can not write or read it.
+ */
+public class PgCompressionSpec {
+
+    /**
+     * First version with lz4/zstd and the METHOD:DETAIL syntax in pg_dump and pg_restore.
+     */
+    private static final int METHOD_SYNTAX_MIN_VERSION = 16;
+
+    /**
+     * First version with lz4/zstd, server-side compression and the METHOD:DETAIL syntax in pg_basebackup.
+     */
+    private static final int BASE_BACKUP_METHOD_SYNTAX_MIN_VERSION = 15;
+
+    /**
+     * First version with the zstd long-distance mode in pg_basebackup.
+     */
+    private static final int BASE_BACKUP_LONG_DISTANCE_MIN_VERSION = 16;
+
+    /**
+     * Returns the pg_dump option, empty if the compression is null (pg_dump's default for the format).
+     */
+    public static String dumpOption(BackupCompression compression, DbConf.BackupFormat backupFormat, int pgDumpMajor) {
+        if (compression == null) {
+            return "";
+        }
+        checkFormatSupport(compression, backupFormat);
+        Algorithm algorithm = compression.getAlgorithm();
+        Integer level = compression.getLevel();
+        checkLevel(algorithm, level);
+        if (compression.getWorkers() > 0 || compression.isServerSide()) {
+            throw new IllegalArgumentException(format(
+                    "Compression workers and server-side compression are not supported by pg_dump: %s", compression));
+        }
+        if (compression.isLongDistance() && algorithm != Algorithm.ZSTD) {
+            throw new IllegalArgumentException(format(
+                    "Long-distance mode is supported by zstd only: %s", compression));
+        }
+        if (pgDumpMajor < METHOD_SYNTAX_MIN_VERSION) {
+            return switch (algorithm) {
+                case NONE -> "--compress=0";
+                case GZIP -> format("--compress=%s", level == null ? 6 : level);
+                case LZ4, ZSTD -> throw new IllegalArgumentException(format(
+                        "Compression %s requires pg_dump %s+, installed: %s",
+                        algorithm, METHOD_SYNTAX_MIN_VERSION, pgDumpMajor));
+            };
+        }
+        return "--compress=" + spec(compression);
+    }
+
+    /**
+     * Returns the pg_basebackup option for the tar format, empty if the compression is null (no compression).
+     */
+    public static String baseBackupOption(BackupCompression compression, int pgBaseBackupMajor) {
+        if (compression == null) {
+            return "";
+        }
+        Algorithm algorithm = compression.getAlgorithm();
+        Integer level = compression.getLevel();
+        checkLevel(algorithm, level);
+        if ((compression.isLongDistance() || compression.getWorkers() > 0) && algorithm != Algorithm.ZSTD) {
+            throw new IllegalArgumentException(format(
+                    "Long-distance mode and workers are supported by zstd only: %s", compression));
+        }
+        if (pgBaseBackupMajor < BASE_BACKUP_METHOD_SYNTAX_MIN_VERSION) {
+            if (compression.isServerSide() || algorithm == Algorithm.LZ4 || algorithm == Algorithm.ZSTD) {
+                throw new IllegalArgumentException(format(
+                        "Compression %s requires pg_basebackup %s+, installed: %s",
+                        compression, BASE_BACKUP_METHOD_SYNTAX_MIN_VERSION, pgBaseBackupMajor));
+            }
+            return algorithm == Algorithm.NONE ? "" : format("--compress=%s", level == null ? 6 : level);
+        }
+        if (compression.isLongDistance() && pgBaseBackupMajor < BASE_BACKUP_LONG_DISTANCE_MIN_VERSION) {
+            throw new IllegalArgumentException(format(
+                    "Long-distance mode requires pg_basebackup %s+, installed: %s",
+                    BASE_BACKUP_LONG_DISTANCE_MIN_VERSION, pgBaseBackupMajor));
+        }
+        if (algorithm == Algorithm.NONE) {
+            return "";
+        }
+        return format("--compress=%s-%s", compression.isServerSide() ? "server" : "client", spec(compression));
+    }
+
+    /**
+     * Fails for a compressed PLAIN backup: a compressed script can neither be checked for its completion comment
+     * nor piped into psql.
+     */
+    public static void checkFormatSupport(BackupCompression compression, DbConf.BackupFormat backupFormat) {
+        if (compression != null && compression.getAlgorithm() != Algorithm.NONE && backupFormat == DbConf.BackupFormat.PLAIN) {
+            throw new IllegalArgumentException(format(
+                    "Compression is not supported for the PLAIN format: %s", compression));
+        }
+    }
+
+    /**
+     * Fails if pg_restore can not read archives written with the given compression.
+     * The archive itself records its compression, so pg_restore needs no option.
+     */
+    public static void checkRestoreSupport(BackupCompression compression, int pgRestoreMajor) {
+        if (compression == null) {
+            return;
+        }
+        Algorithm algorithm = compression.getAlgorithm();
+        if ((algorithm == Algorithm.LZ4 || algorithm == Algorithm.ZSTD) && pgRestoreMajor < METHOD_SYNTAX_MIN_VERSION) {
+            throw new IllegalArgumentException(format(
+                    "Compression %s requires pg_restore %s+, installed: %s",
+                    algorithm, METHOD_SYNTAX_MIN_VERSION, pgRestoreMajor));
+        }
+    }
+
+    /**
+     * METHOD[:level=N][,long][,workers=N], e.g. "zstd:level=9,long".
+     */
+    public static String spec(BackupCompression compression) {
+        Algorithm algorithm = compression.getAlgorithm();
+        StringJoiner details = new StringJoiner(",");
+        if (compression.getLevel() != null && algorithm != Algorithm.NONE) {
+            details.add("level=" + compression.getLevel());
+        }
+        if (compression.isLongDistance()) {
+            details.add("long");
+        }
+        if (compression.getWorkers() > 0) {
+            details.add("workers=" + compression.getWorkers());
+        }
+        String method = algorithm.name().toLowerCase(Locale.ROOT);
+        return details.length() == 0 ? method : method + ":" + details;
+    }
+
+    private static void checkLevel(Algorithm algorithm, Integer level) {
+        if (level == null) {
+            return;
+        }
+        boolean valid = switch (algorithm) {
+            case NONE -> level == 0;
+            case GZIP -> level >= 1 && level <= 9;
+            case LZ4 -> level >= 1 && level <= 12;
+            case ZSTD -> level != 0 && level <= 22;
+        };
+        if (!valid) {
+            throw new IllegalArgumentException(format("Invalid %s compression level: %s", algorithm, level));
+        }
+    }
+}
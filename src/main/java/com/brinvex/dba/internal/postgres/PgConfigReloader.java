@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import com.brinvex.dba.api.DbConf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.String.format;
+
+/**
+ * Reloads the server configuration and tells which changed parameters can only take effect after a restart.
+ */
+public class PgConfigReloader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PgConfigReloader.class);
+
+    private static final long RELOAD_WAIT_MILLIS = 10_000;
+
+    private final SqlExecutor sqlExecutor;
+
+    private final DbConf conf;
+
+    public PgConfigReloader(SqlExecutor sqlExecutor, DbConf conf) {
+        this.sqlExecutor = sqlExecutor;
+        this.conf = conf;
+    }
+
+    /**
+     * Calls pg_reload_conf(), waits until the new configuration is loaded
+     * and returns the parameters with pg_settings.pending_restart, as "name (context=...)".
+     * Fails if the configuration files contain invalid entries.
+     */
+    public List<String> reloadAndGetPendingRestart() throws IOException {
+        BigDecimal loadTimeBefore = new BigDecimal(querySingle("SELECT extract(epoch FROM pg_conf_load_time())"));
+        String reloaded = querySingle("SELECT pg_reload_conf()");
+        if (!"t".equals(reloaded)) {
+            throw new IOException(format("pg_reload_conf failed: %s", reloaded));
+        }
+        awaitReload(loadTimeBefore);
+
+        SqlResult errors = query("SELECT sourcefile || ':' || sourceline || ' ' || coalesce(name, '') || ' - ' || error" +
+                                 " FROM pg_file_settings" +
+                                 " WHERE error IS NOT NULL AND error <> 'setting could not be applied'");
+        if (!errors.getOut().isBlank()) {
+            throw new IllegalStateException(format("PG configuration contains errors: %s", errors.getOut().replace('\n', ';')));
+        }
+
+        SqlResult pending = query("SELECT name || ' (context=' || context || ')'" +
+                                  " FROM pg_settings WHERE pending_restart ORDER BY name");
+        List<String> pendingRestart = new ArrayList<>();
+        for (String row : pending.getOut().split("\n")) {
+            if (!row.isBlank()) {
+                pendingRestart.add(row);
+            }
+        }
+        LOG.info("PG configuration reloaded, parameters pending restart: {}", pendingRestart);
+        return pendingRestart;
+    }
+
+    private void awaitReload(BigDecimal loadTimeBefore) throws IOException {
+        long deadline = System.currentTimeMillis() + RELOAD_WAIT_MILLIS;
+        long sleepMillis = 10;
+        while (true) {
+            BigDecimal loadTime = new BigDecimal(querySingle("SELECT extract(epoch FROM pg_conf_load_time())"));
+            if (loadTime.compareTo(loadTimeBefore) > 0) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException(format("PG configuration reload not observed within %s ms", RELOAD_WAIT_MILLIS));
+            }
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Waiting for PG configuration reload interrupted");
+            }
+            sleepMillis = Math.min(sleepMillis * 2, 500);
+        }
+    }
+
+    private String querySingle(String sql) throws IOException {
+        return query(sql).getOut().trim();
+    }
+
+    private SqlResult query(String sql) throws IOException {
+        SqlResult r = sqlExecutor.query(conf, "postgres", conf.getSuperUser(), conf.getSuperPass(), sql);
+        if (!r.getErr().isBlank()) {
+            throw new IOException(format("PG query failed: %s, %s", sql, r));
+        }
+        return r;
+    }
+}
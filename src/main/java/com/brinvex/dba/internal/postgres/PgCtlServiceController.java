@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import com.brinvex.dba.api.DbConf;
+import com.brinvex.dba.internal.common.OsCmdResult;
+import com.brinvex.dba.internal.common.OsCmdUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static com.brinvex.dba.internal.common.WindowsUtil.isWindowsOs;
+import static java.lang.String.format;
+
+/**
+ * Runs the DB system directly by pg_ctl, without any service manager - for Linux nodes and local clusters.
+ * pg_ctl -w blocks until the server accepts connections, so no extra readiness polling is needed.
+ * The server log goes to pg_ctl.log in the DB home folder.
+ */
+public class PgCtlServiceController implements ServiceController {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PgCtlServiceController.class);
+
+    /**
+     * pg_ctl status exit code when no server is running in the data directory.
+     */
+    private static final int STATUS_NOT_RUNNING = 3;
+
+    /**
+     * pg_ctl status exit code when the data directory is not accessible.
+     */
+    private static final int STATUS_NO_DATA_DIR = 4;
+
+    private final DbConf conf;
+
+    private final boolean windowsOs;
+
+    public PgCtlServiceController(DbConf conf) {
+        this(conf, isWindowsOs());
+    }
+
+    public PgCtlServiceController(DbConf conf, boolean windowsOs) {
+        this.conf = conf;
+        this.windowsOs = windowsOs;
+    }
+
+    @Override
+    public void register() {
+        LOG.info("PG is controlled by pg_ctl, no service to register: {}", conf.getDbDataPath());
+    }
+
+    @Override
+    public void unregister() throws IOException {
+        if (isRunning()) {
+            stop();
+        }
+    }
+
+    @Override
+    public boolean isRunning() throws IOException {
+        OsCmdResult r = OsCmdUtil.exec(command("status"));
+        return switch (r.getExitCode()) {
+            case 0 -> true;
+            case STATUS_NOT_RUNNING, STATUS_NO_DATA_DIR -> false;
+            default -> throw new IOException(format("PG status failed: %s", r));
+        };
+    }
+
+    @Override
+    public void start() throws IOException {
+        if (isRunning()) {
+            LOG.info("PG already started: {}", conf.getDbDataPath());
+        } else {
+            pgCtl("start");
+        }
+    }
+
+    @Override
+    public void stop() throws IOException {
+        pgCtl("stop");
+    }
+
+    @Override
+    public void restart() throws IOException {
+        pgCtl("restart");
+    }
+
+    @Override
+    public void promote() throws IOException {
+        pgCtl("promote");
+    }
+
+    /**
+     * The pg_ctl command line of the given action: status, start, stop, restart or promote.
+     */
+    public String command(String action) {
+        Path dataPath = conf.getDbDataPath();
+        String options = switch (action) {
+            case "status" -> format("-D %s", dataPath);
+            case "start" -> format("-w -t %s -D %s -l %s", waitSeconds(), dataPath, logPath());
+            case "stop" -> format("-m fast -w -t %s -D %s", waitSeconds(), dataPath);
+            case "restart" -> format("-m fast -w -t %s -D %s -l %s", waitSeconds(), dataPath, logPath());
+            case "promote" -> format("-w -t %s -D %s", waitSeconds(), dataPath);
+            default -> throw new IllegalArgumentException(format("Unsupported pg_ctl action: %s", action));
+        };
+        return format("%s %s %s", PgToolPath.of(conf, "pg_ctl", windowsOs), action, options);
+    }
+
+    private void pgCtl(String action) throws IOException {
+        LOG.info("PG {}: {}", action, conf.getDbDataPath());
+        long startNanos = System.nanoTime();
+        OsCmdResult r = OsCmdUtil.exec(command(action));
+        Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+        if (r.getExitCode() != 0) {
+            throw new IOException(format("PG %s failed after %s: %s, log=%s", action, duration, r, logPath()));
+        }
+        LOG.info("PG {} done in {}: {}", action, duration, conf.getDbDataPath());
+    }
+
+    private Path logPath() {
+        return conf.getDbHomePath().resolve("pg_ctl.log");
+    }
+
+    private long waitSeconds() {
+        Duration readinessTimeout = conf.getReadinessTimeout();
+        return Math.max(1, readinessTimeout.toSeconds());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The pg_restore -l listing and the data files of DIRECTORY backups.
+ * A TOC entry is listed as "<dumpId>; <catalogOid> <oid> <desc> <schema> <name> <owner>",
+ * the data of an entry is stored in "<dumpId>.dat", with a suffix if compressed.
+ */
+public class PgDumpToc {
+
+    private static final Pattern DATA_FILE_NAME_PATTERN = Pattern.compile("(\\d+)\\.dat(\\.\\w+)?");
+
+    private static final String TABLE_DATA = " TABLE DATA ";
+
+    /**
+     * Whether a line of the pg_restore -l output is a TOC entry, not a comment or blank.
+     */
+    public static boolean isEntry(String listLine) {
+        return !listLine.isBlank() && !listLine.startsWith(";");
+    }
+
+    public static boolean isTableData(String listLine) {
+        return isEntry(listLine) && listLine.contains(TABLE_DATA);
+    }
+
+    public static String dumpId(String tocLine) {
+        int idx = tocLine.indexOf(';');
+        return (idx < 0 ? tocLine : tocLine.substring(0, idx)).strip();
+    }
+
+    /**
+     * A substring of exactly the TABLE DATA entry of the table.
+     */
+    public static String tableDataMarker(String schema, String table) {
+        return TABLE_DATA + schema + " " + table + " ";
+    }
+
+    /**
+     * "<schema> <table>" of a TABLE DATA entry, without the owner.
+     * For other entries (e.g. BLOBS) everything after the object ids.
+     */
+    public static String entryName(String tocLine) {
+        int idx = tocLine.indexOf(TABLE_DATA);
+        if (idx < 0) {
+            String[] parts = tocLine.strip().split(" +", 4);
+            return parts.length == 4 ? parts[3] : tocLine.strip();
+        }
+        String name = tocLine.substring(idx + TABLE_DATA.length());
+        int ownerIdx = name.lastIndexOf(' ');
+        return ownerIdx > 0 ? name.substring(0, ownerIdx) : name;
+    }
+
+    /**
+     * The table of a TABLE DATA entry, null if not a TABLE DATA entry or the table is unknown.
+     */
+    public static PgTableStats.Table findTable(PgTableStats tableStats, String tocLine) {
+        int idx = tocLine.indexOf(TABLE_DATA);
+        if (idx < 0) {
+            return null;
+        }
+        // "<schema> <table> <owner>" - unambiguous unless the names contain spaces
+        String[] names = tocLine.substring(idx + TABLE_DATA.length()).split(" ");
+        if (names.length == 3) {
+            return tableStats.getTable(names[0], names[1]);
+        }
+        return tableStats.getTables().stream()
+                .filter(t -> tocLine.contains(tableDataMarker(t.getSchema(), t.getName())))
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * The dump id of a data file name, null for other files.
+     */
+    public static String dataFileDumpId(String fileName) {
+        Matcher m = DATA_FILE_NAME_PATTERN.matcher(fileName);
+        return m.matches() ? m.group(1) : null;
+    }
+
+    /**
+     * Sizes of the data files of the backup by dump id.
+     */
+    public static Map<String, Long> dataFileSizes(Path backupPath) throws IOException {
+        Map<String, Long> sizes = new HashMap<>();
+        try (var files = Files.list(backupPath)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String dumpId = dataFileDumpId(file.getFileName().toString());
+                if (dumpId != null) {
+                    sizes.put(dumpId, Files.size(file));
+                }
+            }
+        }
+        return sizes;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import com.brinvex.dba.internal.common.FileHashUtil;
+import com.brinvex.dba.internal.common.OsCmdResult;
+import com.brinvex.dba.internal.common.OsCmdUtil;
+import com.brinvex.dba.internal.common.ThroughputUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static java.lang.String.format;
+
+/**
+ * Checksums of the files of a DIRECTORY backup, stored in its checksums.sha256 file (in the format of sha256sum,
+ * so that "sha256sum -c" checks it too), and the verification of the backup against them.
+ * The files are hashed concurrently. The verification also checks that every TABLE DATA entry of toc.dat
+ * has its data file and every data file its entry.
+ */
+public class PgDumpVerifier {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PgDumpVerifier.class);
+
+    public static final String FILE_NAME = "checksums.sha256";
+
+    private static final int MAX_REPORTED_PROBLEMS = 20;
+
+    private final Path pgRestorePath;
+
+    private final Duration timeout;
+
+    private final int parallelism;
+
+    public PgDumpVerifier(Path pgRestorePath, Duration timeout, int parallelism) {
+        this.pgRestorePath = pgRestorePath;
+        this.timeout = timeout;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Hashes all files of the backup, which must be complete, including the files added after pg_dump (table stats).
+     */
+    public void writeChecksums(Path backupPath) throws IOException {
+        long startNanos = System.nanoTime();
+        List<Path> files = backupFiles(backupPath);
+        Map<Path, String> hashes = FileHashUtil.sha256(files, parallelism);
+        List<String> lines = new ArrayList<>(files.size());
+        long bytes = 0;
+        for (Map.Entry<Path, String> e : hashes.entrySet()) {
+            // Two spaces - the text mode of sha256sum
+            lines.add(e.getValue() + "  " + relativeName(backupPath, e.getKey()));
+            bytes += Files.size(e.getKey());
+        }
+        Files.write(backupPath.resolve(FILE_NAME), lines);
+        logThroughput("Backup checksums written", backupPath, files.size(), bytes, startNanos);
+    }
+
+    /**
+     * Throws if a file is missing, unexpected or has another checksum, or if toc.dat and the data files do not match.
+     */
+    public void verify(Path backupPath) throws IOException {
+        long startNanos = System.nanoTime();
+        Path checksumsPath = backupPath.resolve(FILE_NAME);
+        if (!Files.exists(checksumsPath)) {
+            throw new IOException(format("Backup has no %s to verify against: %s", FILE_NAME, backupPath));
+        }
+        Map<String, String> expected = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(checksumsPath)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            int idx = line.indexOf("  ");
+            if (idx <= 0) {
+                throw new IOException(format("Invalid checksum line: '%s' in %s", line, checksumsPath));
+            }
+            expected.put(line.substring(idx + 2), line.substring(0, idx));
+        }
+
+        List<String> problems = new ArrayList<>();
+        List<Path> files = backupFiles(backupPath);
+        List<Path> checkedFiles = new ArrayList<>(files.size());
+        Set<String> presentNames = new TreeSet<>();
+        for (Path file : files) {
+            String name = relativeName(backupPath, file);
+            presentNames.add(name);
+            if (expected.containsKey(name)) {
+                checkedFiles.add(file);
+            } else {
+                problems.add("unexpected file " + name);
+            }
+        }
+        expected.keySet().stream()
+                .filter(name -> !presentNames.contains(name))
+                .forEach(name -> problems.add("missing file " + name));
+
+        long bytes = 0;
+        for (Map.Entry<Path, String> e : FileHashUtil.sha256(checkedFiles, parallelism).entrySet()) {
+            String name = relativeName(backupPath, e.getKey());
+            if (!expected.get(name).equals(e.getValue())) {
+                problems.add("checksum mismatch " + name);
+            }
+            bytes += Files.size(e.getKey());
+        }
+
+        problems.addAll(tocProblems(backupPath, presentNames));
+
+        if (!problems.isEmpty()) {
+            throw new IOException(format("Backup verification failed: %s, %s problems: %s",
+                    backupPath, problems.size(), problems.subList(0, Math.min(problems.size(), MAX_REPORTED_PROBLEMS))));
+        }
+        logThroughput("Backup verified", backupPath, checkedFiles.size(), bytes, startNanos);
+    }
+
+    private List<String> tocProblems(Path backupPath, Set<String> presentNames) throws IOException {
+        Set<String> tocDataIds = new TreeSet<>();
+        OsCmdResult r = OsCmdUtil.execStreaming(format("%s -l %s", pgRestorePath, backupPath),
+                Collections.emptyList(), timeout,
+                s -> {
+                    if (PgDumpToc.isTableData(s)) {
+                        tocDataIds.add(PgDumpToc.dumpId(s));
+                    }
+                },
+                s -> LOG.warn("pg_restore -l {}: {}", backupPath, s));
+        if (r.getExitCode() != 0 || !r.getErr().isBlank()) {
+            return List.of(format("toc.dat not readable: %s", r));
+        }
+        Set<String> fileDataIds = new TreeSet<>();
+        for (String name : presentNames) {
+            String dumpId = PgDumpToc.dataFileDumpId(name);
+            if (dumpId != null) {
+                fileDataIds.add(dumpId);
+            }
+        }
+        List<String> problems = new ArrayList<>();
+        tocDataIds.stream()
+                .filter(id -> !fileDataIds.contains(id))
+                .forEach(id -> problems.add("no data file of toc entry " + id));
+        fileDataIds.stream()
+                .filter(id -> !tocDataIds.contains(id))
+                .forEach(id -> problems.add("no toc entry of data file " + id));
+        return problems;
+    }
+
+    /**
+     * The regular files of the backup, except the checksums themselves.
+     */
+    private static List<Path> backupFiles(Path backupPath) throws IOException {
+        try (var walk = Files.walk(backupPath)) {
+            return walk
+                    .filter(Files::isRegularFile)
+                    .filter(f -> !f.getParent().equals(backupPath) || !f.getFileName().toString().equals(FILE_NAME))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static String relativeName(Path backupPath, Path file) {
+        return backupPath.relativize(file).toString().replace('\\', '/');
+    }
+
+    private static void logThroughput(String action, Path backupPath, int files, long bytes, long startNanos) {
+        Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+        LOG.info("{}: {}, files={}, size={} MB, duration={}, throughput={} MB/s", action, backupPath, files,
+                ThroughputUtil.toMb(bytes), duration, ThroughputUtil.mbPerSecond(bytes, duration));
+    }
+}
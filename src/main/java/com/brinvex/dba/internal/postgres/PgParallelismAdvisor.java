@@ -0,0 +1,173 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import com.brinvex.dba.api.DbConf;
+import com.brinvex.dba.internal.common.ThroughputUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+
+import static java.lang.String.format;
+
+/**
+ * Resolves the job count of pg_dump and pg_restore. An explicit {@link DbConf#getBackupRestoreParallelism()} is kept
+ * (if the format supports it), 0 means auto: the job count is limited by the available cores, by the free connections
+ * (each job holds one, half of the free ones are left to the applications), by the number of data-bearing tables
+ * and by the size skew - jobs beyond total size / largest table size would only wait for the largest table.
+ */
+public class PgParallelismAdvisor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PgParallelismAdvisor.class);
+
+    public static final int AUTO = 0;
+
+    /**
+     * Below this size, starting and coordinating the jobs costs more than it saves.
+     */
+    private static final long SMALL_DATA_BYTES = 64L * 1024 * 1024;
+
+    private static final String HEADROOM_SQL = """
+            SELECT current_setting('max_connections')::int - current_setting('superuser_reserved_connections')::int
+             - (SELECT count(*) FROM pg_stat_activity WHERE backend_type = 'client backend')""";
+
+    private static final String TABLE_SIZES_SQL = """
+            SELECT count(*), coalesce(sum(size), 0), coalesce(max(size), 0) FROM (
+             SELECT pg_table_size(c.oid) size FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace
+             WHERE c.relkind IN ('r', 'm') AND n.nspname NOT IN ('pg_catalog', 'information_schema')
+            ) t WHERE size > 0""";
+
+    private static final int UNKNOWN = -1;
+
+    private record DataSizes(int tables, long total, long largest) {
+    }
+
+    public static int backupJobs(SqlExecutor sqlExecutor, DbConf conf, String db) throws IOException {
+        int configured = conf.getBackupRestoreParallelism();
+        DbConf.BackupFormat backupFormat = conf.getBackupFormat();
+        if (backupFormat != DbConf.BackupFormat.DIRECTORY) {
+            if (configured != AUTO && configured != 1) {
+                LOG.warn("Parallel dumps are only supported for the DIRECTORY format, dumping {} with 1 job instead of {}",
+                        db, configured);
+            }
+            return 1;
+        }
+        if (configured != AUTO) {
+            return configured;
+        }
+        SqlResult r = sqlExecutor.query(conf, db, conf.getSuperUser(), conf.getSuperPass(), TABLE_SIZES_SQL);
+        if (!r.getErr().isBlank() || r.getOut().isBlank()) {
+            throw new IOException(format("Table sizes query failed: %s, %s", db, r));
+        }
+        String[] cols = r.getOut().strip().split("\\|");
+        DataSizes sizes = new DataSizes(Integer.parseInt(cols[0]), Long.parseLong(cols[1]), Long.parseLong(cols[2]));
+        return autoJobs("Backup", db, sizes, connectionHeadroom(sqlExecutor, conf));
+    }
+
+    /**
+     * pg_restore runs jobs for CUSTOM_ARCHIVE and DIRECTORY backups. The table sizes are known
+     * from the data files of a DIRECTORY backup only, a custom archive is limited by the cores and connections.
+     */
+    public static int restoreJobs(SqlExecutor sqlExecutor, DbConf conf, String db, Path backupPath) throws IOException {
+        int configured = conf.getBackupRestoreParallelism();
+        if (configured != AUTO) {
+            return configured;
+        }
+        DataSizes sizes;
+        if (Files.isDirectory(backupPath)) {
+            Collection<Long> dataFileSizes = PgDumpToc.dataFileSizes(backupPath).values();
+            sizes = new DataSizes(dataFileSizes.size(),
+                    dataFileSizes.stream().mapToLong(Long::longValue).sum(),
+                    dataFileSizes.stream().mapToLong(Long::longValue).max().orElse(0));
+        } else {
+            long size = Files.size(backupPath);
+            sizes = new DataSizes(UNKNOWN, size, UNKNOWN);
+        }
+        return autoJobs("Restore", db, sizes, connectionHeadroom(sqlExecutor, conf));
+    }
+
+    /**
+     * Index and constraint builds of the post-data section, limited by the cores and connections only.
+     */
+    public static int postDataRestoreJobs(SqlExecutor sqlExecutor, DbConf conf, String db) throws IOException {
+        int configured = conf.getBackupRestoreParallelism();
+        if (configured != AUTO) {
+            return configured;
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        int freeConnections = connectionHeadroom(sqlExecutor, conf);
+        int jobs = Math.max(1, Math.min(cores, (freeConnections - 1) / 2));
+        LOG.info("Restore DB {} post-data parallelism auto: jobs={} (cores={}, freeConnections={})", db, jobs, cores, freeConnections);
+        return jobs;
+    }
+
+    /**
+     * Workers shared by the concurrent pg_dumps of a cluster backup, every job counts as a worker.
+     * Limited by the cores and connections, like the jobs of a single dump.
+     */
+    public static int clusterBackupBudget(SqlExecutor sqlExecutor, DbConf conf) throws IOException {
+        int configured = conf.getBackupRestoreParallelism();
+        if (configured != AUTO) {
+            return configured;
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        int freeConnections = connectionHeadroom(sqlExecutor, conf);
+        // Every concurrent dump holds a leader connection on top of its jobs, at most one per worker
+        int budget = Math.max(1, Math.min(cores, (freeConnections - 1) / 2));
+        LOG.info("Cluster backup parallelism auto: budget={} (cores={}, freeConnections={})", budget, cores, freeConnections);
+        return budget;
+    }
+
+    private static int connectionHeadroom(SqlExecutor sqlExecutor, DbConf conf) throws IOException {
+        SqlResult r = sqlExecutor.query(conf, "postgres", conf.getSuperUser(), conf.getSuperPass(), HEADROOM_SQL);
+        if (!r.getErr().isBlank() || r.getOut().isBlank()) {
+            throw new IOException(format("Connection headroom query failed: %s", r));
+        }
+        return Integer.parseInt(r.getOut().strip());
+    }
+
+    private static int autoJobs(String action, String db, DataSizes sizes, int freeConnections) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        // The leader connection of pg_dump/pg_restore comes on top of the jobs
+        int connectionJobs = (freeConnections - 1) / 2;
+        // Unknown table counts and sizes do not limit the jobs
+        int tableJobs = sizes.tables() == UNKNOWN ? Integer.MAX_VALUE : sizes.tables();
+        long balancedJobs = sizes.largest() > 0 ? (sizes.total() + sizes.largest() - 1) / sizes.largest() : Integer.MAX_VALUE;
+        int jobs;
+        String reason;
+        if (sizes.total() < SMALL_DATA_BYTES) {
+            jobs = 1;
+            reason = "small data";
+        } else {
+            jobs = (int) Math.min(Math.min(cores, connectionJobs), Math.min(tableJobs, balancedJobs));
+            jobs = Math.max(1, jobs);
+            reason = jobs == cores ? "cores"
+                    : jobs == connectionJobs ? "connection headroom"
+                    : jobs == tableJobs ? "data-bearing tables"
+                    : jobs == balancedJobs ? "largest table share"
+                    : "minimum";
+        }
+        LOG.info("{} DB {} parallelism auto: jobs={} limited by {} (cores={}, freeConnections={}, dataTables={}, " +
+                 "dataSize={} MB, largestTableShare={})",
+                action, db, jobs, reason, cores, freeConnections, sizes.tables() == UNKNOWN ? "unknown" : sizes.tables(),
+                ThroughputUtil.toMb(sizes.total()), sizes.largest() <= 0 ? "unknown" : sizes.largest() * 100 / sizes.total() + "%");
+        return jobs;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import com.brinvex.dba.api.DbConf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static java.lang.String.format;
+
+/**
+ * Tells whether the server accepts connections, the same way pg_isready does:
+ * sends a protocol startup packet and classifies the first answer, without authenticating.
+ */
+public class PgReadinessProbe {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PgReadinessProbe.class);
+
+    public enum State {
+        /**
+         * The server answered the startup packet with an authentication request or with an error
+         * other than "cannot connect now" (e.g. unknown user), so it accepts connections.
+         */
+        ACCEPTING,
+        /**
+         * The server is starting up, shutting down or in crash recovery (SQLSTATE 57P03).
+         */
+        REJECTING,
+        /**
+         * Nothing listens on the port, or the connection was closed without an answer.
+         */
+        NO_RESPONSE
+    }
+
+    private static final int PROTOCOL_VERSION_3 = 3 << 16;
+
+    private static final String CANNOT_CONNECT_NOW = "57P03";
+
+    private static final long MIN_BACKOFF_MILLIS = 10;
+
+    private static final long MAX_BACKOFF_MILLIS = 250;
+
+    private static final int MAX_ATTEMPT_MILLIS = 2_000;
+
+    private final DbConf conf;
+
+    public PgReadinessProbe(DbConf conf) {
+        this.conf = conf;
+    }
+
+    /**
+     * Probes with exponential backoff until the server accepts connections
+     * and returns the time it took. Fails once {@link DbConf#getReadinessTimeout()} elapses.
+     */
+    public Duration awaitReady() throws IOException {
+        Duration timeout = conf.getReadinessTimeout();
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + timeout.toNanos();
+        long backoffMillis = MIN_BACKOFF_MILLIS;
+        int attempts = 0;
+        State state;
+        while (true) {
+            attempts++;
+            long remainingMillis = Math.max(1, (deadlineNanos - System.nanoTime()) / 1_000_000);
+            state = probe((int) Math.min(remainingMillis, MAX_ATTEMPT_MILLIS));
+            if (state == State.ACCEPTING) {
+                Duration timeToReady = Duration.ofNanos(System.nanoTime() - startNanos);
+                LOG.info("PG ready: {}:{}, timeToReady={}, attempts={}", conf.getHost(), conf.getPort(), timeToReady, attempts);
+                return timeToReady;
+            }
+            long sleepMillis = Math.min(backoffMillis, (deadlineNanos - System.nanoTime()) / 1_000_000);
+            if (sleepMillis <= 0) {
+                break;
+            }
+            LOG.debug("PG not ready yet: {}:{}, state={}, attempt={}", conf.getHost(), conf.getPort(), state, attempts);
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for PG readiness");
+            }
+            backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+        }
+        throw new IOException(format("PG not ready after %s: %s:%s, lastState=%s, attempts=%s",
+                timeout, conf.getHost(), conf.getPort(), state, attempts));
+    }
+
+    public State probe(int timeoutMillis) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(conf.getHost(), conf.getPort()), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.write(startupPacket(conf.getSuperUser()));
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            int type = in.read();
+            if (type == -1) {
+                return State.NO_RESPONSE;
+            }
+            if (type != 'E') {
+                // Authentication request or protocol negotiation - either way the server is up
+                return State.ACCEPTING;
+            }
+            int length = in.readInt();
+            byte[] body = new byte[length - 4];
+            in.readFully(body);
+            return CANNOT_CONNECT_NOW.equals(sqlState(body)) ? State.REJECTING : State.ACCEPTING;
+        } catch (EOFException e) {
+            return State.NO_RESPONSE;
+        } catch (IOException e) {
+            LOG.trace("PG readiness probe failed: {}:{} - {}", conf.getHost(), conf.getPort(), e.toString());
+            return State.NO_RESPONSE;
+        }
+    }
+
+    private static byte[] startupPacket(String user) throws IOException {
+        ByteArrayOutputStream params = new ByteArrayOutputStream();
+        for (String s : new String[]{"user", user, "database", "postgres"}) {
+            params.write(s.getBytes(StandardCharsets.UTF_8));
+            params.write(0);
+        }
+        params.write(0);
+
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(packet);
+        out.writeInt(8 + params.size());
+        out.writeInt(PROTOCOL_VERSION_3);
+        params.writeTo(out);
+        return packet.toByteArray();
+    }
+
+    /**
+     * ErrorResponse body is a sequence of (field type byte, null-terminated string), ended by a zero byte.
+     */
+    private static String sqlState(byte[] body) {
+        int i = 0;
+        while (i < body.length && body[i] != 0) {
+            byte fieldType = body[i++];
+            int start = i;
+            while (i < body.length && body[i] != 0) {
+                i++;
+            }
+            if (fieldType == 'C') {
+                return new String(body, start, i - start, StandardCharsets.UTF_8);
+            }
+            i++;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import com.brinvex.dba.internal.common.OsCmdResult;
+import com.brinvex.dba.internal.common.OsCmdUtil;
+import com.brinvex.dba.internal.common.ThroughputUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static java.lang.String.format;
+
+/**
+ * Splits the data section of DIRECTORY backups into units restored by separate pg_restore runs, the biggest first.
+ * pg_restore -j orders the data by the relpages estimates stored in the archive, which are zero for tables
+ * never vacuumed or analyzed, so a few giant tables scheduled late keep a single worker busy long after the others.
+ * Here the sizes come from the table stats recorded at backup time, falling back to the sizes of the data files.
+ * Every big table is a unit of its own, small entries are packed together to save pg_restore startups.
+ */
+public class PgRestorePlanner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PgRestorePlanner.class);
+
+    private static final long SINGLE_ENTRY_MIN_BYTES = 16L * 1024 * 1024;
+
+    private static final int MAX_BATCH_ENTRIES = 256;
+
+    private static final long MAX_BATCH_BYTES = 64L * 1024 * 1024;
+
+    public static final class Unit {
+        private final Path backupPath;
+        private final String label;
+        private final List<String> tocLines = new ArrayList<>();
+        private long bytes;
+
+        private Unit(Path backupPath, String label) {
+            this.backupPath = backupPath;
+            this.label = label;
+        }
+
+        public Path getBackupPath() {
+            return backupPath;
+        }
+
+        /**
+         * The qualified table name for a single entry, "N entries" for a packed unit.
+         */
+        public String getLabel() {
+            return label != null ? label : tocLines.size() + " entries";
+        }
+
+        public List<String> getTocLines() {
+            return tocLines;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    private final Path pgRestorePath;
+
+    private final Duration timeout;
+
+    public PgRestorePlanner(Path pgRestorePath, Duration timeout) {
+        this.pgRestorePath = pgRestorePath;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Plans the data section of the backup together with the data of the tables referenced from older backups
+     * (see {@link PgTableStats#referencedTablesBySource(Path)}). Returns the units, the biggest first.
+     */
+    public List<Unit> planData(Path backupPath, PgTableStats tableStats) throws IOException {
+        List<Unit> units = new ArrayList<>();
+        units.addAll(planBackup(backupPath, tableStats, null));
+        if (tableStats != null) {
+            for (Map.Entry<Path, List<PgTableStats.Table>> e : tableStats.referencedTablesBySource(backupPath).entrySet()) {
+                units.addAll(planBackup(e.getKey(), tableStats, e.getValue()));
+            }
+        }
+        units.sort(Comparator.comparingLong(Unit::getBytes).reversed());
+        long totalBytes = units.stream().mapToLong(Unit::getBytes).sum();
+        LOG.info("Restore data plan of {}: units={}, entries={}, size={} MB, biggest: {}",
+                backupPath, units.size(), units.stream().mapToInt(u -> u.getTocLines().size()).sum(), ThroughputUtil.toMb(totalBytes),
+                units.stream().limit(5).map(u -> u.getLabel() + " " + ThroughputUtil.toMb(u.getBytes()) + " MB").toList());
+        return units;
+    }
+
+    /**
+     * Writes the pg_restore --use-list file of the unit.
+     */
+    public Path writeList(Unit unit) throws IOException {
+        Path listPath = Files.createTempFile("brinvex_dba_", ".list");
+        Files.write(listPath, unit.getTocLines());
+        return listPath;
+    }
+
+    private List<Unit> planBackup(Path backupPath, PgTableStats tableStats, List<PgTableStats.Table> tables) throws IOException {
+        return planEntries(backupPath, listDataSection(backupPath), PgDumpToc.dataFileSizes(backupPath), tableStats, tables);
+    }
+
+    /**
+     * Packs the data section entries of a backup into units, in the order of the entries.
+     * The sizes come from the table stats (null if none) or the data file sizes keyed by dump id.
+     * With the given tables, only their TABLE DATA entries are planned, all of them must be present.
+     */
+    public static List<Unit> planEntries(
+            Path backupPath,
+            List<String> tocLines,
+            Map<String, Long> dataFileSizes,
+            PgTableStats tableStats,
+            List<PgTableStats.Table> tables
+    ) throws IOException {
+        Set<String> wantedEntries = tables == null ? null : tables.stream()
+                .map(t -> PgDumpToc.tableDataMarker(t.getSchema(), t.getName()))
+                .collect(Collectors.toSet());
+
+        List<Unit> units = new ArrayList<>();
+        Unit batch = null;
+        int found = 0;
+        for (String tocLine : tocLines) {
+            if (wantedEntries != null) {
+                if (wantedEntries.stream().noneMatch(tocLine::contains)) {
+                    continue;
+                }
+                found++;
+            }
+            PgTableStats.Table table = tableStats == null ? null : PgDumpToc.findTable(tableStats, tocLine);
+            long bytes = table != null ? table.getSize() : dataFileSizes.getOrDefault(PgDumpToc.dumpId(tocLine), 0L);
+            if (bytes >= SINGLE_ENTRY_MIN_BYTES) {
+                Unit unit = new Unit(backupPath, table != null ? table.getSchema() + "." + table.getName() : PgDumpToc.entryName(tocLine));
+                unit.tocLines.add(tocLine);
+                unit.bytes = bytes;
+                units.add(unit);
+                continue;
+            }
+            if (batch == null || batch.tocLines.size() >= MAX_BATCH_ENTRIES || batch.bytes + bytes > MAX_BATCH_BYTES) {
+                batch = new Unit(backupPath, null);
+                units.add(batch);
+            }
+            batch.tocLines.add(tocLine);
+            batch.bytes += bytes;
+        }
+        if (wantedEntries != null && found < wantedEntries.size()) {
+            throw new IOException(format("Referenced table data missing in %s, expected %s entries, found %s",
+                    backupPath, wantedEntries.size(), found));
+        }
+        return units;
+    }
+
+    private List<String> listDataSection(Path backupPath) throws IOException {
+        List<String> tocLines = new ArrayList<>();
+        OsCmdResult r = OsCmdUtil.execStreaming(format("%s -l --section=data %s", pgRestorePath, backupPath),
+                Collections.emptyList(), timeout,
+                s -> {
+                    if (PgDumpToc.isEntry(s)) {
+                        tocLines.add(s);
+                    }
+                },
+                s -> LOG.warn("pg_restore -l {}: {}", backupPath, s));
+        if (r.getExitCode() != 0 || !r.getErr().isBlank()) {
+            throw new IOException(format("Backup listing failed: %s, %s", backupPath, r));
+        }
+        return tocLines;
+    }
+}
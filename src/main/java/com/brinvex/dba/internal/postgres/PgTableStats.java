@@ -0,0 +1,341 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import com.brinvex.dba.api.DbConf;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+import static java.lang.String.format;
+
+/**
+ * Change counters of the ordinary tables of a database, stored as the table_stats.tsv file of a DIRECTORY backup.
+ * Each table also records the backup folder holding its data: "." for the backup itself,
+ * otherwise the path of an older backup the data is referenced from, relative to the parent folder of the backup,
+ * and when that data was dumped.
+ * The counters are comparable only within one statistics generation - the server start (a crash loses
+ * the statistics) and the last statistics reset of the database (pg_stat_reset and the single-table resets set it).
+ */
+public class PgTableStats {
+
+    public static final String FILE_NAME = "table_stats.tsv";
+
+    private static final String HEADER = "#schema\ttable\trelfilenode\tsize\tins\tupd\tdel\tcolumns\tdata\tdataTakenAt";
+
+    private static final String TAKEN_AT_PREFIX = "#takenAt=";
+
+    private static final String GENERATION_PREFIX = "generation=";
+
+    private static final String OWN_DATA = ".";
+
+    private static final String UNKNOWN = "-";
+
+    /**
+     * Names are hex-encoded - identifiers may contain any character, including the column and row separators.
+     */
+    private static final String STATS_SQL = """
+            SELECT encode(convert_to(n.nspname, 'UTF8'), 'hex'), encode(convert_to(c.relname, 'UTF8'), 'hex'),
+             c.relfilenode, pg_relation_size(c.oid), s.n_tup_ins, s.n_tup_upd, s.n_tup_del,
+             (SELECT md5(string_agg(a.attname || ':' || format_type(a.atttypid, a.atttypmod), ',' ORDER BY a.attnum))
+              FROM pg_attribute a WHERE a.attrelid = c.oid AND a.attnum > 0 AND NOT a.attisdropped)
+            FROM pg_stat_user_tables s
+            JOIN pg_class c ON c.oid = s.relid
+            JOIN pg_namespace n ON n.oid = c.relnamespace
+            WHERE c.relkind = 'r'""";
+
+    private static final String GENERATION_SQL = """
+            SELECT extract(epoch FROM pg_postmaster_start_time())::bigint || '/' || coalesce(extract(epoch FROM stats_reset)::bigint, 0)
+            FROM pg_stat_database WHERE datname = current_database()""";
+
+    public static final class Table {
+        private final String schema;
+        private final String name;
+        private final String counters;
+        private String dataSource = OWN_DATA;
+        private LocalDateTime dataTakenAt;
+
+        private Table(String schema, String name, String counters) {
+            this.schema = schema;
+            this.name = name;
+            this.counters = counters;
+        }
+
+        public String getSchema() {
+            return schema;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Size of the main fork when the stats were taken.
+         */
+        public long getSize() {
+            return Long.parseLong(counters.split("\t")[1]);
+        }
+
+        /**
+         * The pg_dump pattern matching exactly this table.
+         */
+        public String getPattern() {
+            return quote(schema) + "." + quote(name);
+        }
+
+        public boolean isDataReferenced() {
+            return !OWN_DATA.equals(dataSource);
+        }
+
+        /**
+         * "." for the own data, otherwise the referenced backup relative to the parent folder of the backup.
+         */
+        public String getDataSource() {
+            return dataSource;
+        }
+
+        /**
+         * When the data was dumped, null if unknown (stats written before this was recorded).
+         */
+        public LocalDateTime getDataTakenAt() {
+            return dataTakenAt;
+        }
+
+        private Path sourceBackup(Path backupPath) {
+            return isDataReferenced() ? backupPath.getParent().resolve(dataSource).normalize() : backupPath;
+        }
+
+        private static String quote(String identifier) {
+            return "\"" + identifier.replace("\"", "\"\"") + "\"";
+        }
+    }
+
+    private final Map<String, Table> tables;
+
+    private final LocalDateTime takenAt;
+
+    private final String generation;
+
+    private PgTableStats(Map<String, Table> tables, LocalDateTime takenAt, String generation) {
+        this.tables = tables;
+        this.takenAt = takenAt;
+        this.generation = generation;
+    }
+
+    /**
+     * The counters lag behind the commits by up to a minute, as backends flush their statistics asynchronously.
+     */
+    public static PgTableStats query(SqlExecutor sqlExecutor, DbConf conf, String db) throws IOException {
+        LocalDateTime takenAt = LocalDateTime.now();
+        SqlResult g = sqlExecutor.query(conf, db, conf.getSuperUser(), conf.getSuperPass(), GENERATION_SQL);
+        if (!g.getErr().isBlank() || g.getOut().isBlank()) {
+            throw new IOException(format("Statistics generation query failed: %s, %s", db, g));
+        }
+        SqlResult r = sqlExecutor.query(conf, db, conf.getSuperUser(), conf.getSuperPass(), STATS_SQL);
+        if (!r.getErr().isBlank()) {
+            throw new IOException(format("Table stats query failed: %s, %s", db, r));
+        }
+        Map<String, Table> tables = new LinkedHashMap<>();
+        for (String row : r.getOut().split("\n")) {
+            if (row.isEmpty()) {
+                continue;
+            }
+            String[] cols = row.split("\\|", -1);
+            if (cols.length != 8) {
+                throw new IOException(format("Unexpected table stats row: '%s', %s", row, db));
+            }
+            Table table = new Table(unhex(cols[0]), unhex(cols[1]), String.join("\t", cols[2], cols[3], cols[4], cols[5], cols[6], cols[7]));
+            table.dataTakenAt = takenAt;
+            tables.put(table.getPattern(), table);
+        }
+        return new PgTableStats(tables, takenAt, g.getOut().strip());
+    }
+
+    /**
+     * Null if the backup carries no table stats, e.g. it was taken before they were introduced.
+     */
+    public static PgTableStats read(Path backupPath) throws IOException {
+        Path statsPath = backupPath.resolve(FILE_NAME);
+        if (!Files.exists(statsPath)) {
+            return null;
+        }
+        Map<String, Table> tables = new LinkedHashMap<>();
+        LocalDateTime takenAt = null;
+        String generation = null;
+        for (String line : Files.readAllLines(statsPath)) {
+            if (line.startsWith(TAKEN_AT_PREFIX)) {
+                String[] props = line.substring(TAKEN_AT_PREFIX.length()).split("\t");
+                takenAt = LocalDateTime.parse(props[0]);
+                if (props.length > 1 && props[1].startsWith(GENERATION_PREFIX)) {
+                    generation = props[1].substring(GENERATION_PREFIX.length());
+                }
+                continue;
+            }
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            // Stats written before dataTakenAt was recorded have 9 columns
+            String[] cols = line.split("\t", -1);
+            if (cols.length != 9 && cols.length != 10) {
+                throw new IOException(format("Invalid table stats line: '%s' in %s", line, statsPath));
+            }
+            Table table = new Table(unescape(cols[0]), unescape(cols[1]),
+                    String.join("\t", cols[2], cols[3], cols[4], cols[5], cols[6], cols[7]));
+            table.dataSource = unescape(cols[8]);
+            table.dataTakenAt = cols.length == 10 && !UNKNOWN.equals(cols[9]) ? LocalDateTime.parse(cols[9]) : null;
+            tables.put(table.getPattern(), table);
+        }
+        return new PgTableStats(tables, takenAt, generation);
+    }
+
+    public void write(Path backupPath) throws IOException {
+        List<String> lines = new ArrayList<>(tables.size() + 2);
+        lines.add(TAKEN_AT_PREFIX + takenAt + "\t" + GENERATION_PREFIX + generation);
+        lines.add(HEADER);
+        for (Table t : tables.values()) {
+            lines.add(String.join("\t", escape(t.schema), escape(t.name), t.counters, escape(t.dataSource),
+                    t.dataTakenAt == null ? UNKNOWN : t.dataTakenAt.toString()));
+        }
+        Files.write(backupPath.resolve(FILE_NAME), lines);
+    }
+
+    public Collection<Table> getTables() {
+        return tables.values();
+    }
+
+    /**
+     * Null if the table is unknown.
+     */
+    public Table getTable(String schema, String name) {
+        return tables.get(Table.quote(schema) + "." + Table.quote(name));
+    }
+
+    /**
+     * Null if unknown (stats written before this was recorded).
+     */
+    public LocalDateTime getTakenAt() {
+        return takenAt;
+    }
+
+    /**
+     * Marks the (excludable) tables whose counters did not move since the previous backup as referenced
+     * from the backup actually holding their data and returns them, so that their data can be excluded from the new dump.
+     * A table whose relfilenode, size or columns changed (TRUNCATE, VACUUM FULL, ALTER TABLE) counts as changed too.
+     * Nothing is referenced if the previous stats are of another statistics generation. Data dumped before
+     * oldestDataTakenAt (null for no limit), or at an unknown time, is not referenced either.
+     */
+    public List<Table> referenceUnchanged(
+            PgTableStats previous,
+            Path previousBackupPath,
+            Path backupPath,
+            LocalDateTime oldestDataTakenAt,
+            Predicate<Table> excludable
+    ) {
+        List<Table> unchanged = new ArrayList<>();
+        if (generation == null || !generation.equals(previous.generation)) {
+            return unchanged;
+        }
+        for (Table t : tables.values()) {
+            Table prev = previous.tables.get(t.getPattern());
+            if (prev == null || !Objects.equals(prev.counters, t.counters) || !excludable.test(t)) {
+                continue;
+            }
+            if (oldestDataTakenAt != null && (prev.dataTakenAt == null || prev.dataTakenAt.isBefore(oldestDataTakenAt))) {
+                continue;
+            }
+            Path source = prev.sourceBackup(previousBackupPath);
+            t.dataSource = backupPath.getParent().relativize(source).toString().replace('\\', '/');
+            t.dataTakenAt = prev.dataTakenAt;
+            unchanged.add(t);
+        }
+        return unchanged;
+    }
+
+    /**
+     * The given tables whose counters differ in these (later) stats, or which are gone.
+     * Any table counts if the statistics generation changed.
+     */
+    public List<Table> changedSince(PgTableStats earlier, Collection<Table> tables) {
+        if (generation == null || !generation.equals(earlier.generation)) {
+            return List.copyOf(tables);
+        }
+        List<Table> changed = new ArrayList<>();
+        for (Table t : tables) {
+            Table now = this.tables.get(t.getPattern());
+            if (now == null || !Objects.equals(now.counters, t.counters)) {
+                changed.add(t);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Absolute paths of the backups holding the data of the referenced tables.
+     */
+    public Map<Path, List<Table>> referencedTablesBySource(Path backupPath) {
+        Map<Path, List<Table>> result = new LinkedHashMap<>();
+        for (Table t : tables.values()) {
+            if (t.isDataReferenced()) {
+                result.computeIfAbsent(t.sourceBackup(backupPath), k -> new ArrayList<>()).add(t);
+            }
+        }
+        return result;
+    }
+
+    static String unhex(String hex) {
+        return new String(HexFormat.of().parseHex(hex), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Backslash escapes of the tab, line break and backslash, as names may contain them.
+     */
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                sb.append(switch (next) {
+                    case 't' -> '\t';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> next;
+                });
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import com.brinvex.dba.api.DbConf;
+
+import java.nio.file.Path;
+
+import static com.brinvex.dba.internal.common.WindowsUtil.isWindowsOs;
+
+/**
+ * Paths of the PG server tools in {@link DbConf#getDbToolsPath()}, e.g. "pg_ctl" or "pg_ctl.exe" on Windows.
+ */
+public class PgToolPath {
+
+    public static Path of(DbConf conf, String tool) {
+        return of(conf, tool, isWindowsOs());
+    }
+
+    public static Path of(DbConf conf, String tool, boolean windowsOs) {
+        return conf.getDbToolsPath().resolve(windowsOs ? tool + ".exe" : tool);
+    }
+}
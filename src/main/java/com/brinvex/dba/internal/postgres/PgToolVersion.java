@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import com.brinvex.dba.internal.common.OsCmdResult;
+import com.brinvex.dba.internal.common.OsCmdUtil;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.lang.String.format;
+
+/**
+ * Major versions of PG client tools, e.g. 16 for "pg_dump (PostgreSQL) 16.2", cached per tool path.
+ */
+public class PgToolVersion {
+
+    private static final Pattern VERSION_PATTERN = Pattern.compile("\\(PostgreSQL\\) (\\d+)");
+
+    private static final Map<Path, Integer> MAJOR_VERSIONS = new ConcurrentHashMap<>();
+
+    public static int major(Path toolPath) throws IOException {
+        Integer major = MAJOR_VERSIONS.get(toolPath);
+        if (major == null) {
+            OsCmdResult r = OsCmdUtil.exec(format("%s --version", toolPath));
+            Matcher m = VERSION_PATTERN.matcher(r.getOut());
+            if (r.getExitCode() != 0 || !m.find()) {
+                throw new IOException(format("Tool version not available: %s, %s", toolPath, r));
+            }
+            major = Integer.parseInt(m.group(1));
+            MAJOR_VERSIONS.put(toolPath, major);
+        }
+        return major;
+    }
+}
@@ -15,12 +15,23 @@
  */
 package com.brinvex.dba.internal.postgres;
 
+import com.brinvex.dba.api.BackupCompression;
+import com.brinvex.dba.api.BackupPruneException;
+import com.brinvex.dba.api.BackupRetentionPolicy;
 import com.brinvex.dba.api.DbConf;
+import com.brinvex.dba.api.DbExecutionReport;
 import com.brinvex.dba.api.DbInstallConf;
 import com.brinvex.dba.api.DbManager;
+import com.brinvex.dba.api.DbStreamStats;
 import com.brinvex.dba.api.FdwConf;
+import com.brinvex.dba.internal.common.FileTreeUtil;
 import com.brinvex.dba.internal.common.OsCmdResult;
 import com.brinvex.dba.internal.common.OsCmdUtil;
+import com.brinvex.dba.internal.common.ParallelUtil;
+import com.brinvex.dba.internal.common.StepScheduler;
+import com.brinvex.dba.internal.common.StreamPipeUtil;
+import com.brinvex.dba.internal.common.TarUtil;
+import com.brinvex.dba.internal.common.ThroughputUtil;
 import com.brinvex.dba.api.VCRedistDetectUtil;
 import com.brinvex.dba.internal.common.WindowsUtil;
 import org.slf4j.Logger;
@@ -28,17 +39,35 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import static com.brinvex.dba.internal.common.WindowsUtil.isWindowsOs;
 import static java.lang.String.format;
 
 @SuppressWarnings({"SpellCheckingInspection", "ExtractMethodRecommender"})
@@ -46,76 +75,256 @@ public class PostgresDbManager implements DbManager {
 
     private static final Logger LOG = LoggerFactory.getLogger(PostgresDbManager.class);
 
-    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+    private static final int INCREMENTAL_BACKUP_MIN_VERSION = 17;
 
-    @Override
-    public void install(DbInstallConf conf) throws IOException {
-        LOG.info("install {}", conf);
-
-        var baseConf = conf.getBaseConf();
-        var winServiceName = conf.getWinServiceName();
-
-        initDbHomeFolder(baseConf.getDbHomePath());
-
-        extractDbSystem(baseConf, conf.getInstallerPath());
-
-        installVCRedist(conf);
-
-        initMainDatabase(baseConf, conf.getDbLocale());
-
-        registerDbWinService(baseConf, winServiceName);
-
-        startDbWinService(winServiceName);
+    /**
+     * Backends flush their table statistics within PGSTAT_MAX_INTERVAL (60s), plus a margin.
+     */
+    private static final Duration STATS_FLUSH_MAX_DELAY = Duration.ofSeconds(61);
 
-        allowClientAddresses(baseConf, conf.getAllowedClientAddresses());
+    /**
+     * Entries of the data backup parent folder: "db_data_20240131_235959" by backupAllDbData
+     * and "mydb_20240131_235959.backup" by backupAndDropDatabase.
+     */
+    private static final Pattern DB_DATA_BACKUP_NAME_PATTERN = Pattern.compile(".+_(\\d{8}_\\d{6})(\\.backup)?");
 
-        alterConnectionsSettings(baseConf, conf.getDbListenAddresses());
+    /**
+     * Lines of a notice as psql prints them, with its optional detail and hint.
+     */
+    private static final Pattern NOTICE_LINE_PATTERN = Pattern.compile("(NOTICE|DETAIL|HINT):.*");
 
-        restartDbSystem(conf);
+    private final PsqlSqlExecutor psqlSqlExecutor = new PsqlSqlExecutor();
 
-        alterSystemSettings(baseConf, conf.getSystemSettings());
+    private final JdbcSqlExecutor jdbcSqlExecutor = new JdbcSqlExecutor();
 
-        createAppDbUsers(baseConf, conf.getAppUsers());
-
-        createAppDatabases(baseConf, conf.getAppDatabases());
-
-        createdExtensions(baseConf, conf.getAppDatabases(), conf.getAppUsers(), conf.getExtensions());
+    @Override
+    public void install(DbInstallConf conf) throws IOException {
+        installWithReport(conf);
+    }
 
-        createFirewallRule(baseConf, conf.getFirewallRuleName());
+    /**
+     * Independent steps run concurrently: the firewall rule is created while the DB system is being set up,
+     * the pg_hba.conf and postgresql.conf edits run alongside the service registration,
+     * and system settings are altered alongside the app users/databases/extensions provisioning.
+     * The service start loads the edited configuration files, the system settings altered later are applied by a final
+     * reload; the server is restarted only if a changed parameter requires it.
+     * On Windows, initdb needs the VC++ runtime, so the cluster initialization waits for the VCRedist installation.
+     */
+    @Override
+    public DbExecutionReport installWithReport(DbInstallConf conf) throws IOException {
+        LOG.info("install {}", conf);
 
-        restartDbSystem(conf);
+        var baseConf = conf.getBaseConf();
+        var service = serviceController(conf);
+        var catalog = new AtomicReference<PgCatalogSnapshot>();
+
+        DbExecutionReport report = new StepScheduler("install")
+                .add("initDbHomeFolder", () -> initDbHomeFolder(baseConf.getDbHomePath()))
+                .add("extractDbSystem", () -> extractDbSystem(baseConf, conf.getInstallerPath()),
+                        "initDbHomeFolder")
+                .add("installVCRedist", () -> installVCRedist(conf),
+                        "extractDbSystem")
+                .add("initMainDatabase", () -> initMainDatabase(baseConf, conf.getDbLocale()),
+                        "installVCRedist")
+                .add("registerDbService", service::register,
+                        "initMainDatabase")
+                .add("allowClientAddresses", () -> allowClientAddresses(baseConf, conf.getAllowedClientAddresses()),
+                        "initMainDatabase")
+                .add("alterConnectionsSettings", () -> alterConnectionsSettings(baseConf, conf.getDbListenAddresses()),
+                        "initMainDatabase")
+                .add("startDbService", service::start,
+                        "registerDbService", "allowClientAddresses", "alterConnectionsSettings")
+                .add("alterSystemSettings", () -> alterSystemSettings(baseConf, conf.getSystemSettings()),
+                        "startDbService")
+                .add("loadCatalogSnapshot", () -> catalog.set(PgCatalogSnapshot.load(sqlExecutor(baseConf), baseConf)),
+                        "startDbService")
+                .add("createAppDbUsers", () -> createAppDbUsers(baseConf, conf.getAppUsers(), catalog.get()),
+                        "loadCatalogSnapshot")
+                .add("createAppDatabases", () -> createAppDatabases(baseConf, conf.getAppDatabases(), catalog.get(),
+                                conf.getProvisioningParallelism()),
+                        "createAppDbUsers")
+                .add("createExtensions", () -> createdExtensions(baseConf, conf.getAppDatabases(), conf.getAppUsers(),
+                                conf.getExtensions(), catalog.get(), conf.getProvisioningParallelism()),
+                        "createAppDatabases")
+                .add("createFirewallRule", () -> createFirewallRule(baseConf, conf.getFirewallRuleName()))
+                .add("finalReloadOrRestartDbSystem", () -> reloadOrRestartDbSystem(conf),
+                        "alterSystemSettings", "createExtensions")
+                .run();
 
         LOG.info("install successfull {}", conf);
+        return report;
     }
 
     @Override
     public void uninstall(DbInstallConf conf) throws IOException {
+        uninstallWithReport(conf);
+    }
+
+    /**
+     * The DB system is removed only after the data folder was moved aside,
+     * the firewall rule is removed independently.
+     */
+    @Override
+    public DbExecutionReport uninstallWithReport(DbInstallConf conf) throws IOException {
         LOG.info("uninstall {}", conf);
 
         var baseConf = conf.getBaseConf();
 
-        unregisterDbWinService(baseConf, conf.getWinServiceName());
-
-        backupAllDbData(baseConf);
-
-        uninstallDbSystem(baseConf);
+        sqlExecutor(baseConf).releaseAll(baseConf);
 
-        removeFirewallRule(conf.getFirewallRuleName());
+        DbExecutionReport report = new StepScheduler("uninstall")
+                .add("unregisterDbService", serviceController(conf)::unregister)
+                .add("backupAllDbData", () -> backupAllDbData(baseConf),
+                        "unregisterDbService")
+                .add("uninstallDbSystem", () -> uninstallDbSystem(baseConf),
+                        "backupAllDbData")
+                .add("removeFirewallRule", () -> removeFirewallRule(conf.getFirewallRuleName()))
+                .run();
 
         LOG.info("uninstall successfull {}", conf);
-
+        return report;
     }
 
     @Override
     public void backupDatabase(DbConf conf, String dbToBackup, Path backupPath) throws IOException {
+        backupDatabase(conf, dbToBackup, backupPath, null);
+    }
+
+    @Override
+    public void backupDatabase(DbConf conf, String dbToBackup, Path backupPath, Path previousBackupPath) throws IOException {
+        backupDatabase(conf, dbToBackup, backupPath, previousBackupPath, PgParallelismAdvisor.backupJobs(sqlExecutor(conf), conf, dbToBackup));
+    }
+
+    private void backupDatabase(DbConf conf, String dbToBackup, Path backupPath, Path previousBackupPath, int parallelism) throws IOException {
         Path pgDumpPath = conf.getDbToolsPath().resolve("pg_dump");
         String host = conf.getHost();
         int port = conf.getPort();
         String superUser = conf.getSuperUser();
         String superPass = conf.getSuperPass();
         DbConf.BackupFormat backupFormat = conf.getBackupFormat();
-        int parallelism = conf.getBackupRestoreParallelism();
-        backupDatabase(pgDumpPath, dbToBackup, backupPath, host, port, superUser, superPass, backupFormat, parallelism);
+        Duration timeout = conf.getBackupRestoreTimeout();
+        BackupCompression compression = conf.getBackupCompression();
+        int pgDumpMajor = PgToolVersion.major(pgDumpPath);
+        String compressionOption = PgCompressionSpec.dumpOption(compression, backupFormat, pgDumpMajor);
+        if (previousBackupPath != null && backupFormat != DbConf.BackupFormat.DIRECTORY) {
+            throw new IllegalArgumentException(format("Change-aware backups require the DIRECTORY format, backupFormat=%s", backupFormat));
+        }
+        backupPath = backupPath.toAbsolutePath();
+
+        long dbSize = databaseSize(conf, dbToBackup);
+        long startNanos = System.nanoTime();
+        PgTableStats tableStats = null;
+        List<PgTableStats.Table> referencedTables = List.of();
+        if (backupFormat == DbConf.BackupFormat.DIRECTORY) {
+            // Queried before the dump - a table changing meanwhile has moved counters for the next backup
+            tableStats = PgTableStats.query(sqlExecutor(conf), conf, dbToBackup);
+            if (previousBackupPath != null) {
+                previousBackupPath = previousBackupPath.toAbsolutePath();
+                PgTableStats previousStats = PgTableStats.read(previousBackupPath);
+                if (previousStats == null) {
+                    LOG.warn("Previous backup has no {}, dumping all tables: {}", PgTableStats.FILE_NAME, previousBackupPath);
+                } else {
+                    Duration maxDataAge = conf.getMaxReferencedDataAge();
+                    // Before pg_dump 17, exclusions are arguments, which must not contain whitespace,
+                    // nor quotes on Windows - its command line strips them and pg_dump then lowercases the pattern
+                    boolean windowsOs = isWindowsOs();
+                    referencedTables = tableStats.referenceUnchanged(previousStats, previousBackupPath, backupPath,
+                            maxDataAge == null ? null : tableStats.getTakenAt().minus(maxDataAge),
+                            t -> pgDumpMajor >= 17 || t.getPattern().chars()
+                                    .noneMatch(c -> Character.isWhitespace(c) || (windowsOs && c == '"')));
+                }
+            }
+        }
+        Path filterPath = null;
+        String dumpOptions = compressionOption;
+        if (!referencedTables.isEmpty()) {
+            if (pgDumpMajor >= 17) {
+                filterPath = Files.createTempFile("brinvex_dba_", ".filter");
+                List<String> filterLines = new ArrayList<>(referencedTables.size());
+                referencedTables.forEach(t -> filterLines.add("exclude table_data " + t.getPattern()));
+                Files.write(filterPath, filterLines);
+                dumpOptions += " --filter=" + filterPath;
+            } else {
+                StringJoiner excludeOptions = new StringJoiner(" ");
+                referencedTables.forEach(t -> excludeOptions.add("--exclude-table-data=" + t.getPattern()));
+                dumpOptions += " " + excludeOptions;
+            }
+        }
+        try {
+            backupDatabase(pgDumpPath, dbToBackup, backupPath, host, port, superUser, superPass, backupFormat,
+                    dumpOptions, parallelism, timeout);
+        } finally {
+            if (filterPath != null) {
+                Files.deleteIfExists(filterPath);
+            }
+        }
+        if (!referencedTables.isEmpty()) {
+            // A change committed before pg_dump's snapshot shows in the counters within the flush interval at the latest
+            long waitMillis = STATS_FLUSH_MAX_DELAY.toMillis() - Duration.ofNanos(System.nanoTime() - startNanos).toMillis();
+            if (waitMillis > 0) {
+                LOG.info("Backup DB {} - waiting {}ms for the table statistics flush to re-check the referenced tables", dbToBackup, waitMillis);
+                try {
+                    Thread.sleep(waitMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(format("Backup DB %s interrupted", dbToBackup));
+                }
+            }
+            List<PgTableStats.Table> changed = PgTableStats.query(sqlExecutor(conf), conf, dbToBackup)
+                    .changedSince(tableStats, referencedTables);
+            if (!changed.isEmpty()) {
+                LOG.warn("Backup DB {} - {} referenced tables changed during the dump, redoing the backup in full: {}",
+                        dbToBackup, changed.size(), changed.stream().limit(10).map(PgTableStats.Table::getPattern).toList());
+                FileTreeUtil.delete(backupPath, ioParallelism());
+                backupDatabase(conf, dbToBackup, backupPath, null, parallelism);
+                return;
+            }
+        }
+        if (tableStats != null) {
+            tableStats.write(backupPath);
+        }
+        if (backupFormat == DbConf.BackupFormat.DIRECTORY) {
+            // The files were just written, so hashing them mostly reads the page cache
+            new PgDumpVerifier(conf.getDbToolsPath().resolve("pg_restore"), timeout, ioParallelism()).writeChecksums(backupPath);
+        }
+        Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+        long backupSize = FileTreeUtil.sizeOf(backupPath);
+        LOG.info("Backup DB {} done: duration={}, dbSize={} MB, backupSize={} MB, ratio={}, throughput={} MB/s, compression={}",
+                dbToBackup, duration, ThroughputUtil.toMb(dbSize), ThroughputUtil.toMb(backupSize), ratio(dbSize, backupSize),
+                ThroughputUtil.mbPerSecond(dbSize, duration), compressionOption.isEmpty() ? "default" : compressionOption);
+        if (tableStats != null && previousBackupPath != null) {
+            LOG.info("Backup DB {} change-aware: tablesDumped={}, tablesReferenced={}, previousBackup={}",
+                    dbToBackup, tableStats.getTables().size() - referencedTables.size(), referencedTables.size(), previousBackupPath);
+        }
+    }
+
+    @Override
+    public DbStreamStats backupDatabase(DbConf conf, String dbToBackup, WritableByteChannel sink) throws IOException {
+        Path pgDumpPath = conf.getDbToolsPath().resolve("pg_dump");
+        DbConf.BackupFormat backupFormat = conf.getBackupFormat() == DbConf.BackupFormat.PLAIN
+                ? DbConf.BackupFormat.PLAIN : DbConf.BackupFormat.CUSTOM_ARCHIVE;
+        String compressionOption = PgCompressionSpec.dumpOption(conf.getBackupCompression(), backupFormat,
+                PgToolVersion.major(pgDumpPath));
+        LOG.info("Backup DB {} to stream, host={}, port={}, backupFormat={}", dbToBackup, conf.getHost(), conf.getPort(), backupFormat);
+
+        String cmd = format("%s %s %s -d postgresql://%s:%s@%s/%s --port %s --encoding UTF-8",
+                pgDumpPath, backupFormatOption(backupFormat), compressionOption,
+                conf.getSuperUser(), conf.getSuperPass(), conf.getHost(), dbToBackup, conf.getPort());
+        MessageDigest digest = sha256Digest();
+        AtomicLong bytes = new AtomicLong();
+        long startNanos = System.nanoTime();
+        OsCmdResult r = OsCmdUtil.execWithStdoutHandler(cmd, Collections.emptyList(), conf.getBackupRestoreTimeout(),
+                in -> bytes.set(StreamPipeUtil.pipe(in, sink, digest)),
+                s -> LOG.warn("pg_dump {}: {}", dbToBackup, s));
+        if (r.getExitCode() != 0 || !r.getErr().isBlank()) {
+            throw new IOException(format("DB backup failed: %s", r));
+        }
+        DbStreamStats stats = new DbStreamStats(bytes.get(), Duration.ofNanos(System.nanoTime() - startNanos),
+                HexFormat.of().formatHex(digest.digest()));
+        LOG.info("Backup DB {} streamed: size={} MB, duration={}, throughput={} MB/s, sha256={}",
+                dbToBackup, ThroughputUtil.toMb(stats.getBytes()), stats.getDuration(), ThroughputUtil.mbPerSecond(stats.getBytes(), stats.getDuration()),
+                stats.getSha256());
+        return stats;
     }
 
     @Override
@@ -133,21 +342,165 @@ public class PostgresDbManager implements DbManager {
         int port = conf.getPort();
         String superUser = conf.getSuperUser();
         String superPass = conf.getSuperPass();
-        int parallelism = conf.getBackupRestoreParallelism();
+        Duration timeout = conf.getBackupRestoreTimeout();
+
+        PgCompressionSpec.checkRestoreSupport(conf.getBackupCompression(), PgToolVersion.major(pgRestorePath));
+
+        backupPath = backupPath.toAbsolutePath();
+        int parallelism = PgParallelismAdvisor.restoreJobs(sqlExecutor(conf), conf, db, backupPath);
+        PgTableStats tableStats = Files.isDirectory(backupPath) ? PgTableStats.read(backupPath) : null;
+        Map<Path, List<PgTableStats.Table>> referencedTables = tableStats == null
+                ? Map.of() : tableStats.referencedTablesBySource(backupPath);
+
+        boolean bulkLoad = conf.isBulkLoadRestore();
+        PgBulkLoadTuning bulkLoadTuning = bulkLoad ? new PgBulkLoadTuning(sqlExecutor(conf), conf, db) : null;
 
         alterUserToSuper(conf, owner);
-        restoreDatabase(pgRestorePath, backupPath, host, port, superUser, superPass, db, owner, parallelism);
-        alterSuperuserToNoSuper(conf, owner);
+        long startNanos = System.nanoTime();
+        try {
+            try {
+                if (bulkLoadTuning != null) {
+                    bulkLoadTuning.apply();
+                }
+                // Planning needs a DIRECTORY backup - its data files can be restored one by one
+                boolean planned = Files.isDirectory(backupPath) && (parallelism > 1 || !referencedTables.isEmpty());
+                if (!planned && !bulkLoad) {
+                    restoreDatabase(pgRestorePath, backupPath, "", host, port, superUser, superPass, db, owner, parallelism, timeout);
+                } else {
+                    // The referenced data must be loaded before the post-data section creates the indexes and constraints.
+                    // Pre-data is a sequence of DDL, post-data is dominated by index builds, which parallelize regardless of the table sizes
+                    int postDataParallelism = PgParallelismAdvisor.postDataRestoreJobs(sqlExecutor(conf), conf, db);
+                    LOG.info("Restore DB {} section-wise, bulkLoad={}, planned={}, dataJobs={}, postDataJobs={}, referenced backups: {}",
+                            db, bulkLoad, planned, parallelism, postDataParallelism, referencedTables.keySet());
+                    restoreDatabase(pgRestorePath, backupPath, "--section=pre-data", host, port, superUser, superPass, db, owner, 1, timeout);
+                    if (bulkLoadTuning != null) {
+                        bulkLoadTuning.disableAutovacuum();
+                    }
+                    if (planned) {
+                        PgRestorePlanner planner = new PgRestorePlanner(pgRestorePath, timeout);
+                        List<PgRestorePlanner.Unit> units = planner.planData(backupPath, tableStats);
+                        ParallelUtil.forEach("restoreData", units, parallelism, unit -> {
+                            Path listPath = planner.writeList(unit);
+                            long unitStartNanos = System.nanoTime();
+                            try {
+                                restoreDatabase(pgRestorePath, unit.getBackupPath(), "--use-list=" + listPath,
+                                        host, port, superUser, superPass, db, owner, 1, timeout);
+                            } finally {
+                                Files.deleteIfExists(listPath);
+                            }
+                            Duration unitDuration = Duration.ofNanos(System.nanoTime() - unitStartNanos);
+                            LOG.info("Restore DB {} data {} done: size={} MB, duration={}, throughput={} MB/s",
+                                    db, unit.getLabel(), ThroughputUtil.toMb(unit.getBytes()), unitDuration, ThroughputUtil.mbPerSecond(unit.getBytes(), unitDuration));
+                        });
+                    } else {
+                        restoreDatabase(pgRestorePath, backupPath, "--section=data", host, port, superUser, superPass, db, owner, parallelism, timeout);
+                    }
+                    restoreDatabase(pgRestorePath, backupPath, "--section=post-data",
+                            host, port, superUser, superPass, db, owner, postDataParallelism, timeout);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (bulkLoadTuning != null) {
+                    try {
+                        bulkLoadTuning.revert();
+                    } catch (IOException | RuntimeException revertFailure) {
+                        e.addSuppressed(revertFailure);
+                    }
+                }
+                throw e;
+            }
+            if (bulkLoadTuning != null) {
+                bulkLoadTuning.revert();
+            }
+        } finally {
+            alterSuperuserToNoSuper(conf, owner);
+        }
+        Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+
+        long backupSize = FileTreeUtil.sizeOf(backupPath);
+        long dbSize = databaseSize(conf, db);
+        LOG.info("Restore DB {} done: duration={}, backupSize={} MB, dbSize={} MB, throughput={} MB/s",
+                db, duration, ThroughputUtil.toMb(backupSize), ThroughputUtil.toMb(dbSize), ThroughputUtil.mbPerSecond(dbSize, duration));
+    }
+
+    @Override
+    public DbStreamStats restoreDatabase(DbConf conf, ReadableByteChannel source, String db, String owner) throws IOException {
+        var dbExists = databaseExists(conf, db);
+        LOG.info("restore {} from stream, dbExists={}, {}", db, dbExists, conf);
+        if (dbExists) {
+            throw new IllegalArgumentException(format("Database already exists: %s", db));
+        }
+
+        boolean plain = conf.getBackupFormat() == DbConf.BackupFormat.PLAIN;
+        String cmd;
+        Set<String> envs;
+        if (plain) {
+            PgCompressionSpec.checkFormatSupport(conf.getBackupCompression(), DbConf.BackupFormat.PLAIN);
+            // PGOPTIONS because a "SET ROLE" command would be split on whitespace
+            cmd = format("%s -X -q -v ON_ERROR_STOP=1 -U %s -h %s -p %s -d %s -f -",
+                    conf.getDbToolsPath().resolve("psql"), conf.getSuperUser(), conf.getHost(), conf.getPort(), db);
+            envs = Set.of("PGPASSWORD=" + conf.getSuperPass(), "PGOPTIONS=-c role=" + owner);
+        } else {
+            Path pgRestorePath = conf.getDbToolsPath().resolve("pg_restore");
+            PgCompressionSpec.checkRestoreSupport(conf.getBackupCompression(), PgToolVersion.major(pgRestorePath));
+            cmd = format("%s -U %s -h %s -p %s -d %s --no-owner --role=%s",
+                    pgRestorePath, conf.getSuperUser(), conf.getHost(), conf.getPort(), db, owner);
+            envs = Set.of("PGPASSWORD=" + conf.getSuperPass());
+        }
+        String tool = plain ? "psql" : "pg_restore";
+
+        createDatabase(conf, db, owner);
+        alterUserToSuper(conf, owner);
+        MessageDigest digest = sha256Digest();
+        AtomicLong bytes = new AtomicLong();
+        long startNanos = System.nanoTime();
+        OsCmdResult r;
+        try {
+            r = OsCmdUtil.execWithStdinHandler(cmd, envs, conf.getBackupRestoreTimeout(),
+                    out -> bytes.set(StreamPipeUtil.pipe(source, out, digest)),
+                    s -> LOG.debug("{} {}: {}", tool, db, s),
+                    s -> LOG.warn("{} {}: {}", tool, db, s));
+        } finally {
+            alterSuperuserToNoSuper(conf, owner);
+        }
+        // A plain script prints query results (e.g. set_config) and notices - with ON_ERROR_STOP, psql's exit code tells
+        boolean failed = plain
+                ? r.getExitCode() != 0
+                : r.getExitCode() != 0 || !r.getOut().isBlank() || !r.getErr().isBlank();
+        if (failed) {
+            throw new IOException(format("DB restore failed: %s", r));
+        }
+        DbStreamStats stats = new DbStreamStats(bytes.get(), Duration.ofNanos(System.nanoTime() - startNanos),
+                HexFormat.of().formatHex(digest.digest()));
+        LOG.info("Restore DB {} from stream done: size={} MB, duration={}, throughput={} MB/s, sha256={}",
+                db, ThroughputUtil.toMb(stats.getBytes()), stats.getDuration(), ThroughputUtil.mbPerSecond(stats.getBytes(), stats.getDuration()),
+                stats.getSha256());
+        return stats;
+    }
+
+    @Override
+    public void backupDbClusterLogical(DbConf conf, Path backupPath) throws IOException {
+        LOG.info("backupDbClusterLogical {}, {}", backupPath, conf);
+        new PgClusterBackup(sqlExecutor(conf), conf)
+                .backup(backupPath, (db, dbBackupPath, jobs) -> backupDatabase(conf, db, dbBackupPath, null, jobs));
     }
 
     @Override
     public void backupAndDropDatabase(DbConf conf, String db) throws IOException {
         Path dbDataBackupParentFolder = prepareDbDataBackupParentFolder(conf);
-        String ts = LocalDateTime.now().format(TIMESTAMP_FORMAT);
-        String oldDbDataBackupFolderName = format("%s_%s.backup", db, ts);
+        LocalDateTime createdAt = LocalDateTime.now().withNano(0);
+        String oldDbDataBackupFolderName = format("%s_%s.backup", db, createdAt.format(PgBackupCatalog.TIMESTAMP_FORMAT));
         Path oldDbDataBackupFolderPath = dbDataBackupParentFolder.resolve(oldDbDataBackupFolderName);
         LOG.info("restore {} - creating backup of old DB {}", db, oldDbDataBackupFolderPath);
+        String pgVersion = serverVersion(conf);
+        long startNanos = System.nanoTime();
         backupDatabase(conf, db, oldDbDataBackupFolderPath);
+        Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+        boolean verified = dumpReadable(conf, oldDbDataBackupFolderPath);
+        PgBackupCatalog.of(dbDataBackupParentFolder).register(oldDbDataBackupFolderPath, PgBackupCatalog.Kind.DUMP, db,
+                conf.getBackupFormat().name(), createdAt, duration, pgVersion, verified);
+        if (!verified) {
+            throw new IOException(format("Backup of DB %s failed verification, the DB is kept: %s", db, oldDbDataBackupFolderPath));
+        }
         LOG.info("restore {} - dropping old DB after successfull backup {}", db, oldDbDataBackupFolderPath);
         riskyDropDatabase(conf, db);
     }
@@ -155,30 +508,27 @@ public class PostgresDbManager implements DbManager {
     @Override
     public void riskyDropDatabase(DbConf conf, String db) throws IOException {
         LOG.info("riskyDropDatabase {}, {}", db, conf);
-        executePsqlSuperCommand(conf, format("DROP DATABASE %s WITH (FORCE); ", db));
+        sqlExecutor(conf).release(conf, db);
+        executeSuperSql(conf, format("DROP DATABASE %s WITH (FORCE); ", db));
     }
 
     @Override
     public void setupFdw(DbConf dbConf, FdwConf fdwConf) throws IOException {
         LOG.info("setupFdw {}, {}", dbConf, fdwConf);
 
-        OsCmdResult osCmdResult;
+        SqlResult sqlResult;
 
-        osCmdResult = executePsqlSuperCommand(dbConf, "create extension if not exists postgres_fdw;", fdwConf.getSourceDb());
-        if (!osCmdResult.getOut().equals("CREATE EXTENSION")
-            || (!osCmdResult.getErr().isEmpty()
-                && !osCmdResult.getErr().startsWith("NOTICE")
-                && !osCmdResult.getErr().endsWith("already exists, skipping")
-            )) {
-            throw new IllegalStateException("create extension fwd failed: " + osCmdResult);
+        sqlResult = executeSuperSql(dbConf, "create extension if not exists postgres_fdw;", fdwConf.getSourceDb());
+        if (!isNoticesOnly(sqlResult.getErr())) {
+            throw new IllegalStateException("create extension fwd failed: " + sqlResult);
         }
-        osCmdResult = executePsqlSuperCommand(dbConf, "grant usage on foreign data wrapper postgres_fdw to %s;"
+        sqlResult = executeSuperSql(dbConf, "grant usage on foreign data wrapper postgres_fdw to %s;"
                 .formatted(fdwConf.getSourceDbUser()), fdwConf.getSourceDb());
-        if (!osCmdResult.getOut().equals("GRANT") || !osCmdResult.getErr().isEmpty()) {
-            throw new IllegalStateException("grant on fwd failed: " + osCmdResult);
+        if (!sqlResult.getErr().isEmpty()) {
+            throw new IllegalStateException("grant on fwd failed: " + sqlResult);
         }
 
-        osCmdResult = executePsqlAppUserCommand(dbConf, (
+        sqlResult = executeAppUserSql(dbConf, (
                         "create server %s" +
                         "  foreign data wrapper postgres_fdw" +
                         "  options (host '%s', dbname '%s', port '%s');"
@@ -191,11 +541,11 @@ public class PostgresDbManager implements DbManager {
                 fdwConf.getSourceDbPass(),
                 fdwConf.getSourceDb()
         );
-        if (!osCmdResult.getOut().equals("CREATE SERVER") || !osCmdResult.getErr().isEmpty()) {
-            throw new IllegalStateException("create fwd server failed: " + osCmdResult);
+        if (!sqlResult.getErr().isEmpty()) {
+            throw new IllegalStateException("create fwd server failed: " + sqlResult);
         }
 
-        osCmdResult = executePsqlAppUserCommand(dbConf,
+        sqlResult = executeAppUserSql(dbConf,
                 "create user mapping for %s server %s options (user '%s', password '%s');".formatted(
                         fdwConf.getSourceDbUser(),
                         fdwConf.getFdwSchema(),
@@ -205,21 +555,21 @@ public class PostgresDbManager implements DbManager {
                 fdwConf.getSourceDbPass(),
                 fdwConf.getSourceDb()
         );
-        if (!osCmdResult.getOut().equals("CREATE USER MAPPING") || !osCmdResult.getErr().isEmpty()) {
-            throw new IllegalStateException("create user mapping failed: " + osCmdResult);
+        if (!sqlResult.getErr().isEmpty()) {
+            throw new IllegalStateException("create user mapping failed: " + sqlResult);
         }
 
-        osCmdResult = executePsqlAppUserCommand(dbConf, "create schema if not exists %s;".formatted(
+        sqlResult = executeAppUserSql(dbConf, "create schema if not exists %s;".formatted(
                         fdwConf.getFdwSchema()),
                 fdwConf.getSourceDbUser(),
                 fdwConf.getSourceDbPass(),
                 fdwConf.getSourceDb()
         );
-        if (!osCmdResult.getOut().equals("CREATE SCHEMA") || !osCmdResult.getErr().isEmpty()) {
-            throw new IllegalStateException("create schema failed: " + osCmdResult);
+        if (!sqlResult.getErr().isEmpty()) {
+            throw new IllegalStateException("create schema failed: " + sqlResult);
         }
 
-        osCmdResult = executePsqlAppUserCommand(dbConf, (
+        sqlResult = executeAppUserSql(dbConf, (
                         "import foreign schema %s" +
                         "  from server %s" +
                         "  into %s;").formatted(
@@ -231,8 +581,8 @@ public class PostgresDbManager implements DbManager {
                 fdwConf.getSourceDbPass(),
                 fdwConf.getSourceDb()
         );
-        if (!osCmdResult.getOut().equals("IMPORT FOREIGN SCHEMA") || !osCmdResult.getErr().isEmpty()) {
-            throw new IllegalStateException("import foreign schema failed: " + osCmdResult);
+        if (!sqlResult.getErr().isEmpty()) {
+            throw new IllegalStateException("import foreign schema failed: " + sqlResult);
         }
 
 
@@ -248,9 +598,9 @@ public class PostgresDbManager implements DbManager {
         String sourceDbUser = fdwConf.getSourceDbUser();
         String sourceDbPass = fdwConf.getSourceDbPass();
 
-        OsCmdResult r;
+        SqlResult r;
 
-        r = executePsqlAppUserQueryCommand(dbConf,
+        r = queryAppUserSql(dbConf,
                 "SELECT DISTINCT dep_ns.nspname || '.' || dep_obj.relname || ' (kind=' || dep_obj.relkind::text || ') depends on ' || src.relname" +
                 " FROM pg_depend d" +
                 " JOIN pg_rewrite rw ON d.objid = rw.oid" +
@@ -267,7 +617,7 @@ public class PostgresDbManager implements DbManager {
             throw new IllegalStateException("refreshFdw aborted - dependencies found on fdw schema '" + fdwSchema + "': " + r.getOut());
         }
 
-        r = executePsqlAppUserQueryCommand(dbConf,
+        r = queryAppUserSql(dbConf,
                 "SELECT string_agg(relname, ',' ORDER BY relname)" +
                 " FROM pg_class c" +
                 " JOIN pg_namespace n ON n.oid = c.relnamespace" +
@@ -284,147 +634,658 @@ public class PostgresDbManager implements DbManager {
             }
         }
 
+        List<String> psqlCmds = new ArrayList<>();
         for (String tableName : foreignTables) {
             LOG.info("refreshFdw - dropping foreign table {}.{}", fdwSchema, tableName);
-            r = executePsqlAppUserCommand(dbConf,
-                    format("DROP FOREIGN TABLE %s.%s;", fdwSchema, tableName),
-                    sourceDbUser, sourceDbPass, sourceDb);
-            if (!"DROP FOREIGN TABLE".equals(r.getOut()) || !r.getErr().isBlank()) {
-                throw new IllegalStateException("refreshFdw drop foreign table failed: " + tableName + ", " + r);
+            psqlCmds.add(format("DROP FOREIGN TABLE %s.%s;", fdwSchema, tableName));
+        }
+        psqlCmds.add(format("IMPORT FOREIGN SCHEMA %s FROM SERVER %s INTO %s;", foreignSchema, fdwSchema, fdwSchema));
+        List<SqlResult> results = executeAppUserSqlBatch(dbConf, psqlCmds, sourceDbUser, sourceDbPass, sourceDb);
+
+        for (int i = 0; i < foreignTables.size(); i++) {
+            r = results.get(i);
+            if (!r.getErr().isBlank()) {
+                throw new IllegalStateException("refreshFdw drop foreign table failed: " + foreignTables.get(i) + ", " + r);
             }
         }
 
-        r = executePsqlAppUserCommand(dbConf,
-                format("IMPORT FOREIGN SCHEMA %s FROM SERVER %s INTO %s;", foreignSchema, fdwSchema, fdwSchema),
-                sourceDbUser, sourceDbPass, sourceDb);
-        if (!"IMPORT FOREIGN SCHEMA".equals(r.getOut()) || !r.getErr().isBlank()) {
+        r = results.getLast();
+        if (!r.getErr().isBlank()) {
             throw new IllegalStateException("refreshFdw import foreign schema failed: " + r);
         }
 
         LOG.info("refreshFdw successful {}, {}", dbConf, fdwConf);
     }
 
+    @Override
+    public void backupDbClusterPhysical(DbConf conf, Path backupPath) throws IOException {
+        backupPath = backupPath.toAbsolutePath();
+        if (Files.exists(backupPath)) {
+            try (var files = Files.list(backupPath)) {
+                if (files.findAny().isPresent()) {
+                    throw new IllegalArgumentException(format("Backup folder is not empty: %s", backupPath));
+                }
+            }
+        }
+        Path pgBaseBackupPath = conf.getDbToolsPath().resolve("pg_basebackup");
+        String compressionOption = PgCompressionSpec.baseBackupOption(
+                conf.getBackupCompression(), PgToolVersion.major(pgBaseBackupPath));
+        LOG.info("Physical backup of PG cluster, host={}, port={}, backupPath={}, compression={}",
+                conf.getHost(), conf.getPort(), backupPath, compressionOption.isEmpty() ? "none" : compressionOption);
+        baseBackup(conf, backupPath, "-F t " + compressionOption);
+    }
+
+    @Override
+    public void restoreDbClusterPhysical(DbInstallConf conf, Path backupPath) throws IOException {
+        var baseConf = conf.getBaseConf();
+        Path backupFolder = backupPath.toAbsolutePath();
+        Path manifestPath = backupFolder.resolve("backup_manifest");
+        Path baseArchive = findTarArchive(backupFolder, "base");
+        if (!Files.exists(manifestPath) || baseArchive == null) {
+            throw new IllegalArgumentException(format("Not a physical backup (backup_manifest and base.tar expected): %s", backupFolder));
+        }
+        LOG.info("Physical restore of PG cluster from {}, {}", backupFolder, conf);
+        long startNanos = System.nanoTime();
+
+        ServiceController service = serviceController(conf);
+        Path movedDataPath = stopAndMoveDataFolderAside(conf, service);
+
+        Path dataPath = baseConf.getDbDataPath().toAbsolutePath();
+        int parallelism = ioParallelism();
+        List<Map.Entry<Path, Path>> archives = new ArrayList<>();
+        archives.add(Map.entry(baseArchive, dataPath));
+        Path walArchive = findTarArchive(backupFolder, "pg_wal");
+        if (walArchive != null) {
+            archives.add(Map.entry(walArchive, dataPath.resolve("pg_wal")));
+        }
+        ParallelUtil.forEach("extractBaseBackup", archives, parallelism, e -> extractTarArchive(e.getKey(), e.getValue()));
+
+        // Tablespaces come as <oid>.tar, their locations are listed in the tablespace_map of the base archive
+        Path tablespaceMapPath = dataPath.resolve("tablespace_map");
+        if (Files.exists(tablespaceMapPath)) {
+            List<Map.Entry<Path, Path>> tablespaceArchives = new ArrayList<>();
+            for (String line : Files.readAllLines(tablespaceMapPath)) {
+                int sp = line.indexOf(' ');
+                if (sp > 0) {
+                    Path tablespaceArchive = findTarArchive(backupFolder, line.substring(0, sp));
+                    if (tablespaceArchive == null) {
+                        throw new IOException(format("Tablespace archive missing: %s in %s", line, backupFolder));
+                    }
+                    tablespaceArchives.add(Map.entry(tablespaceArchive, Path.of(line.substring(sp + 1))));
+                }
+            }
+            // The extraction overwrites files in place and keeps the ones missing in the backup
+            for (Map.Entry<Path, Path> e : tablespaceArchives) {
+                moveTablespaceAside(e.getValue(), movedDataPath);
+            }
+            ParallelUtil.forEach("extractTablespaces", tablespaceArchives, parallelism,
+                    e -> extractTarArchive(e.getKey(), e.getValue()));
+        }
+
+        verifyRestoredDataFolder(baseConf, manifestPath, dataPath);
+        service.start();
+        LOG.info("Physical restore done: duration={}, dataPath={}", Duration.ofNanos(System.nanoTime() - startNanos), dataPath);
+    }
+
+    @Override
+    public Path backupDbClusterIncremental(DbConf conf, Path chainPath) throws IOException {
+        Path pgBaseBackupPath = conf.getDbToolsPath().resolve("pg_basebackup");
+        checkIncrementalBackupSupport(conf, pgBaseBackupPath);
+        enableWalSummarization(conf);
+
+        PgBackupChain chain = PgBackupChain.load(chainPath);
+        Path previousBackup = chain.latestBackup();
+        int incrementals = chain.incrementalsSinceFull();
+        boolean full = previousBackup == null || incrementals >= conf.getMaxIncrementalBackups();
+        LOG.info("{} backup of PG cluster into chain {}, incrementalsSinceFull={}",
+                full ? "Full" : "Incremental", chain.getChainPath(), incrementals);
+
+        // pg_combinebackup reads the plain format only
+        Path backupFolder = chain.newBackupFolder(full);
+        if (!full) {
+            try {
+                baseBackup(conf, backupFolder, format("-F p --incremental=%s", previousBackup.resolve("backup_manifest")));
+            } catch (IOException e) {
+                // E.g. WAL summaries since the previous backup were removed or summarization was off meanwhile
+                LOG.warn("Incremental backup failed, taking a full backup instead: {}", e.getMessage());
+                FileTreeUtil.delete(backupFolder, ioParallelism());
+                full = true;
+                backupFolder = chain.newBackupFolder(true);
+            }
+        }
+        if (full) {
+            baseBackup(conf, backupFolder, "-F p");
+        }
+        chain.append(backupFolder, full);
+        return backupFolder;
+    }
+
+    @Override
+    public void restoreDbClusterIncremental(DbInstallConf conf, Path chainPath) throws IOException {
+        var baseConf = conf.getBaseConf();
+        List<Path> backups = PgBackupChain.load(chainPath).currentChain();
+        if (backups.isEmpty()) {
+            throw new IllegalArgumentException(format("No full backup in the chain: %s", chainPath));
+        }
+        Path pgCombineBackupPath = baseConf.getDbToolsPath().resolve("pg_combinebackup");
+        int major = PgToolVersion.major(pgCombineBackupPath);
+        if (major < INCREMENTAL_BACKUP_MIN_VERSION) {
+            throw new IllegalStateException(format("Incremental restore requires pg_combinebackup %s+, installed: %s",
+                    INCREMENTAL_BACKUP_MIN_VERSION, major));
+        }
+        LOG.info("Incremental restore of PG cluster from {} backups: {}, {}", backups.size(), backups, conf);
+        long startNanos = System.nanoTime();
+
+        ServiceController service = serviceController(conf);
+        stopAndMoveDataFolderAside(conf, service);
+
+        Path dataPath = baseConf.getDbDataPath().toAbsolutePath();
+        StringJoiner backupArgs = new StringJoiner(" ");
+        backups.forEach(b -> backupArgs.add(b.toString()));
+        OsCmdResult r = OsCmdUtil.execStreaming(format("%s -o %s %s", pgCombineBackupPath, dataPath, backupArgs),
+                Collections.emptyList(), baseConf.getBackupRestoreTimeout(),
+                s -> LOG.info("{}", s),
+                s -> LOG.warn("{}", s));
+        if (r.getExitCode() != 0) {
+            throw new IOException(format("Backup chain combination failed: %s", r));
+        }
+
+        verifyRestoredDataFolder(baseConf, dataPath.resolve("backup_manifest"), dataPath);
+        service.start();
+        LOG.info("Incremental restore done: duration={}, dataPath={}", Duration.ofNanos(System.nanoTime() - startNanos), dataPath);
+    }
+
     @Override
     public void restartDbSystem(DbInstallConf conf) throws IOException {
-        String winServiceName = conf.getWinServiceName();
-        WindowsUtil.restartWinService(winServiceName);
+        sqlExecutor(conf.getBaseConf()).releaseAll(conf.getBaseConf());
+        serviceController(conf).restart();
+    }
+
+    @Override
+    public List<String> reloadOrRestartDbSystem(DbInstallConf conf) throws IOException {
+        var baseConf = conf.getBaseConf();
+        List<String> pendingRestart = new PgConfigReloader(sqlExecutor(baseConf), baseConf).reloadAndGetPendingRestart();
+        if (pendingRestart.isEmpty()) {
+            LOG.info("PG configuration reloaded, restart avoided");
+        } else {
+            LOG.info("PG restart required by parameters: {}", pendingRestart);
+            restartDbSystem(conf);
+        }
+        return pendingRestart;
     }
 
     @Override
     public void restartDbSystemIfRunning(DbInstallConf conf) throws IOException {
-        String winServiceName = conf.getWinServiceName();
-        if (WindowsUtil.winServiceIsRunning(winServiceName)) {
-            WindowsUtil.restartWinService(winServiceName);
+        ServiceController service = serviceController(conf);
+        if (service.isRunning()) {
+            sqlExecutor(conf.getBaseConf()).releaseAll(conf.getBaseConf());
+            service.restart();
         }
     }
 
+    @Override
+    public void promoteDbSystem(DbInstallConf conf) throws IOException {
+        sqlExecutor(conf.getBaseConf()).releaseAll(conf.getBaseConf());
+        serviceController(conf).promote();
+    }
+
+    @Override
+    public Duration awaitDbSystemReady(DbConf conf) throws IOException {
+        return new PgReadinessProbe(conf).awaitReady();
+    }
+
     @Override
     public void backupAllDbData(DbConf conf) throws IOException {
+        moveDataFolderAside(conf);
+    }
+
+    /**
+     * Returns the data folder backup, null if there was no data folder.
+     */
+    private Path moveDataFolderAside(DbConf conf) throws IOException {
         var dbDataPath = conf.getDbDataPath();
         var pgDataBackupParentPath = prepareDbDataBackupParentFolder(conf);
         if (!dbDataPath.toFile().exists()) {
             LOG.info("No PG data folder to backup: {}", dbDataPath);
+            return null;
         } else {
             var pgDataFolderName = dbDataPath.getFileName().toString();
-            var backupFolderName = pgDataFolderName + "_" + LocalDateTime.now().format(TIMESTAMP_FORMAT);
+            var createdAt = LocalDateTime.now().withNano(0);
+            var backupFolderName = pgDataFolderName + "_" + createdAt.format(PgBackupCatalog.TIMESTAMP_FORMAT);
             var BackupFolderPath = pgDataBackupParentPath.resolve(backupFolderName);
             LOG.info("Moving PG data folder to backup: {} -> {}", dbDataPath, BackupFolderPath);
-            Files.move(dbDataPath, BackupFolderPath);
+            long startNanos = System.nanoTime();
+            FileTreeUtil.move(dbDataPath, BackupFolderPath, ioParallelism());
+            Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
             LOG.info("PG Data backup successfull {}", BackupFolderPath);
+            // A cross-volume move is verified file by file, a data folder missing its control file is no cluster though
+            Path pgVersionPath = BackupFolderPath.resolve("PG_VERSION");
+            boolean complete = Files.isRegularFile(pgVersionPath) && Files.isRegularFile(BackupFolderPath.resolve("global/pg_control"));
+            PgBackupCatalog.of(pgDataBackupParentPath).register(BackupFolderPath, PgBackupCatalog.Kind.DATA_FOLDER, null,
+                    "DATA_FOLDER", createdAt, duration, complete ? Files.readString(pgVersionPath).strip() : null, complete);
+            return BackupFolderPath;
+        }
+    }
+
+    @Override
+    public List<Path> pruneDbDataBackups(DbConf conf, Duration retention) throws IOException {
+        return pruneDbDataBackups(conf, new BackupRetentionPolicy().setMaxAge(retention).setMinKeptVerified(0));
+    }
+
+    @Override
+    public List<Path> pruneDbDataBackups(DbConf conf, BackupRetentionPolicy policy) throws IOException {
+        Path backupParentPath = prepareDbDataBackupParentFolder(conf);
+        PgBackupCatalog catalog = PgBackupCatalog.of(backupParentPath);
+        LocalDateTime now = LocalDateTime.now();
+        List<Path> expired = new ArrayList<>(catalog.expired(policy, now));
+        // Backups taken before the catalog existed are known by the timestamp in their name only
+        if (policy.getMaxAge() != null) {
+            Set<Path> catalogued = catalog.cataloguedBackups();
+            LocalDateTime threshold = now.minus(policy.getMaxAge());
+            try (var entries = Files.list(backupParentPath)) {
+                for (Path entry : (Iterable<Path>) entries.sorted()::iterator) {
+                    Matcher m = DB_DATA_BACKUP_NAME_PATTERN.matcher(entry.getFileName().toString());
+                    if (m.matches() && !catalogued.contains(entry.toAbsolutePath())
+                        && LocalDateTime.parse(m.group(1), PgBackupCatalog.TIMESTAMP_FORMAT).isBefore(threshold)) {
+                        expired.add(entry);
+                    }
+                }
+            }
+        }
+        LOG.info("Pruning PG data backups by {} in {}: {}", policy, backupParentPath, expired);
+        List<Path> pruned = new ArrayList<>(expired.size());
+        List<Path> failed = new ArrayList<>();
+        List<IOException> failures = new ArrayList<>();
+        for (Path backup : expired) {
+            try {
+                FileTreeUtil.delete(backup, ioParallelism());
+                pruned.add(backup);
+            } catch (IOException e) {
+                failed.add(backup);
+                failures.add(e);
+            }
+        }
+        catalog.remove(pruned);
+        if (!failed.isEmpty()) {
+            BackupPruneException e = new BackupPruneException(pruned, failed);
+            failures.forEach(e::addSuppressed);
+            throw e;
         }
+        return pruned;
+    }
+
+    @Override
+    public void verifyDatabaseBackup(DbConf conf, Path backupPath) throws IOException {
+        if (!Files.isDirectory(backupPath)) {
+            throw new IllegalArgumentException(format("Only DIRECTORY backups carry checksums: %s", backupPath));
+        }
+        new PgDumpVerifier(conf.getDbToolsPath().resolve("pg_restore"), conf.getBackupRestoreTimeout(), ioParallelism())
+                .verify(backupPath.toAbsolutePath());
+    }
+
+    @Override
+    public String storeDatabaseBackup(DbConf conf, Path backupPath, Path storePath) throws IOException {
+        if (!Files.isDirectory(backupPath)) {
+            throw new IllegalArgumentException(format("Only DIRECTORY backups can be stored: %s", backupPath));
+        }
+        return new PgBackupStore(storePath, ioParallelism()).store(backupPath);
+    }
+
+    @Override
+    public Path materializeDatabaseBackup(DbConf conf, Path storePath, String backupName, Path targetPath) throws IOException {
+        return new PgBackupStore(storePath, ioParallelism()).materialize(backupName, targetPath);
+    }
+
+    @Override
+    public List<String> getStoredDatabaseBackups(DbConf conf, Path storePath) throws IOException {
+        return new PgBackupStore(storePath, ioParallelism()).backupNames();
+    }
+
+    @Override
+    public long removeStoredDatabaseBackups(DbConf conf, Path storePath, List<String> backupNames) throws IOException {
+        return new PgBackupStore(storePath, ioParallelism()).remove(backupNames);
+    }
+
+    @Override
+    public Path findLatestVerifiedDbBackup(DbConf conf, String db) throws IOException {
+        return PgBackupCatalog.of(prepareDbDataBackupParentFolder(conf)).latestVerified(PgBackupCatalog.Kind.DUMP, db);
     }
 
     @Override
     public void createAppDbUsers(DbConf conf, Map<String, String> appUsers) throws IOException {
+        createAppDbUsers(conf, appUsers, PgCatalogSnapshot.load(sqlExecutor(conf), conf));
+    }
+
+    private void createAppDbUsers(DbConf conf, Map<String, String> appUsers, PgCatalogSnapshot catalog) throws IOException {
         if (appUsers.isEmpty()) {
             LOG.info("No PG app users to create");
         } else {
+            List<String> appUserNames = new ArrayList<>();
+            List<String> psqlCmds = new ArrayList<>();
             for (var e : appUsers.entrySet()) {
                 String appUserName = e.getKey();
                 String appUserPwd = e.getValue();
 
-                OsCmdResult pgUsersCheckResult = executePsqlSuperCommand(conf, "\\du");
-                if (pgUsersCheckResult.getOut().contains(appUserName)) {
+                if (catalog.roleExists(appUserName)) {
                     LOG.info("PG App user already exists: {}", appUserName);
                 } else {
                     LOG.info("Creating PG App user: {}", appUserName);
-                    String psqlCmd = format("CREATE USER %s WITH PASSWORD '%s'", appUserName, appUserPwd);
-                    OsCmdResult r = executePsqlSuperCommand(conf, psqlCmd);
-
-                    String expectedOut = "CREATE ROLE";
-                    boolean outIsOk = expectedOut.equals(r.getOut());
-                    boolean errIsOk = r.getErr().isBlank();
-                    if (!outIsOk || !errIsOk) {
-                        throw new IllegalStateException(format("PG command failed: %s, %s", psqlCmd, r));
-                    }
+                    appUserNames.add(appUserName);
+                    psqlCmds.add(format("CREATE USER %s WITH PASSWORD '%s'", appUserName, appUserPwd));
                 }
             }
+
+            List<SqlResult> results = executeSuperSqlBatch(conf, psqlCmds);
+            for (int i = 0; i < psqlCmds.size(); i++) {
+                SqlResult r = results.get(i);
+                if (!r.getErr().isBlank()) {
+                    throw new IllegalStateException(format("PG command failed: %s, %s", hidePassword(psqlCmds.get(i)), r));
+                }
+                catalog.roleCreated(appUserNames.get(i));
+            }
         }
     }
 
     @Override
     public void createAppDatabases(DbConf conf, Map<String, String> appDbs) throws IOException {
+        createAppDatabases(conf, appDbs, PgCatalogSnapshot.load(sqlExecutor(conf), conf), 1);
+    }
+
+    private void createAppDatabases(
+            DbConf conf,
+            Map<String, String> appDbs,
+            PgCatalogSnapshot catalog,
+            int parallelism
+    ) throws IOException {
         if (appDbs.isEmpty()) {
             LOG.info("No PG app databases to create");
         } else {
-            for (var e : appDbs.entrySet()) {
+            ParallelUtil.forEach("createAppDatabase", List.copyOf(appDbs.entrySet()), parallelism, e -> {
                 String appDbName = e.getKey();
                 String appDbOwner = e.getValue();
 
-                boolean dbExists = databaseExists(conf, appDbName);
-                if (dbExists) {
+                if (catalog.databaseExists(appDbName)) {
                     LOG.info("PG App DB already exists: {}", appDbName);
                 } else {
                     LOG.info("Creating PG App DB {} with owner {}", appDbName, appDbOwner);
                     createDatabase(conf, appDbName, appDbOwner);
+                    catalog.databaseCreated(appDbName);
                 }
-            }
+            });
         }
     }
 
     @Override
     public boolean databaseExists(DbConf conf, String db) throws IOException {
-        var psqlPath = conf.getDbToolsPath().resolve("psql");
-        var host = conf.getHost();
-        var port = conf.getPort();
-        var user = conf.getSuperUser();
-        var pass = conf.getSuperPass();
-        return databaseExists(psqlPath, host, port, db, user, pass);
+        SqlResult r = querySuperSql(conf, format("SELECT 1 FROM pg_database WHERE datname='%s'", db), "postgres");
+        if (!r.getErr().isBlank()) {
+            throw new IOException(format("Database existence check failed: %s, %s", db, r));
+        }
+        return "1".equals(r.getOut());
     }
 
-    private boolean databaseExists(
-            Path psqlPath, String host, int port, String db, String user, String pwd
-    ) throws IOException {
-        String cmd = format("%s -U %s -h %s -p %s -XtA -c \"SELECT 1 FROM pg_database WHERE datname='%s'\"", psqlPath, user, host, port, db);
-        Set<String> envs = Set.of("PGPASSWORD=" + pwd);
-        OsCmdResult r = OsCmdUtil.exec(cmd, envs);
-        return "1".equals(r.getOut());
+    private long databaseSize(DbConf conf, String db) throws IOException {
+        SqlResult r = querySuperSql(conf, format("SELECT pg_database_size('%s')", db), "postgres");
+        if (!r.getErr().isBlank() || r.getOut().isBlank()) {
+            throw new IOException(format("Database size query failed: %s, %s", db, r));
+        }
+        return Long.parseLong(r.getOut().strip());
+    }
+
+    /**
+     * Runs pg_basebackup with streamed WAL and a fast checkpoint into the given folder and logs the throughput.
+     */
+    private void baseBackup(DbConf conf, Path backupPath, String formatOptions) throws IOException {
+        Path pgBaseBackupPath = conf.getDbToolsPath().resolve("pg_basebackup");
+        long clusterSize = clusterSize(conf);
+        String cmd = format("%s -h %s -p %s -U %s -D %s %s -X stream -c fast -l brinvex_dba_%s --no-password -v",
+                pgBaseBackupPath, conf.getHost(), conf.getPort(), conf.getSuperUser(), backupPath, formatOptions,
+                LocalDateTime.now().format(PgBackupCatalog.TIMESTAMP_FORMAT));
+        Set<String> envs = Set.of("PGPASSWORD=" + conf.getSuperPass());
+        long startNanos = System.nanoTime();
+        // pg_basebackup reports progress on stderr (lines prefixed by "pg_basebackup:"), so only the exit code tells a failure
+        OsCmdResult r = OsCmdUtil.execStreaming(cmd, envs, conf.getBackupRestoreTimeout(),
+                s -> LOG.info("{}", s),
+                s -> LOG.info("{}", s));
+        if (r.getExitCode() != 0) {
+            throw new IOException(format("Physical backup failed: %s", r));
+        }
+        if (!Files.exists(backupPath.resolve("backup_manifest"))) {
+            throw new IOException(format("Physical backup has no backup_manifest: %s", backupPath));
+        }
+        Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+        long backupSize = FileTreeUtil.sizeOf(backupPath);
+        LOG.info("Physical backup done: {}, duration={}, clusterSize={} MB, backupSize={} MB, ratio={}, throughput={} MB/s",
+                backupPath, duration, ThroughputUtil.toMb(clusterSize), ThroughputUtil.toMb(backupSize), ratio(clusterSize, backupSize),
+                ThroughputUtil.mbPerSecond(clusterSize, duration));
+    }
+
+    /**
+     * Returns the data folder backup, null if there was no data folder.
+     */
+    private Path stopAndMoveDataFolderAside(DbInstallConf conf, ServiceController service) throws IOException {
+        var baseConf = conf.getBaseConf();
+        sqlExecutor(baseConf).releaseAll(baseConf);
+        if (service.isRunning()) {
+            service.stop();
+        }
+        return moveDataFolderAside(baseConf);
+    }
+
+    /**
+     * Moves a non-empty tablespace folder to "&lt;location&gt;_&lt;timestamp&gt;" next to it and repoints the tablespace links
+     * of the data folder backup there, so that the backup keeps its own tablespaces.
+     * Windows junctions are not recognized as links, they have to be repointed manually.
+     */
+    private void moveTablespaceAside(Path location, Path movedDataPath) throws IOException {
+        if (!Files.isDirectory(location)) {
+            return;
+        }
+        try (var files = Files.list(location)) {
+            if (files.findAny().isEmpty()) {
+                return;
+            }
+        }
+        String createdAt = LocalDateTime.now().withNano(0).format(PgBackupCatalog.TIMESTAMP_FORMAT);
+        Path movedLocation = location.resolveSibling(location.getFileName() + "_" + createdAt);
+        LOG.info("Moving tablespace folder to backup: {} -> {}", location, movedLocation);
+        FileTreeUtil.move(location, movedLocation, ioParallelism());
+
+        Path tablespaceLinksPath = movedDataPath == null ? null : movedDataPath.resolve("pg_tblspc");
+        if (tablespaceLinksPath == null || !Files.isDirectory(tablespaceLinksPath)) {
+            return;
+        }
+        try (var links = Files.list(tablespaceLinksPath)) {
+            for (Path link : (Iterable<Path>) links::iterator) {
+                if (Files.isSymbolicLink(link) && Files.readSymbolicLink(link).equals(location)) {
+                    Files.delete(link);
+                    Files.createSymbolicLink(link, movedLocation);
+                    LOG.info("Tablespace link of the data folder backup repointed: {} -> {}", link, movedLocation);
+                } else if (!Files.isSymbolicLink(link)) {
+                    LOG.warn("Tablespace link of the data folder backup not repointed, check it manually: {}", link);
+                }
+            }
+        }
+    }
+
+    private void verifyRestoredDataFolder(DbConf conf, Path manifestPath, Path dataPath) throws IOException {
+        if (!isWindowsOs()) {
+            Files.setPosixFilePermissions(dataPath, PosixFilePermissions.fromString("rwx------"));
+        }
+        Path pgVerifyBackupPath = conf.getDbToolsPath().resolve("pg_verifybackup");
+        OsCmdResult r = OsCmdUtil.execStreaming(format("%s -m %s %s", pgVerifyBackupPath, manifestPath, dataPath),
+                Collections.emptyList(), conf.getBackupRestoreTimeout(),
+                s -> LOG.info("pg_verifybackup: {}", s),
+                s -> LOG.warn("pg_verifybackup: {}", s));
+        if (r.getExitCode() != 0) {
+            throw new IOException(format("Restored data folder failed verification: %s, %s", dataPath, r));
+        }
+    }
+
+    private String serverVersion(DbConf conf) throws IOException {
+        SqlResult r = querySuperSql(conf, "SHOW server_version", "postgres");
+        if (!r.getErr().isBlank() || r.getOut().isBlank()) {
+            throw new IOException(format("Server version query failed: %s", r));
+        }
+        // e.g. "17.2 (Debian 17.2-1.pgdg120+1)"
+        return r.getOut().strip().split(" ")[0];
+    }
+
+    /**
+     * A DIRECTORY backup is verified against its checksums and TOC, another archive is readable if pg_restore lists its TOC,
+     * a plain script if it ends by pg_dump's completion comment.
+     */
+    private boolean dumpReadable(DbConf conf, Path backupPath) throws IOException {
+        if (conf.getBackupFormat() == DbConf.BackupFormat.DIRECTORY) {
+            try {
+                verifyDatabaseBackup(conf, backupPath);
+                return true;
+            } catch (IOException e) {
+                LOG.warn("Backup not verified: {}", backupPath, e);
+                return false;
+            }
+        }
+        if (conf.getBackupFormat() == DbConf.BackupFormat.PLAIN) {
+            long size = Files.size(backupPath);
+            try (FileChannel ch = FileChannel.open(backupPath, StandardOpenOption.READ)) {
+                ByteBuffer tail = ByteBuffer.allocate((int) Math.min(size, 256));
+                ch.read(tail, size - tail.capacity());
+                if (new String(tail.array(), StandardCharsets.UTF_8).contains("PostgreSQL database dump complete")) {
+                    return true;
+                }
+            }
+            LOG.warn("Backup not verified, no dump completion comment at the end (compressed?): {}", backupPath);
+            return false;
+        }
+        Path pgRestorePath = conf.getDbToolsPath().resolve("pg_restore");
+        OsCmdResult r = OsCmdUtil.execStreaming(format("%s -l %s", pgRestorePath, backupPath),
+                Collections.emptyList(), conf.getBackupRestoreTimeout(),
+                s -> {
+                },
+                s -> LOG.warn("pg_restore -l {}: {}", backupPath, s));
+        if (r.getExitCode() != 0 || !r.getErr().isBlank()) {
+            LOG.warn("Backup not verified, listing failed: {}, {}", backupPath, r);
+            return false;
+        }
+        return true;
+    }
+
+    private void checkIncrementalBackupSupport(DbConf conf, Path pgBaseBackupPath) throws IOException {
+        int toolMajor = PgToolVersion.major(pgBaseBackupPath);
+        SqlResult r = querySuperSql(conf, "SHOW server_version_num", "postgres");
+        if (!r.getErr().isBlank() || r.getOut().isBlank()) {
+            throw new IOException(format("Server version query failed: %s", r));
+        }
+        int serverMajor = Integer.parseInt(r.getOut().strip()) / 10000;
+        if (serverMajor < INCREMENTAL_BACKUP_MIN_VERSION || toolMajor < INCREMENTAL_BACKUP_MIN_VERSION) {
+            throw new IllegalStateException(format("Incremental backups require PG %s+, server: %s, pg_basebackup: %s",
+                    INCREMENTAL_BACKUP_MIN_VERSION, serverMajor, toolMajor));
+        }
+    }
+
+    /**
+     * Incremental backups need WAL summaries covering everything since the previous backup started.
+     * summarize_wal is reloadable, so enabling it never restarts the server.
+     */
+    private void enableWalSummarization(DbConf conf) throws IOException {
+        SqlResult r = querySuperSql(conf, "SHOW summarize_wal", "postgres");
+        if (!r.getErr().isBlank() || r.getOut().isBlank()) {
+            throw new IOException(format("summarize_wal query failed: %s", r));
+        }
+        if ("on".equals(r.getOut().strip())) {
+            return;
+        }
+        LOG.info("Enabling WAL summarization");
+        SqlResult alter = executeSuperSql(conf, "ALTER SYSTEM SET summarize_wal = on");
+        if (!alter.getErr().isBlank()) {
+            throw new IOException(format("Enabling summarize_wal failed: %s", alter));
+        }
+        new PgConfigReloader(sqlExecutor(conf), conf).reloadAndGetPendingRestart();
+    }
+
+    /**
+     * Extraction and copying are largely I/O-bound, so files overlap even on a single core.
+     */
+    private static int ioParallelism() {
+        return Math.max(2, Runtime.getRuntime().availableProcessors());
+    }
+
+    private long clusterSize(DbConf conf) throws IOException {
+        SqlResult r = querySuperSql(conf, "SELECT sum(pg_database_size(datname)) FROM pg_database", "postgres");
+        if (!r.getErr().isBlank() || r.getOut().isBlank()) {
+            throw new IOException(format("Cluster size query failed: %s", r));
+        }
+        return Long.parseLong(r.getOut().strip());
+    }
+
+    /**
+     * Finds NAME.tar with any compression suffix (.gz, .lz4, .zst).
+     */
+    private static Path findTarArchive(Path folder, String name) throws IOException {
+        try (var files = Files.list(folder)) {
+            return files
+                    .filter(f -> f.getFileName().toString().startsWith(name + ".tar"))
+                    .findFirst()
+                    .orElse(null);
+        }
+    }
+
+    private static void extractTarArchive(Path archive, Path targetDir) throws IOException {
+        LOG.info("Extracting {} -> {}", archive, targetDir);
+        long startNanos = System.nanoTime();
+        if (TarUtil.isExtractable(archive)) {
+            TarUtil.extract(archive, targetDir);
+        } else {
+            // lz4/zstd are not available in the JDK - tar (GNU or bsdtar) picks the decompressor by itself
+            Files.createDirectories(targetDir);
+            OsCmdResult r = OsCmdUtil.exec(format("tar -xf %s -C %s", archive, targetDir));
+            if (r.getExitCode() != 0) {
+                throw new IOException(format("Archive extraction failed: %s, %s", archive, r));
+            }
+        }
+        LOG.info("Extracted {} in {}", archive.getFileName(), Duration.ofNanos(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * Whether the err of a statement is blank or holds notices only - an ERROR line anywhere fails the statement.
+     */
+    private static boolean isNoticesOnly(String err) {
+        return err.lines().allMatch(line -> line.isBlank() || NOTICE_LINE_PATTERN.matcher(line).matches());
+    }
+
+    private static String ratio(long rawBytes, long storedBytes) {
+        return storedBytes == 0 ? "n/a" : format("%.2f", (double) rawBytes / storedBytes);
     }
 
     private void restoreDatabase(
             Path pgRestorePath,
             Path dbBackupPath,
+            String restoreOptions,
             String host,
             int port,
             String user,
             String pwd,
             String newDbName,
             String newOwner,
-            int parallelism
+            int parallelism,
+            Duration timeout
     ) throws IOException {
         dbBackupPath = dbBackupPath.toAbsolutePath();
-        LOG.info("Restore DB {} from backup {}, host={}, port={}, newOwner={}", newDbName, dbBackupPath, host, port, newOwner);
+        LOG.info("Restore DB {} from backup {} {}, host={}, port={}, newOwner={}",
+                newDbName, dbBackupPath, restoreOptions, host, port, newOwner);
         String paralelismOption;
         if (parallelism != 1) {
             paralelismOption = "-j " + parallelism;
         } else {
             paralelismOption = "";
         }
-        String cmd = format("%s %s -U %s -h %s -p %s -d %s --no-owner --role=%s %s",
-                pgRestorePath, paralelismOption, user, host, port, newDbName, newOwner, dbBackupPath);
+        String cmd = format("%s %s %s -U %s -h %s -p %s -d %s --no-owner --role=%s %s",
+                pgRestorePath, paralelismOption, restoreOptions, user, host, port, newDbName, newOwner, dbBackupPath);
         Set<String> envs = Set.of("PGPASSWORD=" + pwd);
-        OsCmdResult r = OsCmdUtil.exec(cmd, envs);
-        if (!r.getOut().isBlank() || !r.getErr().isBlank()) {
+        OsCmdResult r = OsCmdUtil.execStreaming(cmd, envs, timeout,
+                s -> LOG.info("pg_restore {}: {}", newDbName, s),
+                s -> LOG.warn("pg_restore {}: {}", newDbName, s));
+        if (r.getExitCode() != 0 || !r.getOut().isBlank() || !r.getErr().isBlank()) {
             throw new IOException(format("DB restore failed: %s", r));
         }
     }
@@ -438,56 +1299,67 @@ public class PostgresDbManager implements DbManager {
             String user,
             String pwd,
             DbConf.BackupFormat backupFormat,
-            int parallelism
+            String dumpOptions,
+            int parallelism,
+            Duration timeout
     ) throws IOException {
         backupPath = backupPath.toAbsolutePath();
         LOG.info("Backup DB {}, host={}, port={}, backupPath={}", dbName, host, port, backupPath);
 
         String parallelismOption;
         if (parallelism != 1) {
-            if (backupFormat == DbConf.BackupFormat.DIRECTORY) {
-                parallelismOption = "-j " + parallelism;
-            } else {
-                throw new IllegalArgumentException(String.format("Parallel dumps are only supported for the DIRECTORY archive format, " +
-                                                                 "parallelism=%d, backupFormat=%s", parallelism, backupFormat));
-            }
+            parallelismOption = "-j " + parallelism;
         } else {
             parallelismOption = "";
         }
 
-        String backupFormatOption = switch (backupFormat) {
+        String backupFormatOption = backupFormatOption(backupFormat);
+        String cmd = format("%s %s %s %s -d postgresql://%s:%s@%s/%s --port %s --encoding UTF-8 --file %s",
+                pgDumpPath, backupFormatOption, dumpOptions, parallelismOption, user, pwd, host, dbName, port, backupPath);
+        OsCmdResult r = OsCmdUtil.execStreaming(cmd, Collections.emptyList(), timeout,
+                s -> LOG.info("pg_dump {}: {}", dbName, s),
+                s -> LOG.warn("pg_dump {}: {}", dbName, s));
+        if (r.getExitCode() != 0 || !r.getOut().isBlank() || !r.getErr().isBlank()) {
+            throw new IOException(format("DB backup failed: %s", r));
+        }
+    }
+
+    private static String backupFormatOption(DbConf.BackupFormat backupFormat) {
+        return switch (backupFormat) {
             case PLAIN -> "";
             case CUSTOM_ARCHIVE -> "-F c";
             case DIRECTORY -> "-F d";
         };
-        String cmd = format("%s %s %s -d postgresql://%s:%s@%s/%s --port %s --encoding UTF-8 --file %s",
-                pgDumpPath, backupFormatOption, parallelismOption, user, pwd, host, dbName, port, backupPath);
-        OsCmdResult r = OsCmdUtil.exec(cmd);
-        if (!r.getOut().isBlank() || !r.getErr().isBlank()) {
-            throw new IOException(format("DB backup failed: %s", r));
+    }
+
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
     }
 
     private void createDatabase(DbConf conf, String db, String owner) throws IOException {
         LOG.info("createDatabase - {}, owner={}, {}", db, owner, conf);
-        OsCmdResult r = executePsqlSuperCommand(conf, format("CREATE DATABASE %s WITH OWNER='%s'", db, owner));
-        if (!"CREATE DATABASE".equals(r.getOut()) || !r.getErr().isBlank()) {
+        SqlResult r = executeSuperSql(conf, format("CREATE DATABASE %s WITH OWNER='%s'", db, owner));
+        if (!r.getErr().isBlank()) {
             throw new IOException(format("Database creation failed: %s, %s, %s", db, owner, r));
         }
     }
 
     private void alterUserToSuper(DbConf conf, String user) throws IOException {
         LOG.info("alterUserToSuper - {}, user={}", user, conf);
-        OsCmdResult r = executePsqlSuperCommand(conf, format("ALTER USER %s WITH SUPERUSER;", user));
-        if (!"ALTER ROLE".equals(r.getOut()) || !r.getErr().isBlank()) {
+        SqlResult r = executeSuperSql(conf, format("ALTER USER %s WITH SUPERUSER;", user));
+        if (!r.getErr().isBlank()) {
             throw new IOException(format("alterUserToSuper failed: %s, %s", user, r));
         }
     }
 
     private void alterSuperuserToNoSuper(DbConf conf, String user) throws IOException {
         LOG.info("alterSuperuserToNoSuper - {}, user={}", user, conf);
-        OsCmdResult r = executePsqlSuperCommand(conf, format("ALTER USER %s WITH NOSUPERUSER;", user));
-        if (!"ALTER ROLE".equals(r.getOut()) || !r.getErr().isBlank()) {
+        SqlResult r = executeSuperSql(conf, format("ALTER USER %s WITH NOSUPERUSER;", user));
+        if (!r.getErr().isBlank()) {
             throw new IOException(format("alterSuperuserToNoSuper failed: %s, %s", user, r));
         }
     }
@@ -496,32 +1368,64 @@ public class PostgresDbManager implements DbManager {
             DbConf conf,
             Map<String, String> appDatabases,
             Map<String, String> appUsers,
-            Set<String> extensions
+            Set<String> extensions,
+            PgCatalogSnapshot catalog,
+            int parallelism
     ) throws IOException {
         if (extensions.isEmpty()) {
             LOG.info("No PG extensions to create");
         } else {
+            // Databases of one owner are processed together, so only one task ever toggles that owner's superuser flag
+            Map<String, List<String>> appDbsByOwner = new LinkedHashMap<>();
             for (Map.Entry<String, String> e : appDatabases.entrySet()) {
-                String appDb = e.getKey();
-                String appUser = e.getValue();
-                String appPwd = appUsers.get(appDb);
-
-                alterUserToSuper(conf, appUser);
-                createExtensions(conf, extensions, appDb, appUser, appPwd);
-                alterSuperuserToNoSuper(conf, appUser);
+                appDbsByOwner.computeIfAbsent(e.getValue(), k -> new ArrayList<>()).add(e.getKey());
             }
+            ParallelUtil.forEach("createExtensions", List.copyOf(appDbsByOwner.entrySet()), parallelism, e -> {
+                String appUser = e.getKey();
+                String appPwd = appUsers.get(appUser);
+                for (String appDb : e.getValue()) {
+                    Set<String> missingExtensions = new LinkedHashSet<>();
+                    for (String extension : extensions) {
+                        if (catalog.extensionExists(appDb, extension)) {
+                            LOG.debug("PG app-extension in DB {} already exists: {}", appDb, extension);
+                        } else {
+                            missingExtensions.add(extension);
+                        }
+                    }
+                    if (missingExtensions.isEmpty()) {
+                        LOG.info("All PG extensions already exist in DB {}: {}", appDb, extensions);
+                        continue;
+                    }
+
+                    alterUserToSuper(conf, appUser);
+                    try {
+                        createExtensions(conf, missingExtensions, appDb, appUser, appPwd);
+                    } finally {
+                        alterSuperuserToNoSuper(conf, appUser);
+                    }
+
+                    for (String extension : missingExtensions) {
+                        catalog.extensionCreated(appDb, extension);
+                    }
+                }
+            });
         }
     }
 
     private void createExtensions(DbConf conf, Set<String> extensions, String appDb, String user, String pwd) throws IOException {
+        List<String> psqlCmds = new ArrayList<>();
         for (String extension : extensions) {
             LOG.info("Creating PG extension in DB {} (if not exists): {}", appDb, extension);
-            String psqlCmd = format("CREATE EXTENSION IF NOT EXISTS %s;", extension);
-            OsCmdResult r = executePsqlAppUserCommand(conf, psqlCmd, user, pwd, appDb);
+            psqlCmds.add(format("CREATE EXTENSION IF NOT EXISTS %s;", extension));
+        }
+        List<SqlResult> results = executeAppUserSqlBatch(conf, psqlCmds, user, pwd, appDb);
+
+        int i = 0;
+        for (String extension : extensions) {
+            String psqlCmd = psqlCmds.get(i);
+            SqlResult r = results.get(i++);
 
-            boolean outIsOk = "CREATE EXTENSION".equals(r.getOut());
-            boolean errIsBlank = r.getErr().isBlank();
-            if (outIsOk && errIsBlank) {
+            if (r.getErr().isBlank()) {
                 continue;
             }
 
@@ -540,12 +1444,16 @@ public class PostgresDbManager implements DbManager {
         if (systemSettings.isEmpty()) {
             LOG.info("No system settings to alter");
         } else {
+            List<String> psqlCmds = new ArrayList<>();
             for (String systemSetting : systemSettings) {
                 LOG.info("Altering PG system setting: {}", systemSetting);
-                String psqlCmd = format("ALTER SYSTEM SET %s", systemSetting);
-                OsCmdResult r = executePsqlSuperCommand(conf, psqlCmd);
-                if (!"ALTER SYSTEM".equals(r.getOut()) || !r.getErr().isBlank()) {
-                    throw new IllegalStateException(format("PG command failed: %s, %s", psqlCmd, r));
+                psqlCmds.add(format("ALTER SYSTEM SET %s", systemSetting));
+            }
+            List<SqlResult> results = executeSuperSqlBatch(conf, psqlCmds);
+            for (int i = 0; i < psqlCmds.size(); i++) {
+                SqlResult r = results.get(i);
+                if (!r.getErr().isBlank()) {
+                    throw new IllegalStateException(format("PG command failed: %s, %s", psqlCmds.get(i), r));
                 }
             }
         }
@@ -584,95 +1492,89 @@ public class PostgresDbManager implements DbManager {
         Files.writeString(pgConfPath, pgHbaConfContent, StandardOpenOption.TRUNCATE_EXISTING);
     }
 
-    @SuppressWarnings("SameParameterValue")
-    private OsCmdResult executePsqlCommand(
-            Path psqlPath, String host, int port, String db, String user, String pwd, String psqlCmd
+    @Override
+    public void close() {
+        jdbcSqlExecutor.close();
+    }
+
+    private ServiceController serviceController(DbInstallConf conf) {
+        return switch (conf.getServiceMode()) {
+            case WIN_SERVICE -> new WinServiceController(conf.getBaseConf(), conf.getWinServiceName());
+            case PG_CTL -> new PgCtlServiceController(conf.getBaseConf());
+        };
+    }
+
+    private SqlExecutor sqlExecutor(DbConf conf) {
+        return switch (conf.getSqlClient()) {
+            case PSQL -> psqlSqlExecutor;
+            case JDBC -> jdbcSqlExecutor;
+            case AUTO -> jdbcSqlExecutor.isDriverAvailable() ? jdbcSqlExecutor : psqlSqlExecutor;
+        };
+    }
+
+    private SqlResult executeSuperSql(
+            DbConf conf,
+            String sql
     ) throws IOException {
-        String cmd = format("%s -U %s -h %s -p %s -d %s -c \"%s\"", psqlPath, user, host, port, db, psqlCmd);
-        Set<String> envs = Set.of("PGPASSWORD=" + pwd);
-        return OsCmdUtil.exec(cmd, envs);
+        return executeSuperSql(conf, sql, "postgres");
+    }
+
+    private SqlResult executeSuperSql(
+            DbConf conf,
+            String sql,
+            String db
+    ) throws IOException {
+        return sqlExecutor(conf).execute(conf, db, conf.getSuperUser(), conf.getSuperPass(), sql);
     }
 
-    private OsCmdResult executePsqlSuperCommand(
+    private List<SqlResult> executeSuperSqlBatch(
             DbConf conf,
-            String psqlCmd
+            List<String> sqls
     ) throws IOException {
-        return executePsqlSuperCommand(conf, psqlCmd, "postgres");
+        return sqlExecutor(conf).executeBatch(conf, "postgres", conf.getSuperUser(), conf.getSuperPass(), sqls);
     }
 
     @SuppressWarnings("SameParameterValue")
-    private OsCmdResult executePsqlSuperCommand(
+    private SqlResult querySuperSql(
             DbConf conf,
-            String psqlCmd,
+            String sql,
             String db
     ) throws IOException {
-        var psqlPath = conf.getDbToolsPath().resolve("psql");
-        var host = conf.getHost();
-        var port = conf.getPort();
-        var user = conf.getSuperUser();
-        var pass = conf.getSuperPass();
-        return executePsqlCommand(psqlPath, host, port, db, user, pass, psqlCmd);
+        return sqlExecutor(conf).query(conf, db, conf.getSuperUser(), conf.getSuperPass(), sql);
     }
 
-    private OsCmdResult executePsqlAppUserCommand(
+    private SqlResult executeAppUserSql(
             DbConf conf,
-            String psqlCmd,
+            String sql,
             String user,
             String pass,
             String db
     ) throws IOException {
-        var psqlPath = conf.getDbToolsPath().resolve("psql");
-        var host = conf.getHost();
-        var port = conf.getPort();
-        return executePsqlCommand(psqlPath, host, port, db, user, pass, psqlCmd);
+        return sqlExecutor(conf).execute(conf, db, user, pass, sql);
     }
 
-    private OsCmdResult executePsqlAppUserQueryCommand(
+    private List<SqlResult> executeAppUserSqlBatch(
             DbConf conf,
-            String psqlCmd,
+            List<String> sqls,
             String user,
             String pass,
             String db
     ) throws IOException {
-        var psqlPath = conf.getDbToolsPath().resolve("psql");
-        var host = conf.getHost();
-        var port = conf.getPort();
-        String cmd = format("%s -U %s -h %s -p %s -d %s -XtA -c \"%s\"", psqlPath, user, host, port, db, psqlCmd);
-        Set<String> envs = Set.of("PGPASSWORD=" + pass);
-        return OsCmdUtil.exec(cmd, envs);
-    }
-
-    private void startDbWinService(String winServiceName) throws IOException {
-        if (WindowsUtil.winServiceIsRunning(winServiceName)) {
-            LOG.info("PG WinService already started: {}", winServiceName);
-        } else {
-            LOG.info("Starting PG WinService: {}", winServiceName);
-            WindowsUtil.startWinService(winServiceName);
-        }
+        return sqlExecutor(conf).executeBatch(conf, db, user, pass, sqls);
     }
 
-    private void registerDbWinService(DbConf baseConf, String winServiceName) throws IOException {
-        Path pgCtlExePath = baseConf.getDbToolsPath().resolve("pg_ctl.exe");
-        if (WindowsUtil.winServiceExists(winServiceName)) {
-            LOG.info("Windows service already exists: {}", winServiceName);
-        } else {
-            LOG.info("Registering PG WinService: {}", winServiceName);
-            OsCmdUtil.exec(format("%s register -N %s -D \"%s\"", pgCtlExePath, winServiceName, baseConf.getDbDataPath()));
-        }
+    private static String hidePassword(String sql) {
+        return sql.replaceAll("(?i)(PASSWORD\\s+)'[^']*'", "$1'*****'");
     }
 
-    private void unregisterDbWinService(DbConf conf, String winServiceName) throws IOException {
-        Path pgCtlExePath = conf.getDbToolsPath().resolve("pg_ctl.exe");
-        if (!WindowsUtil.winServiceExists(winServiceName)) {
-            LOG.info("WinService already unregistered: {}", winServiceName);
-        } else {
-            if (WindowsUtil.winServiceIsRunning(winServiceName)) {
-                LOG.info("Stopping PG WinService: {}", winServiceName);
-                WindowsUtil.stopWinService(winServiceName);
-            }
-            LOG.info("Unregistering PG WinService: {}", winServiceName);
-            OsCmdUtil.exec(format("%s unregister -N %s -D \"%s\"", pgCtlExePath, winServiceName, conf.getDbDataPath()));
-        }
+    private SqlResult queryAppUserSql(
+            DbConf conf,
+            String sql,
+            String user,
+            String pass,
+            String db
+    ) throws IOException {
+        return sqlExecutor(conf).query(conf, db, user, pass, sql);
     }
 
     private void allowClientAddresses(DbConf conf, Set<String> allowedClientAddresses1) throws IOException {
@@ -701,6 +1603,8 @@ public class PostgresDbManager implements DbManager {
         Path pgSysPath = conf.getDbSystemPath().toAbsolutePath();
         if (pgSysPath.toFile().exists()) {
             LOG.info("PG system folder already exists - skipping installer extractions: {}", pgSysPath);
+        } else if (installerPath == null && conf.getDbToolsPath().toFile().exists()) {
+            LOG.info("No installer given - using existing PG tools: {}", conf.getDbToolsPath());
         } else {
             if (installerPath == null || !installerPath.toFile().exists()) {
                 throw new IllegalStateException(format("Installer not found: %s", installerPath));
@@ -724,6 +1628,10 @@ public class PostgresDbManager implements DbManager {
     }
 
     private void installVCRedist(DbInstallConf conf) throws IOException {
+        if (!isWindowsOs()) {
+            LOG.info("Not on Windows - skipping VCRedist installation");
+            return;
+        }
         List<String> oldVCRedists = VCRedistDetectUtil.detectVCRedists();
         if (conf.getInstallVCRedist()) {
             LOG.info("Detected VCRedist versions BEFORE installation:\n  {}",
@@ -786,15 +1694,20 @@ public class PostgresDbManager implements DbManager {
             LOG.info("PG data folder already exists - skipping PG database cluster initialization: {}", pgDataPath);
         } else {
             LOG.info("Initializing PG database cluster: pgData={}", pgDataPath);
-            Path pgPwTmpFilePath = pgDataPath.resolve("../install_tmp");
+            Path pgPwTmpFilePath = pgDataPath.resolveSibling("install_tmp");
             String superUser = conf.getSuperUser();
             String superPass = conf.getSuperPass();
             try {
                 Files.writeString(pgPwTmpFilePath, superPass, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
 
-                Path pgInitExePath = conf.getDbToolsPath().resolve("initdb.exe");
-                OsCmdUtil.exec(format("%s -D %s  -U %s --pwfile %s --auth=scram-sha-256 --locale=\"%s\"",
-                        pgInitExePath, pgDataPath, superUser, pgPwTmpFilePath, dbLocale));
+                Path pgInitPath = PgToolPath.of(conf, "initdb");
+                // Arguments are split on whitespace, quotes are only interpreted by the Windows command line
+                String localeOption = isWindowsOs() ? format("\"%s\"", dbLocale) : dbLocale;
+                OsCmdResult r = OsCmdUtil.exec(format("%s -D %s  -U %s --pwfile %s --auth=scram-sha-256 --locale=%s",
+                        pgInitPath, pgDataPath, superUser, pgPwTmpFilePath, localeOption));
+                if (r.getExitCode() != 0) {
+                    throw new IOException(format("PG database cluster initialization failed: %s", r));
+                }
 
             } finally {
                 Files.deleteIfExists(pgPwTmpFilePath);
@@ -803,6 +1716,10 @@ public class PostgresDbManager implements DbManager {
     }
 
     private void createFirewallRule(DbConf conf, String firewallRuleName) throws IOException {
+        if (!isWindowsOs()) {
+            LOG.info("Not on Windows - skipping firewall rule creation: {}", firewallRuleName);
+            return;
+        }
         if (!WindowsUtil.firewallRuleExists(firewallRuleName)) {
             LOG.info("Creating firewall rule: {}", firewallRuleName);
             WindowsUtil.createTcpOpenFirewallRule(firewallRuleName, conf.getPort());
@@ -812,6 +1729,10 @@ public class PostgresDbManager implements DbManager {
     }
 
     private void removeFirewallRule(String firewallRuleName) throws IOException {
+        if (!isWindowsOs()) {
+            LOG.info("Not on Windows - skipping firewall rule removal: {}", firewallRuleName);
+            return;
+        }
         if (!WindowsUtil.firewallRuleExists(firewallRuleName)) {
             LOG.info("Firewall rule does not exist: {}", firewallRuleName);
         } else {
@@ -840,18 +1761,13 @@ public class PostgresDbManager implements DbManager {
     }
 
 
-    @SuppressWarnings("ResultOfMethodCallIgnored")
     private void uninstallDbSystem(DbConf conf) throws IOException {
         var pgSysPath = conf.getDbSystemPath();
         if (!pgSysPath.toFile().exists()) {
             LOG.info("PG system folder does not exist: {}", pgSysPath);
         } else {
             LOG.info("Deleting PG system folder: {}", pgSysPath);
-            try (var dirStream = Files.walk(pgSysPath)) {
-                dirStream.map(Path::toFile)
-                        .sorted(Comparator.reverseOrder())
-                        .forEach(File::delete);
-            }
+            FileTreeUtil.delete(pgSysPath, ioParallelism());
         }
     }
 
@@ -0,0 +1,176 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import com.brinvex.dba.api.DbConf;
+import com.brinvex.dba.internal.common.OsCmdResult;
+import com.brinvex.dba.internal.common.OsCmdUtil;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.lang.String.format;
+
+/**
+ * Runs every statement in a new psql process. The SQL is always sent over stdin, never as a command line argument:
+ * the command line is split on whitespace and only the Windows command line would interpret quotes.
+ */
+public class PsqlSqlExecutor implements SqlExecutor {
+
+    private static final Pattern SCRIPT_MSG_PATTERN = Pattern.compile("^psql:<stdin>:(\\d+): (.*)$");
+
+    @Override
+    public SqlResult execute(DbConf conf, String db, String user, String pass, String sql) throws IOException {
+        Set<String> envs = Set.of("PGPASSWORD=" + pass);
+        StringJoiner out = new StringJoiner("\n");
+        StringJoiner err = new StringJoiner("\n");
+        OsCmdUtil.execStreaming(command(conf, db, user), envs, null, sql, s -> {
+            if (!s.isBlank()) {
+                out.add(s);
+            }
+        }, s -> {
+            if (!s.isBlank()) {
+                err.add(stripScriptPrefix(s));
+            }
+        });
+        return new SqlResult(out.toString(), err.toString());
+    }
+
+    /**
+     * Sends all statements as one script over stdin to a single psql run with ON_ERROR_STOP.
+     * Every statement is put on its own script line, so the line numbers psql prefixes its
+     * notices and errors with map them back to the statements. Command tags are printed in statement order.
+     */
+    @Override
+    public List<SqlResult> executeBatch(DbConf conf, String db, String user, String pass, List<String> sqls) throws IOException {
+        if (sqls.isEmpty()) {
+            return List.of();
+        }
+        StringBuilder script = new StringBuilder();
+        for (String sql : sqls) {
+            String normSql = sql.replaceAll("[\\r\\n]+", " ").trim();
+            script.append(normSql);
+            if (!normSql.endsWith(";")) {
+                script.append(';');
+            }
+            script.append('\n');
+        }
+
+        String cmd = command(conf, db, user);
+        Set<String> envs = Set.of("PGPASSWORD=" + pass);
+
+        List<String> tags = new ArrayList<>();
+        List<StringBuilder> errs = new ArrayList<>();
+        sqls.forEach(sql -> errs.add(new StringBuilder()));
+        StringBuilder generalErr = new StringBuilder();
+        int[] lastStmtIdx = {-1};
+        OsCmdResult r = OsCmdUtil.execStreaming(cmd, envs, null, script.toString(), s -> {
+            if (!s.isBlank()) {
+                tags.add(s.trim());
+            }
+        }, s -> {
+            if (s.isBlank()) {
+                return;
+            }
+            Matcher m = SCRIPT_MSG_PATTERN.matcher(s);
+            if (m.matches()) {
+                int stmtIdx = Integer.parseInt(m.group(1)) - 1;
+                if (stmtIdx >= 0 && stmtIdx < sqls.size()) {
+                    lastStmtIdx[0] = stmtIdx;
+                    appendLine(errs.get(stmtIdx), m.group(2));
+                    return;
+                }
+            }
+            if (lastStmtIdx[0] >= 0) {
+                appendLine(errs.get(lastStmtIdx[0]), s);
+            } else {
+                appendLine(generalErr, s);
+            }
+        });
+
+        List<SqlResult> results = new ArrayList<>(sqls.size());
+        for (int i = 0; i < sqls.size(); i++) {
+            if (i < tags.size()) {
+                results.add(new SqlResult(tags.get(i), errs.get(i).toString()));
+            } else if (!errs.get(i).isEmpty()) {
+                results.add(new SqlResult("", errs.get(i).toString()));
+            } else if (!generalErr.isEmpty()) {
+                results.add(new SqlResult("", generalErr.toString()));
+            } else {
+                results.add(new SqlResult("", r.getExitCode() == 0 ? "" : NOT_EXECUTED_ERR));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public SqlResult query(DbConf conf, String db, String user, String pass, String sql) throws IOException {
+        Set<String> envs = Set.of("PGPASSWORD=" + pass);
+        StringJoiner rows = new StringJoiner("\n");
+        StringJoiner err = new StringJoiner("\n");
+        OsCmdUtil.execStreaming(queryCommand(conf, db, user), envs, null, sql, s -> {
+            if (!s.isBlank()) {
+                rows.add(s);
+            }
+        }, s -> {
+            if (!s.isBlank()) {
+                err.add(stripScriptPrefix(s));
+            }
+        });
+        return new SqlResult(rows.toString(), err.toString());
+    }
+
+    /**
+     * The psql command line of {@link #execute} and {@link #executeBatch}, reading the script from stdin.
+     */
+    public static String command(DbConf conf, String db, String user) {
+        return format("%s -U %s -h %s -p %s -d %s -X -v ON_ERROR_STOP=1 -f -",
+                psqlPath(conf), user, conf.getHost(), conf.getPort(), db);
+    }
+
+    /**
+     * The psql command line of {@link #query}, reading the query from stdin and printing unaligned rows only.
+     */
+    public static String queryCommand(DbConf conf, String db, String user) {
+        return format("%s -U %s -h %s -p %s -d %s -XtA -v ON_ERROR_STOP=1 -f -",
+                psqlPath(conf), user, conf.getHost(), conf.getPort(), db);
+    }
+
+    private static Path psqlPath(DbConf conf) {
+        return conf.getDbToolsPath().resolve("psql");
+    }
+
+    private static void appendLine(StringBuilder sb, String line) {
+        if (!sb.isEmpty()) {
+            sb.append('\n');
+        }
+        sb.append(line);
+    }
+
+    /**
+     * psql prefixes the messages of a stdin script with "psql:<stdin>:line: ", a single statement reads better without.
+     */
+    private static String stripScriptPrefix(String line) {
+        Matcher m = SCRIPT_MSG_PATTERN.matcher(line);
+        return m.matches() ? m.group(2) : line;
+    }
+}
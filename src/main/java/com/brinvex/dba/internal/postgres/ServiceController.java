@@ -0,0 +1,48 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import java.io.IOException;
+
+/**
+ * Controls the lifecycle of the DB system process.
+ * Start, restart and promote return only once the server accepts connections.
+ */
+public interface ServiceController {
+
+    /**
+     * Makes the DB system known to the service manager, if there is one. Idempotent.
+     */
+    void register() throws IOException;
+
+    /**
+     * Stops the DB system if running and removes it from the service manager, if there is one. Idempotent.
+     */
+    void unregister() throws IOException;
+
+    boolean isRunning() throws IOException;
+
+    void start() throws IOException;
+
+    void stop() throws IOException;
+
+    void restart() throws IOException;
+
+    /**
+     * Promotes a standby server to primary.
+     */
+    void promote() throws IOException;
+}
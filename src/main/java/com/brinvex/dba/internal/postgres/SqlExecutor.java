@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import com.brinvex.dba.api.DbConf;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Executes SQL inside a database of the server described by a {@link DbConf}.
+ * Implementations must be thread-safe.
+ */
+public interface SqlExecutor {
+
+    String NOT_EXECUTED_ERR = "Not executed - a previous statement of the batch failed";
+
+    /**
+     * Executes a non-query statement. Server errors are reported in {@link SqlResult#getErr()}, not thrown.
+     * The out is the command tag if the executor sees it, otherwise empty.
+     */
+    SqlResult execute(DbConf conf, String db, String user, String pass, String sql) throws IOException;
+
+    /**
+     * Executes the statements one by one in a single session, stopping at the first failing statement.
+     * Returns one result per statement; statements not executed because of an earlier failure
+     * get an empty out and an explanatory err.
+     */
+    List<SqlResult> executeBatch(DbConf conf, String db, String user, String pass, List<String> sqls) throws IOException;
+
+    /**
+     * Executes a query. The rows are returned in {@link SqlResult#getOut()}, tuples-only and unaligned.
+     */
+    SqlResult query(DbConf conf, String db, String user, String pass, String sql) throws IOException;
+
+    /**
+     * Releases any resources held for the given database, e.g. before it is dropped.
+     */
+    default void release(DbConf conf, String db) {
+    }
+
+    /**
+     * Releases any resources held for the given server, e.g. before it is stopped.
+     */
+    default void releaseAll(DbConf conf) {
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.brinvex.dba.internal.postgres;
+
+import com.brinvex.dba.api.DbConf;
+import com.brinvex.dba.internal.common.OsCmdResult;
+import com.brinvex.dba.internal.common.OsCmdUtil;
+import com.brinvex.dba.internal.common.WindowsUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static java.lang.String.format;
+
+/**
+ * Runs the DB system as a Windows service registered by pg_ctl and controlled by net/sc.
+ * "net start" returns before the server accepts connections, so starts are followed by a readiness probe.
+ */
+public class WinServiceController implements ServiceController {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WinServiceController.class);
+
+    private final DbConf conf;
+
+    private final String winServiceName;
+
+    public WinServiceController(DbConf conf, String winServiceName) {
+        this.conf = conf;
+        this.winServiceName = winServiceName;
+    }
+
+    @Override
+    public void register() throws IOException {
+        if (WindowsUtil.winServiceExists(winServiceName)) {
+            LOG.info("Windows service already exists: {}", winServiceName);
+        } else {
+            LOG.info("Registering PG WinService: {}", winServiceName);
+            OsCmdUtil.exec(command("register"));
+        }
+    }
+
+    @Override
+    public void unregister() throws IOException {
+        if (!WindowsUtil.winServiceExists(winServiceName)) {
+            LOG.info("WinService already unregistered: {}", winServiceName);
+        } else {
+            if (WindowsUtil.winServiceIsRunning(winServiceName)) {
+                LOG.info("Stopping PG WinService: {}", winServiceName);
+                WindowsUtil.stopWinService(winServiceName);
+            }
+            LOG.info("Unregistering PG WinService: {}", winServiceName);
+            OsCmdUtil.exec(command("unregister"));
+        }
+    }
+
+    @Override
+    public boolean isRunning() throws IOException {
+        return WindowsUtil.winServiceIsRunning(winServiceName);
+    }
+
+    @Override
+    public void start() throws IOException {
+        if (WindowsUtil.winServiceIsRunning(winServiceName)) {
+            LOG.info("PG WinService already started: {}", winServiceName);
+        } else {
+            LOG.info("Starting PG WinService: {}", winServiceName);
+            WindowsUtil.startWinService(winServiceName);
+        }
+        new PgReadinessProbe(conf).awaitReady();
+    }
+
+    @Override
+    public void stop() throws IOException {
+        LOG.info("Stopping PG WinService: {}", winServiceName);
+        WindowsUtil.stopWinService(winServiceName);
+    }
+
+    @Override
+    public void restart() throws IOException {
+        LOG.info("Restarting PG WinService: {}", winServiceName);
+        WindowsUtil.restartWinService(winServiceName);
+        new PgReadinessProbe(conf).awaitReady();
+    }
+
+    @Override
+    public void promote() throws IOException {
+        LOG.info("Promoting PG: {}", conf.getDbDataPath());
+        OsCmdResult r = OsCmdUtil.exec(command("promote"));
+        if (r.getExitCode() != 0) {
+            throw new IOException(format("PG promote failed: %s", r));
+        }
+    }
+
+    /**
+     * The pg_ctl command line of the given action: register, unregister or promote.
+     * The service itself is started and stopped by net.
+     */
+    public String command(String action) {
+        Path dataPath = conf.getDbDataPath();
+        String options = switch (action) {
+            case "register", "unregister" -> format("-N %s -D \"%s\"", winServiceName, dataPath);
+            case "promote" -> format("-w -t %s -D \"%s\"", waitSeconds(), dataPath);
+            default -> throw new IllegalArgumentException(format("Unsupported pg_ctl action: %s", action));
+        };
+        return format("%s %s %s", PgToolPath.of(conf, "pg_ctl", true), action, options);
+    }
+
+    private long waitSeconds() {
+        Duration readinessTimeout = conf.getReadinessTimeout();
+        return Math.max(1, readinessTimeout.toSeconds());
+    }
+}
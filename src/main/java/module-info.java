@@ -1,4 +1,5 @@
 module com.brinvex.dba {
     exports com.brinvex.dba.api;
     requires org.slf4j;
+    requires java.sql;
 }
\ No newline at end of file
@@ -0,0 +1,124 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.com.brinvex.dba;
+
+import com.brinvex.dba.api.BackupRetentionPolicy;
+import com.brinvex.dba.internal.postgres.PgBackupCatalog;
+import com.brinvex.dba.internal.postgres.PgBackupCatalog.Kind;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PgBackupCatalogTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 3, 10, 12, 0, 0);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void expired_verifiedKeptPastMaxAge() throws IOException {
+        PgBackupCatalog catalog = PgBackupCatalog.of(tempDir);
+        Path oldest = dump(catalog, "db1", 10, true);
+        Path verified = dump(catalog, "db1", 9, true);
+        Path unverified = dump(catalog, "db1", 8, false);
+        Path young = dump(catalog, "db1", 0, false);
+
+        BackupRetentionPolicy policy = new BackupRetentionPolicy().setMaxAge(Duration.ofDays(1)).setMinKeptVerified(1);
+        assertEquals(Set.of(oldest, unverified), new HashSet<>(catalog.expired(policy, NOW)));
+
+        // Without the guarantee, the age decides alone
+        assertEquals(Set.of(oldest, verified, unverified), new HashSet<>(catalog.expired(policy.setMinKeptVerified(0), NOW)));
+        assertFalse(catalog.expired(policy, NOW).contains(young));
+    }
+
+    @Test
+    void expired_maxKeptPerDatabase() throws IOException {
+        PgBackupCatalog catalog = PgBackupCatalog.of(tempDir);
+        Path db1First = dump(catalog, "db1", 4, true);
+        Path db1Second = dump(catalog, "db1", 3, false);
+        dump(catalog, "db1", 2, false);
+        dump(catalog, "db1", 1, true);
+        dump(catalog, "db2", 4, false);
+        dump(catalog, "db2", 3, false);
+        Path folderFirst = dataFolder(catalog, 3);
+        dataFolder(catalog, 2);
+        dataFolder(catalog, 1);
+
+        BackupRetentionPolicy policy = new BackupRetentionPolicy().setMaxKept(2).setMinKeptVerified(0);
+        assertEquals(Set.of(db1First, db1Second, folderFirst), new HashSet<>(catalog.expired(policy, NOW)));
+
+        // The guaranteed verified backups count as kept, the oldest one survives the count limit
+        policy.setMinKeptVerified(2);
+        assertEquals(Set.of(db1Second, folderFirst), new HashSet<>(catalog.expired(policy, NOW)));
+    }
+
+    @Test
+    void readIndex_rebuildsMissingIndex() throws IOException {
+        PgBackupCatalog catalog = PgBackupCatalog.of(tempDir);
+        Path first = dump(catalog, "db1", 2, true);
+        Path second = dump(catalog, "db1", 1, false);
+        Path indexPath = tempDir.resolve(PgBackupCatalog.FOLDER_NAME).resolve("catalog.tsv");
+        assertTrue(Files.exists(indexPath));
+
+        Files.delete(indexPath);
+        PgBackupCatalog reopened = PgBackupCatalog.of(tempDir);
+        assertEquals(Set.of(first, second), reopened.cataloguedBackups());
+        assertTrue(Files.exists(indexPath));
+        assertEquals(first, reopened.latestVerified(Kind.DUMP, "db1"));
+
+        PgBackupCatalog.Manifest manifest = reopened.readManifest(second.getFileName().toString());
+        assertEquals("db1", manifest.getDb());
+        assertEquals(NOW.minusDays(1), manifest.getCreatedAt());
+        assertEquals(5, manifest.getSize());
+        assertFalse(manifest.isVerified());
+
+        reopened.remove(List.of(first));
+        assertEquals(Set.of(second), reopened.cataloguedBackups());
+        assertNull(reopened.readManifest(first.getFileName().toString()));
+        assertNull(reopened.latestVerified(Kind.DUMP, "db1"));
+    }
+
+    private Path dump(PgBackupCatalog catalog, String db, int daysAgo, boolean verified) throws IOException {
+        Path backupPath = Files.writeString(tempDir.resolve(name(db, daysAgo)), "dump" + daysAgo % 10);
+        catalog.register(backupPath, Kind.DUMP, db, "CUSTOM_ARCHIVE", NOW.minusDays(daysAgo), Duration.ofSeconds(1), "18", verified);
+        return backupPath;
+    }
+
+    private Path dataFolder(PgBackupCatalog catalog, int daysAgo) throws IOException {
+        Path backupPath = Files.createDirectories(tempDir.resolve("db_data_" + daysAgo));
+        Files.writeString(backupPath.resolve("PG_VERSION"), "18");
+        catalog.register(backupPath, Kind.DATA_FOLDER, null, "DATA_FOLDER", NOW.minusDays(daysAgo), Duration.ofSeconds(1), "18", true);
+        return backupPath;
+    }
+
+    private static String name(String db, int daysAgo) {
+        return db + "_" + daysAgo + ".backup";
+    }
+}
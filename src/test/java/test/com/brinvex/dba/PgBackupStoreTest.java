@@ -0,0 +1,158 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.com.brinvex.dba;
+
+import com.brinvex.dba.internal.postgres.PgBackupStore;
+import com.brinvex.dba.internal.postgres.PgDumpVerifier;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PgBackupStoreTest {
+
+    private static final PgDumpVerifier CHECKSUMS = new PgDumpVerifier(Path.of("pg_restore"), Duration.ofMinutes(1), 2);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void store_sharedFileIsOneBlob() throws IOException {
+        PgBackupStore store = new PgBackupStore(tempDir.resolve("store"), 2);
+        store.store(backup("b1", "toc", "shared", "old"));
+        assertEquals(3, blobs().size());
+
+        Path b2 = backup("b2", "toc", "shared", "new");
+        assertEquals("b2", store.store(b2));
+        assertFalse(Files.exists(b2));
+        // toc.dat and 3001.dat.gz are deduplicated, only 3002.dat.gz is new
+        assertEquals(4, blobs().size());
+        assertEquals(List.of("b1", "b2"), store.backupNames());
+    }
+
+    @Test
+    void remove_collectsOnlyUnreferencedBlobs() throws IOException {
+        PgBackupStore store = new PgBackupStore(tempDir.resolve("store"), 2);
+        store.store(backup("b1", "toc", "shared", "old"));
+        store.store(backup("b2", "toc", "shared", "new"));
+        Set<Path> b2Blobs = new HashSet<>();
+        for (Path blob : blobs()) {
+            if (!Files.readString(blob).equals("old")) {
+                b2Blobs.add(blob);
+            }
+        }
+        // Left by a crash between the copy and the atomic move of a blob
+        Path leftover = tempDir.resolve("store/blobs/ab/ab12.tmp");
+        Files.createDirectories(leftover.getParent());
+        Files.writeString(leftover, "partial");
+
+        long freed = store.remove(List.of("b1"));
+        assertEquals("old".length() + "partial".length(), freed);
+        assertEquals(b2Blobs, blobs());
+        assertEquals(List.of("b2"), store.backupNames());
+
+        store.remove(List.of("b2"));
+        assertTrue(blobs().isEmpty());
+        assertTrue(store.backupNames().isEmpty());
+    }
+
+    /**
+     * A fake pg_restore lists the TABLE DATA entries of the two data files, as the real one would read them from toc.dat.
+     */
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void materialize_passesVerification() throws IOException {
+        Path pgRestore = tempDir.resolve("pg_restore");
+        Files.writeString(pgRestore, """
+                #!/bin/sh
+                echo ';'
+                echo '; Archive created at 2025-03-10 12:00:00 UTC'
+                echo '3001; 0 16385 TABLE DATA public t1 app'
+                echo '3002; 0 16390 TABLE DATA public t2 app'
+                """);
+        Files.setPosixFilePermissions(pgRestore, PosixFilePermissions.fromString("rwx------"));
+        PgDumpVerifier verifier = new PgDumpVerifier(pgRestore, Duration.ofMinutes(1), 2);
+        PgBackupStore store = new PgBackupStore(tempDir.resolve("store"), 2);
+        store.store(backup("b1", "toc", "shared", "old"));
+        store.store(backup("b2", "toc", "shared", "new"));
+
+        Path restored = store.materialize("b2", tempDir.resolve("restored"));
+        verifier.verify(restored);
+        assertEquals("new", Files.readString(restored.resolve("3002.dat.gz")));
+        assertThrows(IOException.class, () -> store.materialize("b2", tempDir.resolve("restored")));
+
+        // The materialized folder is checked by content, a missing file fails the verification
+        Files.delete(restored.resolve("3001.dat.gz"));
+        assertThrows(IOException.class, () -> verifier.verify(restored));
+    }
+
+    @Test
+    void store_refusesMismatchingChecksums() throws IOException {
+        PgBackupStore store = new PgBackupStore(tempDir.resolve("store"), 2);
+        Path changed = backup("changed", "toc", "shared", "old");
+        Files.writeString(changed.resolve("3002.dat.gz"), "corrupted");
+        assertThrows(IOException.class, () -> store.store(changed));
+
+        Path added = backup("added", "toc", "shared", "old");
+        Files.writeString(added.resolve("3003.dat.gz"), "unexpected");
+        assertThrows(IOException.class, () -> store.store(added));
+
+        // Nothing stored, the backups stay in place
+        assertTrue(store.backupNames().isEmpty());
+        assertTrue(blobs().isEmpty());
+        assertTrue(Files.exists(changed.resolve("3002.dat.gz")));
+        assertTrue(Files.exists(added.resolve("3003.dat.gz")));
+    }
+
+    /**
+     * A DIRECTORY backup of toc.dat and two data files, with its checksums.sha256.
+     */
+    private Path backup(String name, String toc, String data1, String data2) throws IOException {
+        Path backupPath = tempDir.resolve("backups").resolve(name);
+        Files.createDirectories(backupPath);
+        Files.writeString(backupPath.resolve("toc.dat"), toc);
+        Files.writeString(backupPath.resolve("3001.dat.gz"), data1);
+        Files.writeString(backupPath.resolve("3002.dat.gz"), data2);
+        CHECKSUMS.writeChecksums(backupPath);
+        return backupPath;
+    }
+
+    private Set<Path> blobs() throws IOException {
+        Path blobsPath = tempDir.resolve("store/blobs");
+        if (!Files.isDirectory(blobsPath)) {
+            return Set.of();
+        }
+        try (var walk = Files.walk(blobsPath)) {
+            return walk.filter(Files::isRegularFile).collect(Collectors.toSet());
+        }
+    }
+
+}
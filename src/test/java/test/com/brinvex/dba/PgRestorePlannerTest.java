@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.com.brinvex.dba;
+
+import com.brinvex.dba.internal.postgres.PgDumpToc;
+import com.brinvex.dba.internal.postgres.PgRestorePlanner;
+import com.brinvex.dba.internal.postgres.PgTableStats;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PgRestorePlannerTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private static final List<String> LIST_OUTPUT = List.of(
+            ";",
+            "; Archive created at 2026-10-17 03:09:58 CEST",
+            ";     dbname: ca",
+            ";     TOC Entries: 52",
+            ";     Compression: gzip",
+            ";     Dump Version: 1.16-0",
+            ";     Format: DIRECTORY",
+            ";",
+            ";",
+            "; Selected TOC Entries:",
+            ";",
+            "3390; 0 16413 TABLE DATA public t1 postgres",
+            "3391; 0 16416 TABLE DATA public t2 postgres",
+            "3392; 0 16419 TABLE DATA public Big Table postgres",
+            "3393; 0 16423 TABLE DATA sales orders app",
+            "3394; 0 0 SEQUENCE SET public t1_id_seq postgres",
+            "3395; 0 0 BLOBS - BLOBS ",
+            ""
+    );
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void isEntry() {
+        List<String> entries = tocLines();
+        assertEquals(6, entries.size());
+        assertTrue(entries.getFirst().startsWith("3390;"));
+        assertTrue(entries.getLast().startsWith("3395;"));
+    }
+
+    @Test
+    void planEntries_fileSizes() throws IOException {
+        Map<String, Long> sizes = new HashMap<>();
+        sizes.put("3390", 16 * MB);
+        sizes.put("3391", 16 * MB - 1);
+        sizes.put("3392", 1024L);
+        sizes.put("3393", 100 * MB);
+        sizes.put("3395", 20 * MB);
+
+        List<PgRestorePlanner.Unit> units = PgRestorePlanner.planEntries(tempDir, tocLines(), sizes, null, null);
+
+        assertEquals(4, units.size());
+        assertEquals("public t1", units.get(0).getLabel());
+        assertEquals(16 * MB, units.get(0).getBytes());
+        // Small entries are packed in one unit, the big ones in between go alone
+        assertEquals("3 entries", units.get(1).getLabel());
+        assertEquals(16 * MB - 1 + 1024, units.get(1).getBytes());
+        assertEquals(List.of(tocLines().get(1), tocLines().get(2), tocLines().get(4)), units.get(1).getTocLines());
+        assertEquals("sales orders", units.get(2).getLabel());
+        // Not a TABLE DATA entry - labelled by its description, not a garbage substring
+        assertEquals("BLOBS - BLOBS", units.get(3).getLabel());
+        assertEquals(20 * MB, units.get(3).getBytes());
+        units.forEach(u -> assertEquals(tempDir, u.getBackupPath()));
+    }
+
+    @Test
+    void planEntries_batchEntryLimit() throws IOException {
+        List<String> tocLines = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            tocLines.add((1000 + i) + "; 0 " + (20000 + i) + " TABLE DATA public t" + i + " postgres");
+        }
+
+        List<PgRestorePlanner.Unit> units = PgRestorePlanner.planEntries(tempDir, tocLines, Map.of(), null, null);
+
+        assertEquals(List.of(256, 256, 88), units.stream().map(u -> u.getTocLines().size()).toList());
+    }
+
+    @Test
+    void planEntries_batchSizeLimit() throws IOException {
+        List<String> tocLines = new ArrayList<>();
+        Map<String, Long> sizes = new HashMap<>();
+        for (int i = 0; i < 9; i++) {
+            tocLines.add((1000 + i) + "; 0 " + (20000 + i) + " TABLE DATA public t" + i + " postgres");
+            sizes.put(String.valueOf(1000 + i), 15 * MB);
+        }
+        sizes.put("1008", 4 * MB);
+
+        List<PgRestorePlanner.Unit> units = PgRestorePlanner.planEntries(tempDir, tocLines, sizes, null, null);
+
+        // A fifth 15 MB entry would exceed 64 MB, the last 4 MB fill it exactly
+        assertEquals(List.of(4, 5), units.stream().map(u -> u.getTocLines().size()).toList());
+        assertEquals(List.of(60 * MB, 64 * MB), units.stream().map(PgRestorePlanner.Unit::getBytes).toList());
+    }
+
+    @Test
+    void planEntries_statsSizes() throws IOException {
+        PgTableStats stats = tableStats(
+                "public\tt1\t16413\t1024\t0\t0\t0\tc\t.",
+                "public\tBig Table\t16419\t" + 32 * MB + "\t0\t0\t0\tc\t.",
+                "sales\torders\t16423\t2048\t0\t0\t0\tc\t.");
+        // The file sizes are compressed, the stats ones are what the restore writes
+        Map<String, Long> sizes = Map.of("3390", 100 * MB, "3392", MB, "3393", 100 * MB);
+
+        List<PgRestorePlanner.Unit> units = PgRestorePlanner.planEntries(tempDir, tocLines(), sizes, stats, null);
+
+        assertEquals(2, units.size());
+        // t2 has neither stats nor a data file, like the sequences and blobs here
+        assertEquals("5 entries", units.get(0).getLabel());
+        assertEquals(1024 + 2048, units.get(0).getBytes());
+        assertEquals("public.Big Table", units.get(1).getLabel());
+        assertEquals(32 * MB, units.get(1).getBytes());
+        assertEquals(List.of(tocLines().get(2)), units.get(1).getTocLines());
+    }
+
+    @Test
+    void planEntries_referencedTables() throws IOException {
+        PgTableStats stats = tableStats(
+                "public\tt1\t16413\t1024\t0\t0\t0\tc\t../b1",
+                "public\tBig Table\t16419\t" + 32 * MB + "\t0\t0\t0\tc\t../b1",
+                "sales\torders\t16423\t2048\t0\t0\t0\tc\t.");
+        List<PgTableStats.Table> referenced = List.of(stats.getTable("public", "t1"), stats.getTable("public", "Big Table"));
+
+        List<PgRestorePlanner.Unit> units = PgRestorePlanner.planEntries(tempDir, tocLines(), Map.of(), stats, referenced);
+
+        assertEquals(2, units.size());
+        assertEquals(List.of(tocLines().getFirst()), units.get(0).getTocLines());
+        assertEquals("public.Big Table", units.get(1).getLabel());
+
+        List<String> withoutBigTable = tocLines().stream().filter(l -> !l.contains("Big Table")).toList();
+        IOException e = assertThrows(IOException.class,
+                () -> PgRestorePlanner.planEntries(tempDir, withoutBigTable, Map.of(), stats, referenced));
+        assertTrue(e.getMessage().contains("expected 2 entries, found 1"), e.getMessage());
+    }
+
+    private static List<String> tocLines() {
+        return LIST_OUTPUT.stream().filter(PgDumpToc::isEntry).toList();
+    }
+
+    private PgTableStats tableStats(String... lines) throws IOException {
+        Files.write(tempDir.resolve(PgTableStats.FILE_NAME), List.of(lines));
+        return PgTableStats.read(tempDir);
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.com.brinvex.dba;
+
+import com.brinvex.dba.api.DbConf;
+import com.brinvex.dba.internal.postgres.PgTableStats;
+import com.brinvex.dba.internal.postgres.SqlExecutor;
+import com.brinvex.dba.internal.postgres.SqlResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PgTableStatsTest {
+
+    private static final String COLUMNS_MD5 = "59b547a6b57c1a9ab2c718f49dfb0fab";
+
+    @TempDir
+    Path tempDir;
+
+    private final FakeStatsExecutor executor = new FakeStatsExecutor();
+
+    private final DbConf conf = new DbConf().setSuperPass("secret");
+
+    @Test
+    void query_decodesAnyIdentifier() throws IOException {
+        executor.row("public", "a|b", 1, 8192, 10, 0, 0);
+        executor.row("we\tird", "line\nbreak\\", 2, 0, 0, 0, 0);
+
+        PgTableStats stats = query();
+
+        assertNotNull(stats.getTable("public", "a|b"));
+        PgTableStats.Table weird = stats.getTable("we\tird", "line\nbreak\\");
+        assertNotNull(weird);
+        assertEquals("\"we\tird\".\"line\nbreak\\\"", weird.getPattern());
+        assertEquals(8192, stats.getTable("public", "a|b").getSize());
+        assertFalse(weird.isDataReferenced());
+    }
+
+    @Test
+    void writeRead_roundTrip() throws IOException {
+        executor.row("public", "a|b", 1, 8192, 10, 0, 0);
+        executor.row("we\tird", "line\nbreak\\", 2, 0, 0, 0, 0);
+        PgTableStats stats = query();
+        Path backup = backup("b1");
+        stats.write(backup);
+
+        PgTableStats read = PgTableStats.read(backup);
+
+        assertNotNull(read);
+        assertEquals(stats.getTakenAt(), read.getTakenAt());
+        assertEquals(2, read.getTables().size());
+        PgTableStats.Table weird = read.getTable("we\tird", "line\nbreak\\");
+        assertNotNull(weird);
+        assertEquals(stats.getTakenAt(), weird.getDataTakenAt());
+        assertEquals(".", weird.getDataSource());
+    }
+
+    @Test
+    void read_missingStats() throws IOException {
+        assertNull(PgTableStats.read(backup("b1")));
+    }
+
+    @Test
+    void read_statsWithoutDataTakenAt() throws IOException {
+        Path backup = backup("b1");
+        Files.write(backup.resolve(PgTableStats.FILE_NAME), List.of(
+                "#schema\ttable\trelfilenode\tsize\tins\tupd\tdel\tcolumns\tdata",
+                "public\tt1\t1\t8192\t10\t0\t0\t" + COLUMNS_MD5 + "\t."));
+
+        PgTableStats read = PgTableStats.read(backup);
+
+        assertNotNull(read);
+        assertNull(read.getTakenAt());
+        assertNull(read.getTable("public", "t1").getDataTakenAt());
+    }
+
+    @Test
+    void referenceUnchanged_comparesCounters() throws IOException {
+        executor.row("public", "t1", 1, 8192, 10, 0, 0);
+        executor.row("public", "t2", 2, 8192, 10, 0, 0);
+        executor.row("public", "t3", 3, 8192, 10, 0, 0);
+        executor.row("public", "t4", 4, 8192, 10, 0, 0);
+        executor.row("public", "t5", 5, 8192, 10, 0, 0);
+        Path b1 = backup("b1");
+        query().write(b1);
+
+        executor.rows.clear();
+        executor.row("public", "t1", 1, 8192, 10, 0, 0);
+        executor.row("public", "t2", 2, 8192, 10, 1, 0);
+        executor.row("public", "t3", 3, 8192, 10, 0, 1);
+        // VACUUM FULL or TRUNCATE - new relfilenode, counters kept
+        executor.row("public", "t4", 40, 8192, 10, 0, 0);
+        executor.row("public", "t5", 5, 8192, 10, 0, 0);
+        executor.row("public", "t6", 6, 8192, 10, 0, 0);
+        PgTableStats stats = query();
+        Path b2 = backup("b2");
+
+        List<PgTableStats.Table> referenced = stats.referenceUnchanged(
+                PgTableStats.read(b1), b1, b2, null, t -> !t.getName().equals("t5"));
+
+        assertEquals(List.of("t1"), names(referenced));
+        assertEquals("b1", stats.getTable("public", "t1").getDataSource());
+        assertTrue(stats.getTable("public", "t1").isDataReferenced());
+        for (String name : List.of("t2", "t3", "t4", "t5", "t6")) {
+            assertFalse(stats.getTable("public", name).isDataReferenced(), name);
+        }
+    }
+
+    @Test
+    void referenceUnchanged_otherGeneration() throws IOException {
+        executor.row("public", "t1", 1, 8192, 10, 0, 0);
+        Path b1 = backup("b1");
+        query().write(b1);
+
+        // Restarted after a crash, or statistics reset - the same counters prove nothing
+        executor.generation = "1700000100/0";
+        PgTableStats stats = query();
+
+        assertTrue(stats.referenceUnchanged(PgTableStats.read(b1), b1, backup("b2"), null, t -> true).isEmpty());
+        assertFalse(stats.getTable("public", "t1").isDataReferenced());
+    }
+
+    @Test
+    void referenceUnchanged_statsWithoutGeneration() throws IOException {
+        Path b1 = backup("b1");
+        Files.write(b1.resolve(PgTableStats.FILE_NAME), List.of(
+                "public\tt1\t1\t8192\t10\t0\t0\t" + COLUMNS_MD5 + "\t."));
+        executor.row("public", "t1", 1, 8192, 10, 0, 0);
+        PgTableStats stats = query();
+
+        assertTrue(stats.referenceUnchanged(PgTableStats.read(b1), b1, backup("b2"), null, t -> true).isEmpty());
+    }
+
+    @Test
+    void referenceUnchanged_maxDataAge() throws IOException {
+        executor.row("public", "t1", 1, 8192, 10, 0, 0);
+        Path b1 = backup("b1");
+        PgTableStats first = query();
+        first.write(b1);
+        PgTableStats stats = query();
+        Path b2 = backup("b2");
+
+        LocalDateTime dumpedAt = first.getTakenAt();
+        assertTrue(stats.referenceUnchanged(PgTableStats.read(b1), b1, b2, dumpedAt.plusNanos(1), t -> true).isEmpty());
+        assertEquals(1, stats.referenceUnchanged(PgTableStats.read(b1), b1, b2, dumpedAt, t -> true).size());
+        assertEquals(dumpedAt, stats.getTable("public", "t1").getDataTakenAt());
+    }
+
+    @Test
+    void referenceUnchanged_transitiveAndRelative() throws IOException {
+        executor.row("public", "t1", 1, 8192, 10, 0, 0);
+        executor.row("public", "t2", 2, 8192, 10, 0, 0);
+        Path b1 = backup("2025/b1");
+        PgTableStats s1 = query();
+        s1.write(b1);
+
+        Path b2 = backup("2025/b2");
+        PgTableStats s2 = query();
+        s2.referenceUnchanged(PgTableStats.read(b1), b1, b2, null, t -> true);
+        s2.write(b2);
+
+        executor.rows.clear();
+        executor.row("public", "t1", 1, 8192, 10, 0, 0);
+        executor.row("public", "t2", 2, 8192, 11, 0, 0);
+        Path b3 = backup("2025/b3");
+        PgTableStats s3 = query();
+        s3.referenceUnchanged(PgTableStats.read(b2), b2, b3, null, t -> true);
+        s3.write(b3);
+
+        executor.rows.clear();
+        executor.row("public", "t1", 1, 8192, 10, 0, 0);
+        executor.row("public", "t2", 2, 8192, 11, 0, 0);
+        Path b4 = backup("2026/b4");
+        PgTableStats s4 = query();
+        List<PgTableStats.Table> referenced = s4.referenceUnchanged(PgTableStats.read(b3), b3, b4, null, t -> true);
+        s4.write(b4);
+
+        // t1 still points to the backup holding its data, never to the intermediate ones
+        assertEquals(List.of("t1", "t2"), names(referenced));
+        PgTableStats read = PgTableStats.read(b4);
+        assertEquals("../2025/b1", read.getTable("public", "t1").getDataSource());
+        assertEquals("../2025/b3", read.getTable("public", "t2").getDataSource());
+        assertEquals(s1.getTakenAt(), read.getTable("public", "t1").getDataTakenAt());
+        assertEquals(s3.getTakenAt(), read.getTable("public", "t2").getDataTakenAt());
+
+        Map<Path, List<PgTableStats.Table>> bySource = read.referencedTablesBySource(b4);
+        assertEquals(2, bySource.size());
+        assertEquals(List.of("t1"), names(bySource.get(b1)));
+        assertEquals(List.of("t2"), names(bySource.get(b3)));
+    }
+
+    @Test
+    void changedSince() throws IOException {
+        executor.row("public", "t1", 1, 8192, 10, 0, 0);
+        executor.row("public", "t2", 2, 8192, 10, 0, 0);
+        executor.row("public", "t3", 3, 8192, 10, 0, 0);
+        PgTableStats before = query();
+
+        executor.rows.clear();
+        executor.row("public", "t1", 1, 8192, 10, 0, 0);
+        executor.row("public", "t2", 2, 8192, 10, 0, 3);
+        PgTableStats after = query();
+
+        assertEquals(List.of("t2", "t3"), names(after.changedSince(before, before.getTables())));
+
+        executor.generation = "1700000000/1700000500";
+        PgTableStats reset = query();
+        assertEquals(List.of("t1", "t2"), names(reset.changedSince(after, after.getTables())));
+    }
+
+    private PgTableStats query() throws IOException {
+        return PgTableStats.query(executor, conf, "db1");
+    }
+
+    private Path backup(String name) throws IOException {
+        return Files.createDirectories(tempDir.resolve(name));
+    }
+
+    private static List<String> names(List<PgTableStats.Table> tables) {
+        return tables.stream().map(PgTableStats.Table::getName).toList();
+    }
+
+    /**
+     * Answers the generation and stats queries like psql or JDBC would - unaligned, "|" separated.
+     */
+    private static class FakeStatsExecutor implements SqlExecutor {
+
+        private final List<String> rows = new ArrayList<>();
+
+        private String generation = "1700000000/0";
+
+        void row(String schema, String table, long relfilenode, long size, long ins, long upd, long del) {
+            rows.add(String.join("|", hex(schema), hex(table), String.valueOf(relfilenode), String.valueOf(size),
+                    String.valueOf(ins), String.valueOf(upd), String.valueOf(del), COLUMNS_MD5));
+        }
+
+        private static String hex(String s) {
+            return HexFormat.of().formatHex(s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public SqlResult query(DbConf conf, String db, String user, String pass, String sql) {
+            if (sql.contains("pg_postmaster_start_time")) {
+                return new SqlResult(generation + "\n", "");
+            }
+            return new SqlResult(String.join("\n", rows), "");
+        }
+
+        @Override
+        public SqlResult execute(DbConf conf, String db, String user, String pass, String sql) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<SqlResult> executeBatch(DbConf conf, String db, String user, String pass, List<String> sqls) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.com.brinvex.dba;
+
+import com.brinvex.dba.api.DbConf;
+import com.brinvex.dba.internal.postgres.PsqlSqlExecutor;
+import com.brinvex.dba.internal.postgres.SqlResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PsqlSqlExecutorTest {
+
+    private static final Path TOOLS = Path.of("pg_system", "bin");
+
+    private static DbConf conf(Path toolsPath) {
+        return new DbConf()
+                .setHost("db.local")
+                .setPort(5433)
+                .setDbToolsPath(toolsPath);
+    }
+
+    @Test
+    void commands() {
+        Path psql = TOOLS.resolve("psql");
+        assertEquals(psql + " -U app -h db.local -p 5433 -d app_db -X -v ON_ERROR_STOP=1 -f -",
+                PsqlSqlExecutor.command(conf(TOOLS), "app_db", "app"));
+        assertEquals(psql + " -U app -h db.local -p 5433 -d app_db -XtA -v ON_ERROR_STOP=1 -f -",
+                PsqlSqlExecutor.queryCommand(conf(TOOLS), "app_db", "app"));
+    }
+
+    /**
+     * A fake psql echoing its argument count and stdin proves the SQL arrives whole, however it is quoted.
+     */
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void sqlIsSentOverStdin(@TempDir Path toolsPath) throws IOException {
+        Path psql = toolsPath.resolve("psql");
+        Files.writeString(psql, """
+                #!/bin/sh
+                echo "$#"
+                cat
+                echo 'psql:<stdin>:1: NOTICE:  done' >&2
+                """);
+        Files.setPosixFilePermissions(psql, PosixFilePermissions.fromString("rwx------"));
+        String sql = "CREATE TABLE \"Mixed Case\" (note text DEFAULT 'a  b')";
+
+        SqlResult executed = new PsqlSqlExecutor().execute(conf(toolsPath), "app_db", "app", "secret", sql);
+        assertEquals("13\n" + sql, executed.getOut());
+        assertEquals("NOTICE:  done", executed.getErr());
+
+        SqlResult queried = new PsqlSqlExecutor().query(conf(toolsPath), "app_db", "app", "secret", sql);
+        assertEquals("13\n" + sql, queried.getOut());
+        assertEquals("NOTICE:  done", queried.getErr());
+    }
+}
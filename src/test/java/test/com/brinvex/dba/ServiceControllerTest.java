@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.com.brinvex.dba;
+
+import com.brinvex.dba.api.DbConf;
+import com.brinvex.dba.internal.postgres.PgCtlServiceController;
+import com.brinvex.dba.internal.postgres.PgToolPath;
+import com.brinvex.dba.internal.postgres.WinServiceController;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ServiceControllerTest {
+
+    private static final Path HOME = Path.of("pg_home");
+
+    private static final Path DATA = HOME.resolve("db_data");
+
+    private static final Path TOOLS = Path.of("pg_system", "bin");
+
+    private static DbConf conf() {
+        return new DbConf()
+                .setDbHomePath(HOME)
+                .setDbDataPath(DATA)
+                .setDbToolsPath(TOOLS)
+                .setReadinessTimeout(Duration.ofSeconds(90));
+    }
+
+    @Test
+    void toolPath() {
+        assertEquals(TOOLS.resolve("initdb"), PgToolPath.of(conf(), "initdb", false));
+        assertEquals(TOOLS.resolve("initdb.exe"), PgToolPath.of(conf(), "initdb", true));
+    }
+
+    @Test
+    void pgCtlCommands() {
+        PgCtlServiceController service = new PgCtlServiceController(conf(), false);
+        Path pgCtl = TOOLS.resolve("pg_ctl");
+        Path log = HOME.resolve("pg_ctl.log");
+        assertEquals(pgCtl + " status -D " + DATA, service.command("status"));
+        assertEquals(pgCtl + " start -w -t 90 -D " + DATA + " -l " + log, service.command("start"));
+        assertEquals(pgCtl + " stop -m fast -w -t 90 -D " + DATA, service.command("stop"));
+        assertEquals(pgCtl + " restart -m fast -w -t 90 -D " + DATA + " -l " + log, service.command("restart"));
+        assertEquals(pgCtl + " promote -w -t 90 -D " + DATA, service.command("promote"));
+        assertThrows(IllegalArgumentException.class, () -> service.command("kill"));
+    }
+
+    @Test
+    void pgCtlCommandsOnWindows() {
+        PgCtlServiceController service = new PgCtlServiceController(conf(), true);
+        assertEquals(TOOLS.resolve("pg_ctl.exe") + " status -D " + DATA, service.command("status"));
+    }
+
+    @Test
+    void pgCtlWaitsAtLeastOneSecond() {
+        PgCtlServiceController service = new PgCtlServiceController(conf().setReadinessTimeout(Duration.ofMillis(200)), false);
+        assertEquals(TOOLS.resolve("pg_ctl") + " stop -m fast -w -t 1 -D " + DATA, service.command("stop"));
+    }
+
+    @Test
+    void winServiceCommands() {
+        WinServiceController service = new WinServiceController(conf(), "pg_test");
+        Path pgCtl = TOOLS.resolve("pg_ctl.exe");
+        assertEquals(pgCtl + " register -N pg_test -D \"" + DATA + "\"", service.command("register"));
+        assertEquals(pgCtl + " unregister -N pg_test -D \"" + DATA + "\"", service.command("unregister"));
+        assertEquals(pgCtl + " promote -w -t 90 -D \"" + DATA + "\"", service.command("promote"));
+        assertThrows(IllegalArgumentException.class, () -> service.command("start"));
+    }
+}
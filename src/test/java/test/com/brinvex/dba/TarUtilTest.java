@@ -0,0 +1,273 @@
+/*
+ * Copyright © 2023 Brinvex (dev@brinvex.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package test.com.brinvex.dba;
+
+import com.brinvex.dba.internal.common.TarUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TarUtilTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void extract_plainAndGzip() throws IOException {
+        Tar tar = new Tar()
+                .dir("base/")
+                .file("base/PG_VERSION", "18\n")
+                .file("global/pg_control", "control");
+
+        Path target = tempDir.resolve("out");
+        assertEquals(10, TarUtil.extract(tar.write(tempDir.resolve("base.tar")), target));
+        assertEquals("18\n", Files.readString(target.resolve("base/PG_VERSION")));
+        assertEquals("control", Files.readString(target.resolve("global/pg_control")));
+
+        Path gzTarget = tempDir.resolve("gzOut");
+        assertEquals(10, TarUtil.extract(tar.writeGzip(tempDir.resolve("base.tar.gz")), gzTarget));
+        assertEquals("18\n", Files.readString(gzTarget.resolve("base/PG_VERSION")));
+    }
+
+    @Test
+    void extract_dotEntries() throws IOException {
+        Path archive = new Tar()
+                .dir("./")
+                .dir("./base/")
+                .file("./base/PG_VERSION", "18\n")
+                .write(tempDir.resolve("dot.tar"));
+
+        Path target = tempDir.resolve("out");
+        assertEquals(3, TarUtil.extract(archive, target));
+        assertEquals("18\n", Files.readString(target.resolve("base/PG_VERSION")));
+    }
+
+    @Test
+    void extract_rejectsUnsupportedArchive() {
+        assertThrows(IllegalArgumentException.class, () -> TarUtil.extract(tempDir.resolve("base.zip"), tempDir));
+    }
+
+    @Test
+    void extract_rejectsPathEscape() throws IOException {
+        Path archive = new Tar().file("../escaped", "x").write(tempDir.resolve("escape.tar"));
+
+        IOException e = assertThrows(IOException.class, () -> TarUtil.extract(archive, tempDir.resolve("out")));
+        assertTrue(e.getMessage().contains("outside of the target folder"), e.getMessage());
+        assertFalse(Files.exists(tempDir.resolve("escaped")));
+    }
+
+    @Test
+    void extract_rejectsAbsolutePath() throws IOException {
+        Path outside = tempDir.resolve("abs");
+        Path archive = new Tar().file(outside.toAbsolutePath().toString(), "x").write(tempDir.resolve("abs.tar"));
+
+        assertThrows(IOException.class, () -> TarUtil.extract(archive, tempDir.resolve("out")));
+        assertFalse(Files.exists(outside));
+    }
+
+    @Test
+    void extract_rejectsWriteThroughSymlink() throws IOException {
+        Path outside = Files.createDirectories(tempDir.resolve("outside"));
+        Path archive = new Tar()
+                .symlink("link", outside.toAbsolutePath().toString())
+                .file("link/escaped", "x")
+                .write(tempDir.resolve("symlink.tar"));
+
+        IOException e = assertThrows(IOException.class, () -> TarUtil.extract(archive, tempDir.resolve("out")));
+        assertTrue(e.getMessage().contains("outside of the target folder"), e.getMessage());
+        assertFalse(Files.exists(outside.resolve("escaped")));
+    }
+
+    @Test
+    void extract_gnuLongName() throws IOException {
+        String longName = "base/16384/" + "a".repeat(150) + "/" + "b".repeat(120);
+        Path archive = new Tar()
+                .entry("././@LongLink", 'L', (longName + "\0").getBytes(StandardCharsets.UTF_8), false)
+                .file("truncated", "long")
+                .file("short", "short")
+                .write(tempDir.resolve("long.tar"));
+
+        Path target = tempDir.resolve("out");
+        TarUtil.extract(archive, target);
+
+        assertEquals("long", Files.readString(target.resolve(longName)));
+        // The long name applies to the next entry only
+        assertEquals("short", Files.readString(target.resolve("short")));
+        assertFalse(Files.exists(target.resolve("truncated")));
+    }
+
+    @Test
+    void extract_paxPath() throws IOException {
+        String paxName = "base/" + "p".repeat(200) + "/16385";
+        Path archive = new Tar()
+                .entry("PaxHeaders/x", 'g', pax("comment", "global header, ignored"), false)
+                .entry("PaxHeaders/y", 'x', concat(pax("mtime", "1700000000.5"), pax("path", paxName)), false)
+                .file("truncated", "pax")
+                .write(tempDir.resolve("pax.tar"));
+
+        Path target = tempDir.resolve("out");
+        TarUtil.extract(archive, target);
+
+        assertEquals("pax", Files.readString(target.resolve(paxName)));
+        assertFalse(Files.exists(target.resolve("truncated")));
+    }
+
+    @Test
+    void extract_base256Size() throws IOException {
+        byte[] content = new byte[1500];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        Path archive = new Tar()
+                .entry("base/1", '0', content, true)
+                .file("base/2", "after")
+                .write(tempDir.resolve("b256.tar"));
+
+        Path target = tempDir.resolve("out");
+        assertEquals(1505, TarUtil.extract(archive, target));
+
+        assertArrayEquals(content, Files.readAllBytes(target.resolve("base/1")));
+        assertEquals("after", Files.readString(target.resolve("base/2")));
+    }
+
+    @Test
+    void extract_truncated() throws IOException {
+        Path full = new Tar().file("base/1", "x".repeat(2000)).write(tempDir.resolve("full.tar"));
+        byte[] bytes = Files.readAllBytes(full);
+        Path truncated = Files.write(tempDir.resolve("truncated.tar"), java.util.Arrays.copyOf(bytes, 1024));
+
+        assertThrows(IOException.class, () -> TarUtil.extract(truncated, tempDir.resolve("out")));
+    }
+
+    /**
+     * "LEN key=value\n", LEN counting the whole record including itself.
+     */
+    private static byte[] pax(String key, String value) {
+        String body = " " + key + "=" + value + "\n";
+        int bodyLen = body.getBytes(StandardCharsets.UTF_8).length;
+        int len = bodyLen + String.valueOf(bodyLen).length();
+        if (String.valueOf(len).length() != String.valueOf(bodyLen).length()) {
+            len++;
+        }
+        return (len + body).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    /**
+     * Writes ustar archives the way tar and pg_basebackup do.
+     */
+    private static class Tar {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Tar dir(String name) {
+            return header(name, '5', 0, "", false);
+        }
+
+        Tar file(String name, String content) {
+            return entry(name, '0', content.getBytes(StandardCharsets.UTF_8), false);
+        }
+
+        Tar symlink(String name, String linkName) {
+            return header(name, '2', 0, linkName, false);
+        }
+
+        Tar entry(String name, char type, byte[] content, boolean base256Size) {
+            header(name, type, content.length, "", base256Size);
+            out.writeBytes(content);
+            out.writeBytes(new byte[(512 - content.length % 512) % 512]);
+            return this;
+        }
+
+        private Tar header(String name, char type, long size, String linkName, boolean base256Size) {
+            byte[] h = new byte[512];
+            put(h, 0, 100, name);
+            put(h, 100, 8, format7(0644, 7));
+            put(h, 108, 8, format7(0, 7));
+            put(h, 116, 8, format7(0, 7));
+            if (base256Size) {
+                h[124] = (byte) 0x80;
+                for (int i = 0; i < 8; i++) {
+                    h[135 - i] = (byte) (size >>> (8 * i));
+                }
+            } else {
+                put(h, 124, 12, format7(size, 11));
+            }
+            put(h, 136, 12, format7(1700000000L, 11));
+            h[156] = (byte) type;
+            put(h, 157, 100, linkName);
+            put(h, 257, 6, "ustar");
+            put(h, 263, 2, "00");
+            for (int i = 148; i < 156; i++) {
+                h[i] = ' ';
+            }
+            long checksum = 0;
+            for (byte b : h) {
+                checksum += b & 0xff;
+            }
+            put(h, 148, 8, format7(checksum, 6));
+            out.writeBytes(h);
+            return this;
+        }
+
+        Path write(Path path) throws IOException {
+            Files.write(path, finish());
+            return path;
+        }
+
+        Path writeGzip(Path path) throws IOException {
+            try (OutputStream gz = new GZIPOutputStream(Files.newOutputStream(path))) {
+                gz.write(finish());
+            }
+            return path;
+        }
+
+        private byte[] finish() {
+            ByteArrayOutputStream archive = new ByteArrayOutputStream();
+            archive.writeBytes(out.toByteArray());
+            archive.writeBytes(new byte[1024]);
+            return archive.toByteArray();
+        }
+
+        private static String format7(long value, int digits) {
+            return String.format("%0" + digits + "o", value);
+        }
+
+        private static void put(byte[] h, int offset, int length, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(bytes, 0, h, offset, Math.min(bytes.length, length));
+        }
+    }
+}